@@ -0,0 +1,73 @@
+package dev.jozefowicz.stacjait.mynotes.benchmarks;
+
+import dev.jozefowicz.stacjait.mynotes.common.NoteType;
+import dev.jozefowicz.stacjait.mynotes.processfile.FileTypeClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Type detection of uploaded files - the extension lookup and magic byte sniffing of {@link FileTypeClassifier} and the
+ * <code>String.matches</code> call they replaced, which compiles the pattern on every record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileTypeBenchmark {
+
+    private final String[] fileNames = {"holiday.jpg", "IMG_20190715_214952.JPEG", "scan.PNG", "report-2019-q2.pdf",
+            "notes.txt", "archive.tar.gz", "diagram.bmp", "a-rather-long-file-name-exported-from-the-camera-roll.heic"};
+
+    private final byte[][] headers = new byte[4][FileTypeClassifier.SNIFF_BYTES];
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        for (byte[] header : headers) {
+            random.nextBytes(header);
+        }
+        // JPEG, WebP, HEIC and a document
+        headers[0][0] = (byte) 0xFF;
+        headers[0][1] = (byte) 0xD8;
+        headers[0][2] = (byte) 0xFF;
+        System.arraycopy("RIFF".getBytes(), 0, headers[1], 0, 4);
+        System.arraycopy("WEBP".getBytes(), 0, headers[1], 8, 4);
+        System.arraycopy("ftypheic".getBytes(), 0, headers[2], 4, 8);
+        System.arraycopy("%PDF-1.7".getBytes(), 0, headers[3], 0, 8);
+    }
+
+    @Benchmark
+    public void byName(Blackhole blackhole) {
+        for (String fileName : fileNames) {
+            blackhole.consume(FileTypeClassifier.byName(fileName));
+        }
+    }
+
+    @Benchmark
+    public void legacyByName(Blackhole blackhole) {
+        for (String fileName : fileNames) {
+            blackhole.consume(fileName.matches("(.*/)*.+\\.(png|jpg|gif|bmp|jpeg|PNG|JPG|GIF|BMP)$") ? NoteType.IMAGE : NoteType.FILE);
+        }
+    }
+
+    @Benchmark
+    public void sniff(Blackhole blackhole) {
+        for (byte[] header : headers) {
+            blackhole.consume(FileTypeClassifier.sniff(header));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package dev.jozefowicz.stacjait.mynotes.benchmarks;
+
+import dev.jozefowicz.stacjait.mynotes.common.PersistedNote;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+final class Fixtures {
+
+    static final String USER_ID = "fd3be9de-bd0d-44c9-85e5-bf24a4c5503d";
+
+    private static final String[] WORDS = {"lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit",
+            "sed", "do", "eiusmod", "tempor", "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua"};
+
+    private Fixtures() {
+    }
+
+    static String text(int length, Random random) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return text.substring(0, length);
+    }
+
+    /**
+     * API Gateway proxy event as Lambda receives it from a Cognito authorized REST API.
+     */
+    static String apiGatewayEvent(String httpMethod, String resource, String body) {
+        return "{"
+                + "\"resource\":\"" + resource + "\","
+                + "\"path\":\"" + resource + "\","
+                + "\"httpMethod\":\"" + httpMethod + "\","
+                + "\"headers\":{\"Accept\":\"application/json\",\"Authorization\":\"eyJraWQiOiJrMSIsImFsZyI6IlJTMjU2In0.e30.c2ln\","
+                + "\"Content-Type\":\"application/json\",\"Host\":\"abc123.execute-api.eu-west-2.amazonaws.com\","
+                + "\"User-Agent\":\"Mozilla/5.0\",\"X-Forwarded-For\":\"203.0.113.10\",\"X-Forwarded-Port\":\"443\",\"X-Forwarded-Proto\":\"https\"},"
+                + "\"queryStringParameters\":{\"limit\":\"50\",\"fields\":\"title,timestamp,labels\"},"
+                + "\"pathParameters\":null,"
+                + "\"stageVariables\":null,"
+                + "\"requestContext\":{\"accountId\":\"123456789012\",\"resourceId\":\"abc123\",\"stage\":\"prod\","
+                + "\"requestId\":\"c6af9ac6-7b61-11e6-9a41-93e8deadbeef\",\"httpMethod\":\"" + httpMethod + "\",\"resourcePath\":\"" + resource + "\","
+                + "\"identity\":{\"sourceIp\":\"203.0.113.10\",\"userAgent\":\"Mozilla/5.0\"},"
+                + "\"authorizer\":{\"claims\":{\"sub\":\"" + USER_ID + "\",\"aud\":\"3dohu5vurk9rbc38of88of59k8\",\"email_verified\":\"true\","
+                + "\"token_use\":\"id\",\"auth_time\":\"1562705770\",\"iss\":\"https://cognito-idp.eu-west-2.amazonaws.com/eu-west-2_JtSJaeBr1\","
+                + "\"cognito:username\":\"" + USER_ID + "\",\"exp\":\"Mon Jul 15 21:49:52 UTC 2019\",\"iat\":\"Mon Jul 15 20:49:52 UTC 2019\","
+                + "\"email\":\"user@example.com\"}}},"
+                + "\"body\":" + body + ","
+                + "\"isBase64Encoded\":false"
+                + "}";
+    }
+
+    static List<PersistedNote> notes(int count, int textLength) {
+        final Random random = new Random(42);
+        List<PersistedNote> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            notes.add(PersistedNote.create(USER_ID, text(32, random), text(textLength, random),
+                    Arrays.asList(WORDS[random.nextInt(WORDS.length)], WORDS[random.nextInt(WORDS.length)])));
+        }
+        return notes;
+    }
+}
@@ -0,0 +1,31 @@
+package dev.jozefowicz.stacjait.mynotes.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks with the GC profiler and writes JSON results, so time and allocation per operation
+ * (<code>gc.alloc.rate.norm</code>) can be compared between releases.
+ * <p>
+ * <code>java -cp benchmarks.jar dev.jozefowicz.stacjait.mynotes.benchmarks.GcProfiledRun [include regex] [result file]</code>
+ * is the same as <code>java -jar benchmarks.jar [regex] -prof gc -rf json -rff [result file]</code>.
+ */
+public final class GcProfiledRun {
+
+    private GcProfiledRun() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : "dev.jozefowicz.stacjait.mynotes.benchmarks.*")
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(args.length > 1 ? args[1] : "jmh-result.json")
+                .build();
+        new Runner(options).run();
+    }
+}
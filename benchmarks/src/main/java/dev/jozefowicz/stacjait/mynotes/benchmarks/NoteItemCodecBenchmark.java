@@ -0,0 +1,113 @@
+package dev.jozefowicz.stacjait.mynotes.benchmarks;
+
+import dev.jozefowicz.stacjait.mynotes.common.NoteItemCodec;
+import dev.jozefowicz.stacjait.mynotes.common.NoteType;
+import dev.jozefowicz.stacjait.mynotes.common.PersistedNote;
+import dev.jozefowicz.stacjait.mynotes.common.ResponseNote;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Encodes and decodes a page of notes with {@link NoteItemCodec} and with the per handler mapping it replaced
+ * (<code>legacy*</code> benchmarks). Run with <code>-prof gc</code> to compare allocation per page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoteItemCodecBenchmark {
+
+    @Param({"1000"})
+    private int pageSize;
+
+    @Param({"64", "256", "4096"})
+    private int textLength;
+
+    private List<PersistedNote> notes;
+    private List<Map<String, AttributeValue>> items;
+
+    @Setup
+    public void setUp() {
+        notes = Fixtures.notes(pageSize, textLength);
+        items = new ArrayList<>(pageSize);
+        for (PersistedNote note : notes) {
+            items.add(NoteItemCodec.toItem(note));
+        }
+    }
+
+    @Benchmark
+    public void encode(Blackhole blackhole) {
+        for (PersistedNote note : notes) {
+            blackhole.consume(NoteItemCodec.toItem(note));
+        }
+    }
+
+    @Benchmark
+    public void legacyEncode(Blackhole blackhole) {
+        for (PersistedNote note : notes) {
+            blackhole.consume(legacyMapToItem(note));
+        }
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) {
+        for (Map<String, AttributeValue> item : items) {
+            blackhole.consume(NoteItemCodec.toResponseNote(item));
+        }
+    }
+
+    @Benchmark
+    public void legacyDecode(Blackhole blackhole) {
+        for (Map<String, AttributeValue> item : items) {
+            blackhole.consume(legacyMapToNote(item));
+        }
+    }
+
+    private static Map<String, AttributeValue> legacyMapToItem(PersistedNote note) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("userId", AttributeValue.builder().s(note.getUserId()).build());
+        item.put("noteId", AttributeValue.builder().s(note.getNoteId()).build());
+        item.put("title", AttributeValue.builder().s(note.getTitle()).build());
+        item.put("text", AttributeValue.builder().s(note.getText()).build());
+        item.put("type", AttributeValue.builder().s(note.getType().name()).build());
+        if (nonNull(note.getLabels()) && !note.getLabels().isEmpty()) {
+            item.put("labels", AttributeValue.builder().ss(note.getLabels()).build());
+        }
+        item.put("timestamp", AttributeValue.builder().n(Long.toString(note.getTimestamp())).build());
+        return item;
+    }
+
+    private static ResponseNote legacyMapToNote(Map<String, AttributeValue> item) {
+        return new ResponseNote(
+                item.get("noteId").s(),
+                item.get("title").s(),
+                nonNull(item.get("text")) ? item.get("text").s() : null,
+                Long.valueOf(item.get("timestamp").n()),
+                NoteType.valueOf(item.get("type").s()),
+                nonNull(item.get("size")) ? Long.valueOf(item.get("size").n()) : null,
+                item.containsKey("labels") ? item.get("labels").ss() : null,
+                null,
+                null);
+    }
+}
@@ -0,0 +1,95 @@
+package dev.jozefowicz.stacjait.mynotes.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.jozefowicz.stacjait.mynotes.common.PersistedNote;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request side of a create note call - the proxy event Lambda deserializes, the claim and query parameter lookups every
+ * handler starts with and the <code>PersistedNote</code> body, for note texts of <code>textLength</code> characters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    private int textLength;
+
+    private final ObjectMapper eventMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private String event;
+    private String body;
+    private APIGatewayProxyRequestEvent request;
+
+    @Setup
+    public void setUp() throws IOException {
+        // configured like the handlers
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        final Random random = new Random(42);
+        final Map<String, String> note = new LinkedHashMap<>();
+        note.put("title", Fixtures.text(32, random));
+        note.put("text", Fixtures.text(textLength, random));
+        body = objectMapper.writeValueAsString(note);
+        event = Fixtures.apiGatewayEvent("POST", "/notes", eventMapper.writeValueAsString(body));
+        request = eventMapper.readValue(event, APIGatewayProxyRequestEvent.class);
+    }
+
+    @Benchmark
+    public APIGatewayProxyRequestEvent parseEvent() throws IOException {
+        return eventMapper.readValue(event, APIGatewayProxyRequestEvent.class);
+    }
+
+    @Benchmark
+    public void extractClaims(Blackhole blackhole) {
+        blackhole.consume(userId(request));
+        blackhole.consume(request.getQueryStringParameters().get("limit"));
+        blackhole.consume(request.getQueryStringParameters().get("fields"));
+    }
+
+    @Benchmark
+    public PersistedNote readNote() throws IOException {
+        return objectMapper.readValue(body, PersistedNote.class);
+    }
+
+    /**
+     * Everything above in sequence, as a create note invocation does it.
+     */
+    @Benchmark
+    public void parseRequest(Blackhole blackhole) throws IOException {
+        final APIGatewayProxyRequestEvent parsed = eventMapper.readValue(event, APIGatewayProxyRequestEvent.class);
+        blackhole.consume(userId(parsed));
+        blackhole.consume(objectMapper.readValue(parsed.getBody(), PersistedNote.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String userId(APIGatewayProxyRequestEvent request) {
+        final Map<String, String> claims = (Map<String, String>) request.getRequestContext().getAuthorizer().get("claims");
+        return claims.get("cognito:username");
+    }
+}
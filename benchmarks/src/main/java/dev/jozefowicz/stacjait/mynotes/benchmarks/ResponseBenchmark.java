@@ -0,0 +1,94 @@
+package dev.jozefowicz.stacjait.mynotes.benchmarks;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.jozefowicz.stacjait.mynotes.common.NoteItemCodec;
+import dev.jozefowicz.stacjait.mynotes.common.PersistedNote;
+import dev.jozefowicz.stacjait.mynotes.common.ResponseNote;
+import dev.jozefowicz.stacjait.mynotes.listnotes.Page;
+import dev.jozefowicz.stacjait.mynotes.listnotes.PageWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static dev.jozefowicz.stacjait.mynotes.common.APIGatewayProxyResponseEventBuilder.response;
+
+/**
+ * Response side of a list notes call - a page of <code>pageSize</code> items written with {@link PageWriter} and with
+ * the <code>Page</code> of <code>ResponseNote</code> serialization it replaced (<code>legacyWritePage</code>), and the
+ * response event wrapping the body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+
+    private static final String CURSOR = "eyJrIjp7InVzZXJJZCI6ImZkM2JlOWRlIiwibm90ZUlkIjoiMTIzNCJ9fQ.c2lnbmF0dXJl";
+
+    @Param({"20", "100", "1000"})
+    private int pageSize;
+
+    @Param({"256", "4096"})
+    private int textLength;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private PageWriter pageWriter;
+    private List<Map<String, AttributeValue>> items;
+    private String body;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        pageWriter = new PageWriter(objectMapper.getFactory(), key -> "https://my-notes.s3.eu-west-2.amazonaws.com/" + key);
+        items = new ArrayList<>(pageSize);
+        for (PersistedNote note : Fixtures.notes(pageSize, textLength)) {
+            items.add(NoteItemCodec.toItem(note));
+        }
+        body = pageWriter.write(items, CURSOR, PageWriter.ALL_FIELDS);
+    }
+
+    @Benchmark
+    public String writePage() throws IOException {
+        return pageWriter.write(items, CURSOR, PageWriter.ALL_FIELDS);
+    }
+
+    @Benchmark
+    public String legacyWritePage() throws IOException {
+        final List<ResponseNote> notes = new ArrayList<>(items.size());
+        for (Map<String, AttributeValue> item : items) {
+            notes.add(NoteItemCodec.toResponseNote(item));
+        }
+        return objectMapper.writeValueAsString(new Page<>(notes, CURSOR));
+    }
+
+    @Benchmark
+    public APIGatewayProxyResponseEvent response() {
+        return response(200, body);
+    }
+
+    @Benchmark
+    public APIGatewayProxyResponseEvent responseWithHeaders() {
+        return response(200, body, Collections.singletonMap("ETag", "\"7\""));
+    }
+}
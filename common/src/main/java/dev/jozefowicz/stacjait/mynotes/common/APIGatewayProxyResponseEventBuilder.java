@@ -13,15 +13,26 @@ public final class APIGatewayProxyResponseEventBuilder {
     private static final String ACCESS_CONTROL_ALLOW_CREDENTIALS = "Access-Control-Allow-Credentials";
 
     public final static APIGatewayProxyResponseEvent response(int statusCode, String body) {
+        return response(statusCode, body, null);
+    }
+
+    public final static APIGatewayProxyResponseEvent response(int statusCode, String body, Map<String, String> extraHeaders) {
         APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent();
         response.setStatusCode(statusCode);
         Map<String, String> headers = new HashMap<>();
         headers.put(ACCESS_CONTROL_ALLOW_ORIGIN, "*");
         headers.put(ACCESS_CONTROL_ALLOW_CREDENTIALS, Boolean.TRUE.toString());
+        if (nonNull(extraHeaders)) {
+            headers.putAll(extraHeaders);
+        }
         response.setHeaders(headers);
         if (nonNull(body)) {
             response.setBody(body);
         }
+        final Metrics metrics = Metrics.current();
+        metrics.size("ResponseBytes", body);
+        metrics.count("4xx", statusCode >= 400 && statusCode < 500 ? 1 : 0);
+        metrics.count("5xx", statusCode >= 500 ? 1 : 0);
         return response;
     }
 
@@ -0,0 +1,86 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Reads items with <code>BatchGetItem</code> in chunks of 100, retrying <code>UnprocessedKeys</code> with exponential backoff and full jitter.
+ * Items come back in no particular order and keys of missing items are simply absent from the result.
+ */
+public class BatchReader {
+
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+
+    public BatchReader(DynamoDbClient dynamoDbClient, String tableName, int maxAttempts, long baseBackoffMillis) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+    }
+
+    public List<Map<String, AttributeValue>> read(List<Map<String, AttributeValue>> keys) throws InterruptedException {
+        return read(keys, null, null);
+    }
+
+    public List<Map<String, AttributeValue>> read(List<Map<String, AttributeValue>> keys, String projection, Map<String, String> attributeNames) throws InterruptedException {
+        return read(keys, projection, attributeNames, false);
+    }
+
+    /**
+     * @throws IllegalStateException when some keys are still unprocessed after <code>maxAttempts</code>
+     */
+    public List<Map<String, AttributeValue>> read(List<Map<String, AttributeValue>> keys, String projection, Map<String, String> attributeNames, boolean consistentRead) throws InterruptedException {
+        final List<Map<String, AttributeValue>> items = new ArrayList<>(keys.size());
+        for (int from = 0; from < keys.size(); from += MAX_BATCH_SIZE) {
+            readChunk(keys.subList(from, Math.min(from + MAX_BATCH_SIZE, keys.size())), projection, attributeNames, consistentRead, items);
+        }
+        return items;
+    }
+
+    private void readChunk(List<Map<String, AttributeValue>> chunk, String projection, Map<String, String> attributeNames, boolean consistentRead, List<Map<String, AttributeValue>> items) throws InterruptedException {
+        List<Map<String, AttributeValue>> pending = chunk;
+        for (int attempt = 0; attempt < maxAttempts && !pending.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(backoff(attempt));
+            }
+            final BatchGetItemResponse response = dynamoDbClient.batchGetItem(BatchGetItemRequest
+                    .builder()
+                    .requestItems(Collections.singletonMap(tableName, KeysAndAttributes
+                            .builder()
+                            .keys(pending)
+                            .projectionExpression(projection)
+                            .expressionAttributeNames(attributeNames)
+                            .consistentRead(consistentRead)
+                            .build()))
+                    .build());
+            items.addAll(response.responses().getOrDefault(tableName, Collections.emptyList()));
+            final KeysAndAttributes unprocessed = response.unprocessedKeys().get(tableName);
+            pending = isNull(unprocessed) ? Collections.emptyList() : unprocessed.keys();
+        }
+        if (!pending.isEmpty()) {
+            throw new IllegalStateException(pending.size() + " items could not be read from " + tableName);
+        }
+    }
+
+    private long backoff(int attempt) {
+        final long ceiling = Math.min(MAX_BACKOFF_MILLIS, baseBackoffMillis << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
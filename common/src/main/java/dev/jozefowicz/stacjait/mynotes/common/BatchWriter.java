@@ -0,0 +1,73 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Writes items with <code>BatchWriteItem</code> in chunks of 25, retrying <code>UnprocessedItems</code> with exponential backoff and full jitter.
+ */
+public class BatchWriter {
+
+    private static final int MAX_BATCH_SIZE = 25;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+
+    public BatchWriter(DynamoDbClient dynamoDbClient, String tableName, int maxAttempts, long baseBackoffMillis) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+    }
+
+    /**
+     * @return requests which could not be written, empty when every request succeeded
+     */
+    public List<WriteRequest> write(List<WriteRequest> requests) throws InterruptedException {
+        List<WriteRequest> failed = new ArrayList<>();
+        for (int from = 0; from < requests.size(); from += MAX_BATCH_SIZE) {
+            failed.addAll(writeChunk(requests.subList(from, Math.min(from + MAX_BATCH_SIZE, requests.size()))));
+        }
+        return failed;
+    }
+
+    private List<WriteRequest> writeChunk(List<WriteRequest> chunk) throws InterruptedException {
+        List<WriteRequest> pending = chunk;
+        for (int attempt = 0; attempt < maxAttempts && !pending.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(backoff(attempt));
+            }
+            try {
+                final BatchWriteItemResponse response = dynamoDbClient.batchWriteItem(BatchWriteItemRequest
+                        .builder()
+                        .requestItems(Collections.singletonMap(tableName, pending))
+                        .build());
+                final List<WriteRequest> unprocessed = response.unprocessedItems().get(tableName);
+                pending = isNull(unprocessed) ? Collections.emptyList() : unprocessed;
+            } catch (SdkException e) {
+                if (!e.retryable()) {
+                    return pending;
+                }
+            }
+        }
+        return pending;
+    }
+
+    private long backoff(int attempt) {
+        final long ceiling = Math.min(MAX_BACKOFF_MILLIS, baseBackoffMillis << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
@@ -0,0 +1,196 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.regions.providers.DefaultAwsRegionProviderChain;
+import software.amazon.awssdk.services.comprehend.ComprehendAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.rekognition.RekognitionClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.sqs.SqsClient;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Shared SDK clients tuned for AWS Lambda cold starts.
+ * <p>
+ * Region and credentials are taken straight from the variables Lambda sets instead of walking the default provider chains,
+ * and all synchronous clients share a single <code>UrlConnectionHttpClient</code>, which loads a fraction of the classes
+ * of the Apache client. Every client is created lazily on first use and reused by all handlers living in the container.
+ * Service modules are optional dependencies of common - a handler module declares the services it actually calls.
+ * Clients registered with {@link #override(Class, Object)} take precedence, which is how the local runtime swaps in fakes.
+ * Every call is timed into the invocation's {@link Metrics}.
+ */
+public final class Clients {
+
+    private static final String AWS_REGION = "AWS_REGION";
+    private static final String AWS_ACCESS_KEY_ID = "AWS_ACCESS_KEY_ID";
+
+    private static final Duration CONNECTION_TIMEOUT = Duration.ofMillis(Environment.intValue("HTTP_CONNECTION_TIMEOUT_MS", 2000));
+    private static final Duration SOCKET_TIMEOUT = Duration.ofMillis(Environment.intValue("HTTP_SOCKET_TIMEOUT_MS", 10000));
+    private static final int MAX_CONNECTIONS = Environment.intValue("HTTP_MAX_CONNECTIONS", 50);
+
+    static {
+        // HttpURLConnection keeps at most 5 idle connections per destination by default, which is too few for concurrent analysis
+        if (isNull(System.getProperty("http.maxConnections"))) {
+            System.setProperty("http.maxConnections", Integer.toString(MAX_CONNECTIONS));
+        }
+    }
+
+    private static final Region REGION = region();
+    private static final AwsCredentialsProvider CREDENTIALS = credentials();
+    private static final SdkHttpClient HTTP_CLIENT = UrlConnectionHttpClient
+            .builder()
+            .connectionTimeout(CONNECTION_TIMEOUT)
+            .socketTimeout(SOCKET_TIMEOUT)
+            .build();
+    private static final ClientOverrideConfiguration OVERRIDE_CONFIGURATION = ClientOverrideConfiguration
+            .builder()
+            .addExecutionInterceptor(new MetricsInterceptor())
+            .build();
+
+    private static final Map<Class<?>, Object> OVERRIDES = new ConcurrentHashMap<>();
+
+    private Clients() {
+    }
+
+    public static DynamoDbClient dynamoDb() {
+        final DynamoDbClient override = overridden(DynamoDbClient.class);
+        return nonNull(override) ? override : DynamoDbHolder.INSTANCE;
+    }
+
+    public static S3Client s3() {
+        final S3Client override = overridden(S3Client.class);
+        return nonNull(override) ? override : S3Holder.INSTANCE;
+    }
+
+    public static S3Presigner s3Presigner() {
+        final S3Presigner override = overridden(S3Presigner.class);
+        return nonNull(override) ? override : S3PresignerHolder.INSTANCE;
+    }
+
+    public static RekognitionClient rekognition() {
+        final RekognitionClient override = overridden(RekognitionClient.class);
+        return nonNull(override) ? override : RekognitionHolder.INSTANCE;
+    }
+
+    public static SqsClient sqs() {
+        final SqsClient override = overridden(SqsClient.class);
+        return nonNull(override) ? override : SqsHolder.INSTANCE;
+    }
+
+    public static ComprehendAsyncClient comprehendAsync() {
+        final ComprehendAsyncClient override = overridden(ComprehendAsyncClient.class);
+        return nonNull(override) ? override : ComprehendAsyncHolder.INSTANCE;
+    }
+
+    /**
+     * Makes every handler created afterwards use <code>client</code> instead of the real client of that type.
+     */
+    public static <T> void override(Class<T> type, T client) {
+        OVERRIDES.put(type, client);
+    }
+
+    private static <T> T overridden(Class<T> type) {
+        return type.cast(OVERRIDES.get(type));
+    }
+
+    /**
+     * Opens the first connection (TLS handshake, signer and marshaller class loading) during the init phase,
+     * which Lambda runs with a full CPU, instead of during the first invocation. Failures are ignored -
+     * even an access denied response leaves a warm connection behind.
+     */
+    public static void warmUp(DynamoDbClient dynamoDbClient) {
+        if ("false".equalsIgnoreCase(Environment.get("WARM_UP"))) {
+            return;
+        }
+        try {
+            dynamoDbClient.describeEndpoints();
+        } catch (RuntimeException e) {
+            // best effort
+        }
+    }
+
+    private static Region region() {
+        final String region = Environment.get(AWS_REGION);
+        return nonNull(region) && !region.isEmpty() ? Region.of(region) : new DefaultAwsRegionProviderChain().getRegion();
+    }
+
+    private static AwsCredentialsProvider credentials() {
+        return nonNull(Environment.get(AWS_ACCESS_KEY_ID)) ? EnvironmentVariableCredentialsProvider.create() : DefaultCredentialsProvider.create();
+    }
+
+    private static final class DynamoDbHolder {
+        private static final DynamoDbClient INSTANCE = DynamoDbClient
+                .builder()
+                .region(REGION)
+                .credentialsProvider(CREDENTIALS)
+                .httpClient(HTTP_CLIENT)
+                .overrideConfiguration(OVERRIDE_CONFIGURATION)
+                .build();
+    }
+
+    private static final class S3Holder {
+        private static final S3Client INSTANCE = S3Client
+                .builder()
+                .region(REGION)
+                .credentialsProvider(CREDENTIALS)
+                .httpClient(HTTP_CLIENT)
+                .overrideConfiguration(OVERRIDE_CONFIGURATION)
+                .build();
+    }
+
+    private static final class S3PresignerHolder {
+        private static final S3Presigner INSTANCE = S3Presigner
+                .builder()
+                .region(REGION)
+                .credentialsProvider(CREDENTIALS)
+                .build();
+    }
+
+    private static final class RekognitionHolder {
+        private static final RekognitionClient INSTANCE = RekognitionClient
+                .builder()
+                .region(REGION)
+                .credentialsProvider(CREDENTIALS)
+                .httpClient(HTTP_CLIENT)
+                .overrideConfiguration(OVERRIDE_CONFIGURATION)
+                .build();
+    }
+
+    private static final class SqsHolder {
+        private static final SqsClient INSTANCE = SqsClient
+                .builder()
+                .region(REGION)
+                .credentialsProvider(CREDENTIALS)
+                .httpClient(HTTP_CLIENT)
+                .overrideConfiguration(OVERRIDE_CONFIGURATION)
+                .build();
+    }
+
+    private static final class ComprehendAsyncHolder {
+        private static final ComprehendAsyncClient INSTANCE = ComprehendAsyncClient
+                .builder()
+                .region(REGION)
+                .credentialsProvider(CREDENTIALS)
+                .httpClientBuilder(NettyNioAsyncHttpClient
+                        .builder()
+                        .maxConcurrency(Environment.intValue("ANALYSIS_CONCURRENCY", 4) + 1)
+                        .connectionTimeout(CONNECTION_TIMEOUT)
+                        .readTimeout(SOCKET_TIMEOUT))
+                .overrideConfiguration(OVERRIDE_CONFIGURATION)
+                .build();
+    }
+}
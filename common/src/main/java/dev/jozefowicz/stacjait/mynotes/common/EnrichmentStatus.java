@@ -0,0 +1,5 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+public enum EnrichmentStatus {
+    PENDING, COMPLETED
+}
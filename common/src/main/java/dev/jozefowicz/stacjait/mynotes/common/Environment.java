@@ -0,0 +1,33 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Objects.nonNull;
+
+public final class Environment {
+
+    private static final Map<String, String> OVERRIDES = new ConcurrentHashMap<>();
+
+    private Environment() {
+    }
+
+    public static String get(String name) {
+        final String value = OVERRIDES.get(name);
+        return nonNull(value) ? value : System.getenv(name);
+    }
+
+    public static int intValue(String name, int defaultValue) {
+        final String value = get(name);
+        return nonNull(value) && !value.isEmpty() ? Integer.parseInt(value) : defaultValue;
+    }
+
+    /**
+     * Replaces a variable for code running outside Lambda (local runtime, benchmarks). Handlers read their configuration
+     * into static fields, so overrides have to be in place before a handler class is loaded.
+     */
+    public static void override(String name, String value) {
+        OVERRIDES.put(name, value);
+    }
+
+}
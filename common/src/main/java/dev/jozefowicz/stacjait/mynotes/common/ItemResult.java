@@ -0,0 +1,24 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+/**
+ * Outcome of one item of a bulk request, reported with the HTTP status the item would have got on its own.
+ */
+public class ItemResult {
+    private String noteId;
+    private int status;
+
+    public String getNoteId() {
+        return noteId;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public static final ItemResult of(String noteId, int status) {
+        ItemResult result = new ItemResult();
+        result.noteId = noteId;
+        result.status = status;
+        return result;
+    }
+}
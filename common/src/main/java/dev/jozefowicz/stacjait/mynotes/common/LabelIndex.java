@@ -0,0 +1,35 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Key schema of the label index table, one entry per label of every labelled note.
+ * <p>
+ * Entries hold just the {@link #ATTRIBUTES} of the note - enough to render a label list of titles without reading
+ * the notes table. Texts, thumbnails and the rest are read from the notes themselves.
+ * <p>
+ * Partition key <code>userLabel</code> is <code>userId#label</code> with the label lower-cased, sort key <code>sortKey</code>
+ * is the zero padded timestamp followed by the note id, so notes with a given label are read newest first with one query.
+ */
+public final class LabelIndex {
+
+    public static final String USER_LABEL = "userLabel";
+    public static final String SORT_KEY = "sortKey";
+    public static final Set<String> ATTRIBUTES = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(
+            NoteItemCodec.NOTE_ID, NoteItemCodec.TITLE, NoteItemCodec.TIMESTAMP, NoteItemCodec.TYPE, NoteItemCodec.LABELS)));
+
+    private LabelIndex() {
+    }
+
+    public static String partitionKey(String userId, String label) {
+        return userId + "#" + label.toLowerCase(Locale.ROOT);
+    }
+
+    public static String sortKey(long timestamp, String noteId) {
+        return String.format("%019d#%s", timestamp, noteId);
+    }
+}
@@ -0,0 +1,98 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Per-user version of the note list, which tells list-notes whether a cached page is still current.
+ * <p>
+ * Every writer bumps the version after it changed a user's notes, so a page cached for an older version is never served again.
+ * Items are keyed by <code>userId</code> and hold the <code>listVersion</code> counter.
+ * When <code>tableName</code> is not configured nothing is recorded and list pages are not cached.
+ */
+public class ListVersions {
+
+    public static final String USER_ID = "userId";
+    public static final String LIST_VERSION = "listVersion";
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+
+    public ListVersions(DynamoDbClient dynamoDbClient, String tableName) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+    }
+
+    public boolean isEnabled() {
+        return nonNull(tableName);
+    }
+
+    /**
+     * Strongly consistent read, so a bump that completed before is always seen.
+     *
+     * @return <code>0</code> for users whose notes never changed since versions are recorded
+     */
+    public long current(String userId) {
+        final Map<String, AttributeValue> item = dynamoDbClient.getItem(GetItemRequest
+                .builder()
+                .tableName(tableName)
+                .key(key(userId))
+                .projectionExpression("#listVersion")
+                .expressionAttributeNames(Collections.singletonMap("#listVersion", LIST_VERSION))
+                .consistentRead(true)
+                .build()).item();
+        if (isNull(item) || !item.containsKey(LIST_VERSION)) {
+            return 0;
+        }
+        return Long.parseLong(item.get(LIST_VERSION).n());
+    }
+
+    /**
+     * Must be called after the write it accounts for, otherwise a reader could cache the old list under the new version.
+     */
+    public void bump(String userId) {
+        if (!isEnabled()) {
+            return;
+        }
+        final Map<String, AttributeValue> attributeValues = new HashMap<>();
+        attributeValues.put(":zero", AttributeValue.builder().n("0").build());
+        attributeValues.put(":one", AttributeValue.builder().n("1").build());
+        dynamoDbClient.updateItem(UpdateItemRequest
+                .builder()
+                .tableName(tableName)
+                .key(key(userId))
+                .updateExpression("SET #listVersion = if_not_exists(#listVersion, :zero) + :one")
+                .expressionAttributeNames(Collections.singletonMap("#listVersion", LIST_VERSION))
+                .expressionAttributeValues(attributeValues)
+                .returnValues(ReturnValue.NONE)
+                .build());
+    }
+
+    /**
+     * Best effort {@link #bump(String)} for writers whose write already succeeded - a failure is logged and only leaves
+     * cached list pages of the user stale until they expire.
+     */
+    public void bumpQuietly(String userId, LambdaLogger logger) {
+        try {
+            bump(userId);
+        } catch (Exception e) {
+            logger.log("Unable to bump list version of user " + userId);
+            e.printStackTrace();
+        }
+    }
+
+    private static Map<String, AttributeValue> key(String userId) {
+        return Collections.singletonMap(USER_ID, AttributeValue.builder().s(userId).build());
+    }
+}
@@ -0,0 +1,249 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Metrics of a single invocation, written to stdout as one CloudWatch Embedded Metric Format line when the invocation ends.
+ * CloudWatch extracts the metrics from the log line itself, so there is no agent and no API call on the request path.
+ * <p>
+ * Every SDK call is timed by {@link MetricsInterceptor} as <code>Service.Operation</code> - individual calls are kept as
+ * samples (at most {@value #MAX_SAMPLES} per metric, the EMF limit), so percentiles are computed by CloudWatch over calls,
+ * not over invocations. Metrics are aggregated by <code>FunctionName</code> and by <code>FunctionName</code> and
+ * <code>ColdStart</code>, so cold invocations can be told apart; the request id is a property. Set <code>METRICS=false</code>
+ * to turn recording off; <code>METRICS_NAMESPACE</code> defaults to <code>MyNotes</code>.
+ * <p>
+ * Calls made on SDK worker threads (callbacks of async clients) are attributed to the invocation most recently started,
+ * which is exact in Lambda where a container runs one invocation at a time.
+ */
+public final class Metrics {
+
+    public static final String MILLISECONDS = "Milliseconds";
+    public static final String BYTES = "Bytes";
+    public static final String COUNT = "Count";
+
+    private static final boolean ENABLED = !"false".equalsIgnoreCase(Environment.get("METRICS"));
+    private static final String NAMESPACE = nonNull(Environment.get("METRICS_NAMESPACE")) ? Environment.get("METRICS_NAMESPACE") : "MyNotes";
+    private static final int MAX_SAMPLES = 100;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final AtomicBoolean COLD = new AtomicBoolean(true);
+    private static final ThreadLocal<Metrics> CURRENT = new ThreadLocal<>();
+    private static final Metrics DISABLED = new Metrics(null, null, false);
+    private static volatile Metrics latest;
+
+    private final String functionName;
+    private final String requestId;
+    private final boolean coldStart;
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+    private boolean emitted;
+
+    private Metrics(String functionName, String requestId, boolean coldStart) {
+        this.functionName = functionName;
+        this.requestId = requestId;
+        this.coldStart = coldStart;
+    }
+
+    /**
+     * Starts recording the invocation on the calling thread. Must be paired with {@link #emit()}.
+     */
+    public static Metrics start(Context context) {
+        if (!ENABLED) {
+            return DISABLED;
+        }
+        final Metrics metrics = new Metrics(context.getFunctionName(), context.getAwsRequestId(), COLD.getAndSet(false));
+        CURRENT.set(metrics);
+        latest = metrics;
+        return metrics;
+    }
+
+    /**
+     * @return metrics of the invocation running on this thread, a no-op instance outside of invocations
+     */
+    public static Metrics current() {
+        final Metrics metrics = CURRENT.get();
+        if (nonNull(metrics)) {
+            return metrics;
+        }
+        final Metrics last = latest;
+        return nonNull(last) ? last : DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return this != DISABLED;
+    }
+
+    /**
+     * Records the milliseconds elapsed since <code>startNanos</code>, taken from {@link System#nanoTime()}.
+     */
+    public void time(String name, long startNanos) {
+        if (isEnabled()) {
+            sample(name, MILLISECONDS, (System.nanoTime() - startNanos) / 1_000_000d);
+        }
+    }
+
+    public void size(String name, long bytes) {
+        if (isEnabled()) {
+            sample(name, BYTES, bytes);
+        }
+    }
+
+    /**
+     * Records the UTF-8 encoded size of <code>payload</code>, nothing when it is <code>null</code>.
+     */
+    public void size(String name, String payload) {
+        if (isEnabled() && nonNull(payload)) {
+            sample(name, BYTES, utf8Length(payload));
+        }
+    }
+
+    /**
+     * Adds <code>delta</code> to a counter - counters are emitted as a single value per invocation.
+     */
+    public synchronized void count(String name, long delta) {
+        if (isEnabled() && !emitted) {
+            final Metric metric = metric(name, COUNT);
+            if (metric.size == 0) {
+                metric.add(delta);
+            } else {
+                metric.values[0] += delta;
+            }
+        }
+    }
+
+    /**
+     * Writes the metrics line and stops recording. Samples arriving later, e.g. from async calls the invocation
+     * stopped waiting for, are dropped.
+     */
+    public void emit() {
+        if (!isEnabled()) {
+            return;
+        }
+        time("Duration", startNanos);
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+        final String line;
+        synchronized (this) {
+            if (emitted) {
+                return;
+            }
+            emitted = true;
+            line = write();
+        }
+        if (nonNull(line)) {
+            System.out.println(line);
+        }
+    }
+
+    private synchronized void sample(String name, String unit, double value) {
+        if (!emitted) {
+            final Metric metric = metric(name, unit);
+            if (metric.size < MAX_SAMPLES) {
+                metric.add(value);
+            }
+        }
+    }
+
+    private Metric metric(String name, String unit) {
+        Metric metric = metrics.get(name);
+        if (isNull(metric)) {
+            metric = new Metric(unit);
+            metrics.put(name, metric);
+        }
+        return metric;
+    }
+
+    private String write() {
+        final StringWriter writer = new StringWriter(256 + metrics.size() * 64);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("_aws");
+            generator.writeNumberField("Timestamp", System.currentTimeMillis());
+            generator.writeArrayFieldStart("CloudWatchMetrics");
+            generator.writeStartObject();
+            generator.writeStringField("Namespace", NAMESPACE);
+            generator.writeArrayFieldStart("Dimensions");
+            generator.writeStartArray();
+            generator.writeString("FunctionName");
+            generator.writeEndArray();
+            generator.writeStartArray();
+            generator.writeString("FunctionName");
+            generator.writeString("ColdStart");
+            generator.writeEndArray();
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("Metrics");
+            for (Map.Entry<String, Metric> metric : metrics.entrySet()) {
+                generator.writeStartObject();
+                generator.writeStringField("Name", metric.getKey());
+                generator.writeStringField("Unit", metric.getValue().unit);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeStringField("FunctionName", functionName);
+            generator.writeStringField("RequestId", requestId);
+            // dimension values must be strings
+            generator.writeStringField("ColdStart", Boolean.toString(coldStart));
+            for (Map.Entry<String, Metric> metric : metrics.entrySet()) {
+                final Metric value = metric.getValue();
+                if (value.size == 1) {
+                    generator.writeNumberField(metric.getKey(), value.values[0]);
+                } else {
+                    generator.writeFieldName(metric.getKey());
+                    generator.writeArray(value.values, 0, value.size);
+                }
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            // metrics never fail an invocation
+            return null;
+        }
+        return writer.toString();
+    }
+
+    private static long utf8Length(String value) {
+        long length = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x800) {
+                // surrogate pairs count 2 + 2 for 4 bytes
+                length += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    private static final class Metric {
+        private final String unit;
+        private double[] values = new double[1];
+        private int size;
+
+        private Metric(String unit) {
+            this.unit = unit;
+        }
+
+        private void add(double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(values.length * 4, MAX_SAMPLES));
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import software.amazon.awssdk.core.SdkResponse;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.http.SdkHttpHeaders;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Times every call of the clients created by {@link Clients} into the {@link Metrics} of the calling invocation:
+ * <code>Service.Operation</code> (including retries), request and response sizes when known from <code>Content-Length</code>,
+ * items returned by queries and batch reads, and failed calls as <code>Service.Operation.Errors</code>.
+ */
+final class MetricsInterceptor implements ExecutionInterceptor {
+
+    private static final ExecutionAttribute<Metrics> METRICS = new ExecutionAttribute<>("MyNotesMetrics");
+    private static final ExecutionAttribute<Long> START_NANOS = new ExecutionAttribute<>("MyNotesMetricsStartNanos");
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        // runs on the calling thread, also for async clients
+        final Metrics metrics = Metrics.current();
+        if (metrics.isEnabled()) {
+            executionAttributes.putAttribute(METRICS, metrics);
+            executionAttributes.putAttribute(START_NANOS, System.nanoTime());
+        }
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        final Metrics metrics = executionAttributes.getAttribute(METRICS);
+        if (isNull(metrics)) {
+            return;
+        }
+        final String name = name(executionAttributes);
+        metrics.time(name, executionAttributes.getAttribute(START_NANOS));
+        contentLength(context.httpRequest()).ifPresent(bytes -> metrics.size(name + ".RequestBytes", bytes));
+        contentLength(context.httpResponse()).ifPresent(bytes -> metrics.size(name + ".ResponseBytes", bytes));
+        final SdkResponse response = context.response();
+        if (response instanceof QueryResponse) {
+            metrics.count(name + ".Items", ((QueryResponse) response).count());
+        } else if (response instanceof BatchGetItemResponse) {
+            metrics.count(name + ".Items", ((BatchGetItemResponse) response).responses().values().stream().mapToInt(List::size).sum());
+            metrics.count(name + ".UnprocessedKeys", ((BatchGetItemResponse) response).unprocessedKeys().values().stream().mapToInt(keys -> keys.keys().size()).sum());
+        }
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        final Metrics metrics = executionAttributes.getAttribute(METRICS);
+        if (isNull(metrics)) {
+            return;
+        }
+        final String name = name(executionAttributes);
+        metrics.time(name, executionAttributes.getAttribute(START_NANOS));
+        metrics.count(name + ".Errors", 1);
+    }
+
+    private static String name(ExecutionAttributes executionAttributes) {
+        return executionAttributes.getAttribute(SdkExecutionAttribute.SERVICE_NAME) + "." + executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+    }
+
+    private static Optional<Long> contentLength(SdkHttpHeaders headers) {
+        try {
+            return headers.firstMatchingHeader(CONTENT_LENGTH).map(Long::valueOf);
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+}
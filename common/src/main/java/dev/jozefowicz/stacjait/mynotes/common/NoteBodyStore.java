@@ -0,0 +1,138 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Storage tier for large note texts.
+ * <p>
+ * Texts longer than <code>thresholdBytes</code> (UTF-8) are written to the bucket under {@link #PREFIX} and the item keeps only
+ * <code>textLocation</code> and a short <code>preview</code>, so list pages and capacity charges stay small no matter how long notes are.
+ * Objects are keyed by the text hash, so an update never overwrites the body an older item still points to.
+ * When <code>bucketName</code> is not configured every text stays inline.
+ */
+public class NoteBodyStore {
+
+    /**
+     * Reserved prefix - keys starting with <code>_</code> never belong to uploaded files.
+     */
+    public static final String PREFIX = "_bodies/";
+    public static final int PREVIEW_LENGTH = 280;
+
+    private static final String GZIP_SUFFIX = ".gz";
+
+    private final S3Client s3Client;
+    private final String bucketName;
+    private final int thresholdBytes;
+    private final boolean compress;
+
+    /**
+     * Store that only reads and deletes texts offloaded by writers.
+     */
+    public NoteBodyStore(S3Client s3Client, String bucketName) {
+        this(s3Client, bucketName, Integer.MAX_VALUE, false);
+    }
+
+    public NoteBodyStore(S3Client s3Client, String bucketName, int thresholdBytes, boolean compress) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.thresholdBytes = thresholdBytes;
+        this.compress = compress;
+    }
+
+    public boolean shouldOffload(String text) {
+        // a UTF-8 encoded char takes at most 3 bytes, so short texts are decided without encoding them
+        return nonNull(bucketName) && nonNull(text) && text.length() * 3L > thresholdBytes
+                && text.getBytes(StandardCharsets.UTF_8).length > thresholdBytes;
+    }
+
+    /**
+     * @return the note itself when its text stays inline, otherwise a copy pointing at the stored text
+     */
+    public PersistedNote offload(PersistedNote note) {
+        if (!shouldOffload(note.getText())) {
+            return note;
+        }
+        return note.offloaded(store(note.getUserId(), note.getNoteId(), note.getTextHash(), note.getText()), preview(note.getText()));
+    }
+
+    /**
+     * @return location of the stored text
+     */
+    public String store(String userId, String noteId, String textHash, String text) {
+        final String key = PREFIX + userId + "/" + noteId + "/" + textHash + (compress ? GZIP_SUFFIX : "");
+        final byte[] bytes = compress ? gzip(text) : text.getBytes(StandardCharsets.UTF_8);
+        s3Client.putObject(PutObjectRequest
+                .builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType("text/plain; charset=utf-8")
+                .contentEncoding(compress ? "gzip" : null)
+                .build(), RequestBody.fromBytes(bytes));
+        return key;
+    }
+
+    public String load(String textLocation) {
+        final ResponseBytes<GetObjectResponse> object = s3Client.getObjectAsBytes(GetObjectRequest
+                .builder()
+                .bucket(bucketName)
+                .key(textLocation)
+                .build());
+        return textLocation.endsWith(GZIP_SUFFIX) ? gunzip(object.asByteArray()) : object.asUtf8String();
+    }
+
+    public void delete(String textLocation) {
+        if (isNull(textLocation)) {
+            return;
+        }
+        s3Client.deleteObject(DeleteObjectRequest.builder().bucket(bucketName).key(textLocation).build());
+    }
+
+    public static String preview(String text) {
+        if (text.length() <= PREVIEW_LENGTH) {
+            return text;
+        }
+        final int end = Character.isHighSurrogate(text.charAt(PREVIEW_LENGTH - 1)) ? PREVIEW_LENGTH - 1 : PREVIEW_LENGTH;
+        return text.substring(0, end);
+    }
+
+    private static byte[] gzip(String text) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() / 3 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String gunzip(byte[] compressed) {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(compressed.length * 4);
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = gzip.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Maps notes to and from DynamoDB items.
+ * <p>
+ * Runs once per note on every list and write, so it avoids per call garbage where it can: item maps are presized,
+ * attribute values of enum constants are shared (<code>AttributeValue</code> is immutable) and decoding does a single
+ * lookup per attribute without boxing numbers it doesn't have to.
+ */
+public final class NoteItemCodec {
+
+    public static final String USER_ID = "userId";
+    public static final String NOTE_ID = "noteId";
+    public static final String TITLE = "title";
+    public static final String TEXT = "text";
+    public static final String TYPE = "type";
+    public static final String SIZE = "size";
+    public static final String S3_LOCATION = "s3Location";
+    public static final String LABELS = "labels";
+    public static final String TIMESTAMP = "timestamp";
+    public static final String ENRICHMENT = "enrichment";
+    public static final String VERSION = "version";
+    public static final String TEXT_HASH = "textHash";
+    public static final String TEXT_LOCATION = "textLocation";
+    public static final String PREVIEW = "preview";
+    public static final String THUMBNAILS = "thumbnails";
+
+    private static final Map<NoteType, AttributeValue> TYPE_VALUES = new EnumMap<>(NoteType.class);
+    private static final Map<EnrichmentStatus, AttributeValue> ENRICHMENT_VALUES = new EnumMap<>(EnrichmentStatus.class);
+
+    static {
+        for (NoteType type : NoteType.values()) {
+            TYPE_VALUES.put(type, AttributeValue.builder().s(type.name()).build());
+        }
+        for (EnrichmentStatus status : EnrichmentStatus.values()) {
+            ENRICHMENT_VALUES.put(status, AttributeValue.builder().s(status.name()).build());
+        }
+    }
+
+    private NoteItemCodec() {
+    }
+
+    public static Map<String, AttributeValue> toItem(PersistedNote note) {
+        final boolean hasLabels = nonNull(note.getLabels()) && !note.getLabels().isEmpty();
+        final boolean hasThumbnails = nonNull(note.getThumbnails()) && !note.getThumbnails().isEmpty();
+        int attributes = 5;
+        attributes += nonNull(note.getText()) ? 1 : 0;
+        attributes += nonNull(note.getSize()) ? 1 : 0;
+        attributes += nonNull(note.getS3Location()) ? 1 : 0;
+        attributes += nonNull(note.getEnrichment()) ? 1 : 0;
+        attributes += hasLabels ? 1 : 0;
+        attributes += nonNull(note.getVersion()) ? 1 : 0;
+        attributes += nonNull(note.getTextHash()) ? 1 : 0;
+        attributes += nonNull(note.getTextLocation()) ? 2 : 0;
+        attributes += hasThumbnails ? 1 : 0;
+
+        final Map<String, AttributeValue> item = new HashMap<>(capacity(attributes));
+        item.put(USER_ID, string(note.getUserId()));
+        item.put(NOTE_ID, string(note.getNoteId()));
+        item.put(TITLE, string(note.getTitle()));
+        item.put(TYPE, TYPE_VALUES.get(note.getType()));
+        item.put(TIMESTAMP, number(note.getTimestamp()));
+        if (nonNull(note.getText())) {
+            item.put(TEXT, string(note.getText()));
+        }
+        if (nonNull(note.getSize())) {
+            item.put(SIZE, number(note.getSize()));
+        }
+        if (nonNull(note.getS3Location())) {
+            item.put(S3_LOCATION, string(note.getS3Location()));
+        }
+        if (nonNull(note.getEnrichment())) {
+            item.put(ENRICHMENT, ENRICHMENT_VALUES.get(note.getEnrichment()));
+        }
+        if (hasLabels) {
+            item.put(LABELS, AttributeValue.builder().ss(note.getLabels()).build());
+        }
+        if (nonNull(note.getVersion())) {
+            item.put(VERSION, number(note.getVersion()));
+        }
+        if (nonNull(note.getTextHash())) {
+            item.put(TEXT_HASH, string(note.getTextHash()));
+        }
+        if (nonNull(note.getTextLocation())) {
+            item.put(TEXT_LOCATION, string(note.getTextLocation()));
+            item.put(PREVIEW, string(note.getPreview()));
+        }
+        if (hasThumbnails) {
+            final Map<String, AttributeValue> thumbnails = new HashMap<>(capacity(note.getThumbnails().size()));
+            note.getThumbnails().forEach((size, location) -> thumbnails.put(size, string(location)));
+            item.put(THUMBNAILS, AttributeValue.builder().m(thumbnails).build());
+        }
+        return item;
+    }
+
+    public static Map<String, AttributeValue> key(String userId, String noteId) {
+        final Map<String, AttributeValue> key = new HashMap<>(capacity(2));
+        key.put(USER_ID, string(userId));
+        key.put(NOTE_ID, string(noteId));
+        return key;
+    }
+
+    /**
+     * Offloaded texts are represented by their preview, see {@link NoteBodyStore}.
+     */
+    public static ResponseNote toResponseNote(Map<String, AttributeValue> item) {
+        final AttributeValue text = item.containsKey(TEXT) ? item.get(TEXT) : item.get(PREVIEW);
+        return toResponseNote(item, nonNull(text) ? text.s() : null);
+    }
+
+    public static ResponseNote toResponseNote(Map<String, AttributeValue> item, String text) {
+        final AttributeValue size = item.get(SIZE);
+        final AttributeValue labels = item.get(LABELS);
+        final AttributeValue enrichment = item.get(ENRICHMENT);
+        final AttributeValue version = item.get(VERSION);
+        return new ResponseNote(
+                item.get(NOTE_ID).s(),
+                item.get(TITLE).s(),
+                text,
+                Long.parseLong(item.get(TIMESTAMP).n()),
+                noteType(item.get(TYPE).s()),
+                nonNull(size) ? Long.valueOf(Long.parseLong(size.n())) : null,
+                nonNull(labels) ? labels.ss() : null,
+                nonNull(enrichment) ? enrichmentStatus(enrichment.s()) : null,
+                nonNull(version) ? Long.valueOf(Long.parseLong(version.n())) : null);
+    }
+
+    public static NoteType noteType(String value) {
+        switch (value) {
+            case "TEXT":
+                return NoteType.TEXT;
+            case "IMAGE":
+                return NoteType.IMAGE;
+            case "FILE":
+                return NoteType.FILE;
+            default:
+                return NoteType.valueOf(value);
+        }
+    }
+
+    private static EnrichmentStatus enrichmentStatus(String value) {
+        switch (value) {
+            case "PENDING":
+                return EnrichmentStatus.PENDING;
+            case "COMPLETED":
+                return EnrichmentStatus.COMPLETED;
+            default:
+                return EnrichmentStatus.valueOf(value);
+        }
+    }
+
+    private static AttributeValue string(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+
+    private static AttributeValue number(long value) {
+        return AttributeValue.builder().n(Long.toString(value)).build();
+    }
+
+    private static int capacity(int entries) {
+        return (int) (entries / 0.75f) + 1;
+    }
+}
@@ -1,6 +1,8 @@
 package dev.jozefowicz.stacjait.mynotes.common;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 public class PersistedNote {
@@ -13,6 +15,12 @@ public class PersistedNote {
     private Long size;
     private List<String> labels;
     private String s3Location;
+    private EnrichmentStatus enrichment;
+    private Long version;
+    private String textHash;
+    private String textLocation;
+    private String preview;
+    private Map<String, String> thumbnails;
 
     public String getNoteId() {
         return noteId;
@@ -50,19 +58,63 @@ public class PersistedNote {
         return s3Location;
     }
 
-    public static final PersistedNote updated(String userId, String noteId, String title, String text, List<String> labels) {
+    public EnrichmentStatus getEnrichment() {
+        return enrichment;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public String getTextHash() {
+        return textHash;
+    }
+
+    public String getTextLocation() {
+        return textLocation;
+    }
+
+    public String getPreview() {
+        return preview;
+    }
+
+    /**
+     * @return locations of generated thumbnails keyed by their size in pixels
+     */
+    public Map<String, String> getThumbnails() {
+        return thumbnails;
+    }
+
+    /**
+     * @return copy of this note whose text is stored at <code>textLocation</code>, see {@link NoteBodyStore}
+     */
+    public PersistedNote offloaded(String textLocation, String preview) {
         PersistedNote note = new PersistedNote();
         note.userId = userId;
         note.noteId = noteId;
-        note.labels = labels;
-        note.type = NoteType.TEXT;
         note.title = title;
-        note.text = text;
-        note.timestamp = System.currentTimeMillis();
+        note.timestamp = timestamp;
+        note.type = type;
+        note.size = size;
+        note.labels = labels;
+        note.s3Location = s3Location;
+        note.enrichment = enrichment;
+        note.version = version;
+        note.textHash = textHash;
+        note.textLocation = textLocation;
+        note.preview = preview;
+        note.thumbnails = thumbnails;
         return note;
     }
 
     public static final PersistedNote create(String userId, String title, String text, List<String> labels) {
+        return create(userId, title, text, TextHash.of(text), labels);
+    }
+
+    /**
+     * @param textHash {@link TextHash} of <code>text</code>, for callers which already computed it
+     */
+    public static final PersistedNote create(String userId, String title, String text, String textHash, List<String> labels) {
         PersistedNote note = new PersistedNote();
         note.userId = userId;
         note.noteId = UUID.randomUUID().toString();
@@ -70,11 +122,19 @@ public class PersistedNote {
         note.type = NoteType.TEXT;
         note.title = title;
         note.text = text;
+        note.textHash = textHash;
         note.timestamp = System.currentTimeMillis();
+        note.version = 1L;
+        return note;
+    }
+
+    public static final PersistedNote createPending(String userId, String title, String text) {
+        PersistedNote note = create(userId, title, text, Collections.emptyList());
+        note.enrichment = EnrichmentStatus.PENDING;
         return note;
     }
 
-    public static final PersistedNote file(String userId, String noteId, String title, String s3Location, long size, NoteType type, List<String> labels) {
+    public static final PersistedNote file(String userId, String noteId, String title, String s3Location, long size, NoteType type, List<String> labels, Map<String, String> thumbnails) {
         PersistedNote note = new PersistedNote();
         note.userId = userId;
         note.noteId = noteId;
@@ -83,7 +143,9 @@ public class PersistedNote {
         note.title = title;
         note.size = size;
         note.s3Location = s3Location;
+        note.thumbnails = thumbnails;
         note.timestamp = System.currentTimeMillis();
+        note.version = 1L;
         return note;
     }
 
@@ -10,8 +10,10 @@ public class ResponseNote {
     private final NoteType type;
     private final Long size;
     private final List<String> labels;
+    private final EnrichmentStatus enrichment;
+    private final Long version;
 
-    public ResponseNote(String noteId, String title, String text, long timestamp, NoteType type, Long size, List<String> labels) {
+    public ResponseNote(String noteId, String title, String text, long timestamp, NoteType type, Long size, List<String> labels, EnrichmentStatus enrichment, Long version) {
         this.noteId = noteId;
         this.title = title;
         this.text = text;
@@ -19,6 +21,8 @@ public class ResponseNote {
         this.type = type;
         this.size = size;
         this.labels = labels;
+        this.enrichment = enrichment;
+        this.version = version;
     }
 
     public String getNoteId() {
@@ -49,4 +53,11 @@ public class ResponseNote {
         return labels;
     }
 
+    public EnrichmentStatus getEnrichment() {
+        return enrichment;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
 }
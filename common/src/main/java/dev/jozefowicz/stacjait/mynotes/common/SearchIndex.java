@@ -0,0 +1,144 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Write side of the full-text search index.
+ * <p>
+ * Every note has one index document (partition key <code>userId</code>, sort key <code>noteId</code>) holding the distinct
+ * terms of its title, text and labels as a single space separated string, so an update is a single put and a user's whole
+ * index can be loaded with one query and inverted in memory by the search handler.
+ * When <code>tableName</code> is not configured the index is disabled and every call is a no-op.
+ */
+public class SearchIndex {
+
+    public static final String TERMS = "terms";
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int MAX_TERMS = 4000;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final BatchWriter batchWriter;
+
+    public SearchIndex(DynamoDbClient dynamoDbClient, String tableName) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.batchWriter = new BatchWriter(dynamoDbClient, tableName, 8, 50);
+    }
+
+    public boolean isEnabled() {
+        return nonNull(tableName);
+    }
+
+    public static Set<String> terms(String... texts) {
+        final Set<String> terms = new TreeSet<>();
+        for (String text : texts) {
+            if (isNull(text)) {
+                continue;
+            }
+            for (String token : SEPARATORS.split(text.toLowerCase(Locale.ROOT))) {
+                if (token.length() >= MIN_TERM_LENGTH && token.length() <= MAX_TERM_LENGTH) {
+                    terms.add(token);
+                    if (terms.size() == MAX_TERMS) {
+                        return terms;
+                    }
+                }
+            }
+        }
+        return terms;
+    }
+
+    public void index(PersistedNote note) {
+        index(note.getUserId(), note.getNoteId(), note.getTimestamp(), note.getTitle(), note.getText(), labels(note.getLabels()));
+    }
+
+    public void index(String userId, String noteId, long timestamp, String... texts) {
+        if (!isEnabled()) {
+            return;
+        }
+        dynamoDbClient.putItem(PutItemRequest.builder().tableName(tableName).item(toItem(userId, noteId, timestamp, texts)).build());
+    }
+
+    /**
+     * @return notes whose index documents could not be written
+     */
+    public List<PersistedNote> indexAll(List<PersistedNote> notes) throws InterruptedException {
+        if (!isEnabled() || notes.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final Map<String, PersistedNote> byNoteId = new HashMap<>();
+        final List<WriteRequest> writes = new ArrayList<>(notes.size());
+        for (PersistedNote note : notes) {
+            byNoteId.put(note.getNoteId(), note);
+            writes.add(WriteRequest
+                    .builder()
+                    .putRequest(PutRequest.builder().item(toItem(note.getUserId(), note.getNoteId(), note.getTimestamp(), note.getTitle(), note.getText(), labels(note.getLabels()))).build())
+                    .build());
+        }
+        final List<PersistedNote> failed = new ArrayList<>();
+        for (WriteRequest write : batchWriter.write(writes)) {
+            failed.add(byNoteId.get(write.putRequest().item().get(NoteItemCodec.NOTE_ID).s()));
+        }
+        return failed;
+    }
+
+    public void remove(String userId, String noteId) {
+        if (!isEnabled()) {
+            return;
+        }
+        dynamoDbClient.deleteItem(DeleteItemRequest.builder().tableName(tableName).key(NoteItemCodec.key(userId, noteId)).build());
+    }
+
+    /**
+     * @return ids of notes whose index documents could not be removed
+     */
+    public List<String> removeAll(String userId, Collection<String> noteIds) throws InterruptedException {
+        if (!isEnabled() || noteIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final List<WriteRequest> writes = new ArrayList<>(noteIds.size());
+        for (String noteId : noteIds) {
+            writes.add(WriteRequest.builder().deleteRequest(DeleteRequest.builder().key(NoteItemCodec.key(userId, noteId)).build()).build());
+        }
+        final List<String> failed = new ArrayList<>();
+        for (WriteRequest write : batchWriter.write(writes)) {
+            failed.add(write.deleteRequest().key().get(NoteItemCodec.NOTE_ID).s());
+        }
+        return failed;
+    }
+
+    private static Map<String, AttributeValue> toItem(String userId, String noteId, long timestamp, String... texts) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(NoteItemCodec.USER_ID, AttributeValue.builder().s(userId).build());
+        item.put(NoteItemCodec.NOTE_ID, AttributeValue.builder().s(noteId).build());
+        item.put(NoteItemCodec.TIMESTAMP, AttributeValue.builder().n(Long.toString(timestamp)).build());
+        item.put(TERMS, AttributeValue.builder().s(String.join(" ", terms(texts))).build());
+        return item;
+    }
+
+    private static String labels(List<String> labels) {
+        return nonNull(labels) ? String.join(" ", labels) : null;
+    }
+}
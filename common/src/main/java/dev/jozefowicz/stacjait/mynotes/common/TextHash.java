@@ -0,0 +1,28 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hex encoded SHA-256 of a note text, stored next to the text so an update can tell whether the text really changed
+ * without reading it back.
+ */
+public final class TextHash {
+
+    private TextHash() {
+    }
+
+    public static String of(String text) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package dev.jozefowicz.stacjait.mynotes.common;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Records of deleted notes, read by delta sync.
+ * <p>
+ * Partition key <code>userId</code>, sort key <code>sortKey</code> in the {@link LabelIndex#sortKey(long, String)} format
+ * (zero padded deletion time and note id), so deletions after a watermark are one range query.
+ * Tombstones expire through the <code>expiresAt</code> TTL attribute after <code>retentionDays</code>; clients whose
+ * watermark is older than that have to sync from scratch.
+ * When <code>tableName</code> is not configured no tombstones are recorded.
+ */
+public class Tombstones {
+
+    public static final String SORT_KEY = "sortKey";
+    public static final String EXPIRES_AT = "expiresAt";
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final long retentionMillis;
+    private final BatchWriter batchWriter;
+
+    public Tombstones(DynamoDbClient dynamoDbClient, String tableName, int retentionDays) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.retentionMillis = TimeUnit.DAYS.toMillis(retentionDays);
+        this.batchWriter = new BatchWriter(dynamoDbClient, tableName, 8, 50);
+    }
+
+    public boolean isEnabled() {
+        return nonNull(tableName);
+    }
+
+    /**
+     * @return <code>true</code> when tombstones newer than <code>watermark</code> may already have expired
+     */
+    public boolean isExpired(long watermark, long now) {
+        return watermark < now - retentionMillis;
+    }
+
+    public void put(String userId, String noteId, long deletedAt) {
+        if (!isEnabled()) {
+            return;
+        }
+        dynamoDbClient.putItem(PutItemRequest.builder().tableName(tableName).item(toItem(userId, noteId, deletedAt)).build());
+    }
+
+    /**
+     * @return ids of notes whose tombstones could not be written
+     */
+    public List<String> putAll(String userId, Collection<String> noteIds, long deletedAt) throws InterruptedException {
+        if (!isEnabled() || noteIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final List<WriteRequest> writes = new ArrayList<>(noteIds.size());
+        for (String noteId : noteIds) {
+            writes.add(WriteRequest.builder().putRequest(PutRequest.builder().item(toItem(userId, noteId, deletedAt)).build()).build());
+        }
+        final List<String> failed = new ArrayList<>();
+        for (WriteRequest write : batchWriter.write(writes)) {
+            failed.add(write.putRequest().item().get(NoteItemCodec.NOTE_ID).s());
+        }
+        return failed;
+    }
+
+    public Map<String, AttributeValue> toItem(String userId, String noteId, long deletedAt) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put(NoteItemCodec.USER_ID, AttributeValue.builder().s(userId).build());
+        item.put(SORT_KEY, AttributeValue.builder().s(LabelIndex.sortKey(deletedAt, noteId)).build());
+        item.put(NoteItemCodec.NOTE_ID, AttributeValue.builder().s(noteId).build());
+        item.put(NoteItemCodec.TIMESTAMP, AttributeValue.builder().n(Long.toString(deletedAt)).build());
+        item.put(EXPIRES_AT, AttributeValue.builder().n(Long.toString(TimeUnit.MILLISECONDS.toSeconds(deletedAt + retentionMillis))).build());
+        return item;
+    }
+
+    /**
+     * @return ids of notes deleted at or after <code>since</code>
+     */
+    public List<String> deletedSince(String userId, long since) {
+        final Map<String, String> attributeNames = new HashMap<>();
+        attributeNames.put("#userId", NoteItemCodec.USER_ID);
+        attributeNames.put("#sortKey", SORT_KEY);
+        attributeNames.put("#noteId", NoteItemCodec.NOTE_ID);
+        final Map<String, AttributeValue> attributeValues = new HashMap<>();
+        attributeValues.put(":userId", AttributeValue.builder().s(userId).build());
+        attributeValues.put(":since", AttributeValue.builder().s(LabelIndex.sortKey(since, "")).build());
+
+        final List<String> noteIds = new ArrayList<>();
+        Map<String, AttributeValue> exclusiveStartKey = null;
+        do {
+            QueryResponse queryResponse = dynamoDbClient.query(QueryRequest
+                    .builder()
+                    .tableName(tableName)
+                    .keyConditionExpression("#userId = :userId AND #sortKey >= :since")
+                    .projectionExpression("#noteId")
+                    .expressionAttributeNames(attributeNames)
+                    .expressionAttributeValues(attributeValues)
+                    .exclusiveStartKey(exclusiveStartKey)
+                    .build());
+            queryResponse.items().forEach(item -> noteIds.add(item.get(NoteItemCodec.NOTE_ID).s()));
+            exclusiveStartKey = queryResponse.hasLastEvaluatedKey() && !queryResponse.lastEvaluatedKey().isEmpty() ? queryResponse.lastEvaluatedKey() : null;
+        } while (nonNull(exclusiveStartKey));
+        return noteIds;
+    }
+}
@@ -0,0 +1,29 @@
+package dev.jozefowicz.stacjait.mynotes.createnote;
+
+import java.util.List;
+
+/**
+ * Labels detected in a text by {@link NoteAnalyzer}. An incomplete analysis (a Comprehend error or the deadline) holds
+ * only the labels collected until then.
+ */
+public class Analysis {
+    private final List<String> labels;
+    private final boolean complete;
+
+    private Analysis(List<String> labels, boolean complete) {
+        this.labels = labels;
+        this.complete = complete;
+    }
+
+    public List<String> getLabels() {
+        return labels;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public static Analysis of(List<String> labels, boolean complete) {
+        return new Analysis(labels, complete);
+    }
+}
@@ -7,23 +7,42 @@ import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.jozefowicz.stacjait.mynotes.common.BatchWriter;
+import dev.jozefowicz.stacjait.mynotes.common.Clients;
+import dev.jozefowicz.stacjait.mynotes.common.EnrichmentStatus;
+import dev.jozefowicz.stacjait.mynotes.common.Environment;
+import dev.jozefowicz.stacjait.mynotes.common.ItemResult;
+import dev.jozefowicz.stacjait.mynotes.common.ListVersions;
+import dev.jozefowicz.stacjait.mynotes.common.Metrics;
+import dev.jozefowicz.stacjait.mynotes.common.NoteBodyStore;
+import dev.jozefowicz.stacjait.mynotes.common.NoteItemCodec;
+import dev.jozefowicz.stacjait.mynotes.common.NoteType;
 import dev.jozefowicz.stacjait.mynotes.common.PersistedNote;
-import software.amazon.awssdk.services.comprehend.ComprehendClient;
-import software.amazon.awssdk.services.comprehend.model.DetectDominantLanguageRequest;
-import software.amazon.awssdk.services.comprehend.model.DetectDominantLanguageResponse;
-import software.amazon.awssdk.services.comprehend.model.DetectEntitiesRequest;
-import software.amazon.awssdk.services.comprehend.model.DominantLanguage;
-import software.amazon.awssdk.services.comprehend.model.Entity;
-import software.amazon.awssdk.services.comprehend.model.LanguageCode;
+import dev.jozefowicz.stacjait.mynotes.common.SearchIndex;
+import dev.jozefowicz.stacjait.mynotes.common.TextHash;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static dev.jozefowicz.stacjait.mynotes.common.APIGatewayProxyResponseEventBuilder.response;
 import static java.util.Objects.isNull;
@@ -31,18 +50,55 @@ import static java.util.Objects.nonNull;
 
 public class CreateNoteHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
-    private final static String TABLE_NAME = System.getenv("TABLE_NAME");
+    private final static String TABLE_NAME = Environment.get("TABLE_NAME");
+    private final static String BUCKET_NAME = Environment.get("BUCKET_NAME");
+    private final static int BODY_OFFLOAD_THRESHOLD_BYTES = Environment.intValue("BODY_OFFLOAD_THRESHOLD_BYTES", 16384);
+    private final static boolean BODY_COMPRESSION = !"false".equalsIgnoreCase(Environment.get("BODY_COMPRESSION"));
+    private final static int ANALYSIS_CONCURRENCY = Environment.intValue("ANALYSIS_CONCURRENCY", 4);
+    private final static int ANALYSIS_TIMEOUT_MS = Environment.intValue("ANALYSIS_TIMEOUT_MS", 3000);
+    private final static String LABELS_CACHE_TABLE = Environment.get("LABELS_CACHE_TABLE");
+    private final static int LABELS_CACHE_SIZE = Environment.intValue("LABELS_CACHE_SIZE", 1000);
+    private final static int LABELS_CACHE_TTL_SECONDS = Environment.intValue("LABELS_CACHE_TTL_SECONDS", 86400);
+    private final static boolean ASYNC_ENRICHMENT = "async".equalsIgnoreCase(Environment.get("ENRICHMENT_MODE"));
+    private final static String ENRICHMENT_QUEUE_URL = Environment.get("ENRICHMENT_QUEUE_URL");
+    private final static String SEARCH_INDEX_TABLE = Environment.get("SEARCH_INDEX_TABLE");
+    private final static String USER_STATE_TABLE = Environment.get("USER_STATE_TABLE");
+    private final static Long ANY_VERSION = -1L;
+    private final static Long INVALID_VERSION = -2L;
+    private final static int TIMESTAMP_MAX_ATTEMPTS = 3;
+    private final static int BULK_MAX_ITEMS = Environment.intValue("BULK_MAX_ITEMS", 100);
+    // synchronously enriched batches must be analysed and written within the API Gateway integration timeout
+    private final static int BULK_MAX_ANALYSED_ITEMS = Environment.intValue("BULK_MAX_ANALYSED_ITEMS", 25);
+    private final static int BULK_ANALYSIS_CONCURRENCY = Environment.intValue("BULK_ANALYSIS_CONCURRENCY", 8);
+    private final static int BULK_ANALYSIS_TIMEOUT_MS = Environment.intValue("BULK_ANALYSIS_TIMEOUT_MS", 10000);
+    private final static int WRITE_MAX_ATTEMPTS = Environment.intValue("WRITE_MAX_ATTEMPTS", 8);
+    private final static int WRITE_BACKOFF_MS = Environment.intValue("WRITE_BACKOFF_MS", 50);
 
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final ComprehendClient comprehendClient = ComprehendClient.create();
-    private final DynamoDbClient dynamoDbClient = DynamoDbClient.create();
+    private final DynamoDbClient dynamoDbClient = Clients.dynamoDb();
+    private final LabelsCache labelsCache = new LabelsCache(LABELS_CACHE_SIZE, LABELS_CACHE_TTL_SECONDS, dynamoDbClient, LABELS_CACHE_TABLE);
+    private final NoteAnalyzer noteAnalyzer = new NoteAnalyzer(Clients.comprehendAsync(), labelsCache, ANALYSIS_CONCURRENCY, ANALYSIS_TIMEOUT_MS);
+    private final SearchIndex searchIndex = new SearchIndex(dynamoDbClient, SEARCH_INDEX_TABLE);
+    private final NoteBodyStore noteBodyStore = new NoteBodyStore(Clients.s3(), BUCKET_NAME, BODY_OFFLOAD_THRESHOLD_BYTES, BODY_COMPRESSION);
+    private final ListVersions listVersions = new ListVersions(dynamoDbClient, USER_STATE_TABLE);
+    private final NoteEnricher noteEnricher = new NoteEnricher(dynamoDbClient, noteAnalyzer, searchIndex, noteBodyStore, listVersions, TABLE_NAME, false);
+    private final BatchWriter batchWriter = new BatchWriter(dynamoDbClient, TABLE_NAME, WRITE_MAX_ATTEMPTS, WRITE_BACKOFF_MS);
+    private final EnrichmentQueue enrichmentQueue = ASYNC_ENRICHMENT ? new SqsEnrichmentQueue(Clients.sqs(), objectMapper, ENRICHMENT_QUEUE_URL) : null;
+    private final ExecutorService analysisExecutor = Executors.newFixedThreadPool(Math.max(1, BULK_ANALYSIS_CONCURRENCY), runnable -> {
+        Thread thread = new Thread(runnable, "create-note-analysis");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public CreateNoteHandler() {
         objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        Clients.warmUp(dynamoDbClient);
     }
 
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent request, Context context) {
+        final Metrics metrics = Metrics.start(context);
+        metrics.size("RequestBytes", request.getBody());
         try {
 
             if (isNull(request.getRequestContext().getAuthorizer()) || request.getRequestContext().getAuthorizer().isEmpty()) {
@@ -57,20 +113,27 @@ public class CreateNoteHandler implements RequestHandler<APIGatewayProxyRequestE
                 return response(400, null);
             }
 
+            if (isBatch(request)) {
+                return request.getHttpMethod().equalsIgnoreCase("post") ? postBatch(userId, request.getBody(), context) : response(405, null);
+            }
+
             final PersistedNote note = this.objectMapper.readValue(request.getBody(), PersistedNote.class);
+            final boolean patch = request.getHttpMethod().equalsIgnoreCase("patch");
 
-            if (invalid(note)) {
+            if (patch ? invalidPatch(note) : invalid(note)) {
                 return response(400, null);
             }
 
             switch (request.getHttpMethod().toUpperCase()) {
                 case "PUT":
-                    if (nonNull(request.getPathParameters()) && request.getPathParameters().containsKey("id")) {
-                        return put(userId, request.getPathParameters().get("id"), note);
+                case "PATCH":
+                    final Long expectedVersion = expectedVersion(header(request, "If-Match"));
+                    if (isNull(request.getPathParameters()) || !request.getPathParameters().containsKey("id") || INVALID_VERSION.equals(expectedVersion)) {
+                        return response(400, null);
                     }
-                    return response(400, null);
+                    return update(userId, request.getPathParameters().get("id"), note, expectedVersion, !patch, context);
                 case "POST":
-                    return post(userId, note);
+                    return post(userId, note, context);
                 default:
                     return response(405, null);
             }
@@ -78,59 +141,437 @@ public class CreateNoteHandler implements RequestHandler<APIGatewayProxyRequestE
             context.getLogger().log("Exception while processing request");
             e.printStackTrace();
             return response(500, null);
+        } finally {
+            metrics.emit();
         }
     }
 
-    private APIGatewayProxyResponseEvent post(String userId, PersistedNote note) {
-        PersistedNote newNote = PersistedNote.create(userId, note.getTitle(), note.getText(), analyze(note.getText()));
-        persist(newNote);
+    private APIGatewayProxyResponseEvent post(String userId, PersistedNote note, Context context) {
+        if (ASYNC_ENRICHMENT) {
+            PersistedNote newNote = PersistedNote.createPending(userId, note.getTitle(), note.getText());
+            persist(newNote, context);
+            listVersions.bumpQuietly(userId, context.getLogger());
+            enrich(newNote, context);
+            return response(200, null);
+        }
+        PersistedNote newNote = analysed(userId, note, context);
+        persist(newNote, context);
+        listVersions.bumpQuietly(userId, context.getLogger());
         return response(200, null);
     }
 
+    /**
+     * Creates up to <code>BULK_MAX_ITEMS</code> notes with <code>BatchWriteItem</code> and answers with one {@link ItemResult}
+     * per element of the request array, in the same order. Invalid elements don't stop the rest of the batch.
+     * <p>
+     * With synchronous enrichment a batch holds at most <code>BULK_MAX_ANALYSED_ITEMS</code> notes, analysed
+     * <code>BULK_ANALYSIS_CONCURRENCY</code> at a time under one deadline of <code>BULK_ANALYSIS_TIMEOUT_MS</code> for the whole
+     * batch - labels not detected by then are dropped, so the response never runs into the API Gateway timeout.
+     * Large imports should run with <code>ENRICHMENT_MODE=async</code>.
+     */
+    private APIGatewayProxyResponseEvent postBatch(String userId, String body, Context context) throws IOException, InterruptedException, ExecutionException {
+        final PersistedNote[] notes = this.objectMapper.readValue(body, PersistedNote[].class);
+        if (notes.length == 0 || notes.length > (ASYNC_ENRICHMENT ? BULK_MAX_ITEMS : Math.min(BULK_MAX_ITEMS, BULK_MAX_ANALYSED_ITEMS))) {
+            return response(400, null);
+        }
+
+        final List<PersistedNote> valid = new ArrayList<>(notes.length);
+        for (PersistedNote note : notes) {
+            if (nonNull(note) && !invalid(note)) {
+                valid.add(note);
+            }
+        }
+        final Iterator<PersistedNote> newNotes = (ASYNC_ENRICHMENT ? pending(userId, valid) : analysed(userId, valid, context)).iterator();
+
+        final List<ItemResult> results = new ArrayList<>(notes.length);
+        final Map<String, Integer> positions = new HashMap<>();
+        final Map<String, PersistedNote> created = new LinkedHashMap<>();
+        final List<WriteRequest> writes = new ArrayList<>(notes.length);
+        for (PersistedNote note : notes) {
+            if (isNull(note) || invalid(note)) {
+                results.add(ItemResult.of(null, 400));
+                continue;
+            }
+            final PersistedNote newNote = newNotes.next();
+            positions.put(newNote.getNoteId(), results.size());
+            results.add(ItemResult.of(newNote.getNoteId(), 200));
+            created.put(newNote.getNoteId(), newNote);
+            writes.add(WriteRequest.builder().putRequest(PutRequest.builder().item(NoteItemCodec.toItem(noteBodyStore.offload(newNote))).build()).build());
+        }
+
+        for (WriteRequest failed : batchWriter.write(writes)) {
+            final String noteId = failed.putRequest().item().get(NoteItemCodec.NOTE_ID).s();
+            results.set(positions.get(noteId), ItemResult.of(noteId, 500));
+            created.remove(noteId);
+        }
+
+        final List<PersistedNote> written = new ArrayList<>(created.values());
+        if (!written.isEmpty()) {
+            listVersions.bumpQuietly(userId, context.getLogger());
+        }
+        try {
+            for (PersistedNote note : searchIndex.indexAll(written)) {
+                context.getLogger().log("Unable to index note " + note.getNoteId() + " for search");
+            }
+        } catch (Exception e) {
+            context.getLogger().log("Exception while indexing notes for search");
+            e.printStackTrace();
+        }
+        if (ASYNC_ENRICHMENT) {
+            final List<EnrichmentRequest> enrichmentRequests = new ArrayList<>(written.size());
+            for (PersistedNote note : written) {
+                enrichmentRequests.add(EnrichmentRequest.of(note.getUserId(), note.getNoteId(), note.getTimestamp()));
+            }
+            for (EnrichmentRequest failed : enrichmentQueue.sendAll(enrichmentRequests)) {
+                context.getLogger().log("Unable to queue enrichment of note " + failed.getNoteId() + ", enriching synchronously");
+                try {
+                    noteEnricher.enrich(failed, context.getLogger());
+                } catch (Exception e) {
+                    // the note is stored, it just stays pending
+                    context.getLogger().log("Unable to enrich note " + failed.getNoteId());
+                    e.printStackTrace();
+                }
+            }
+        }
+        return response(200, objectMapper.writeValueAsString(results));
+    }
+
+    /**
+     * New note with the labels of its text, the hash computed for the note is reused as the labels cache key.
+     */
+    private PersistedNote analysed(String userId, PersistedNote note, Context context) {
+        final String textHash = TextHash.of(note.getText());
+        return PersistedNote.create(userId, note.getTitle(), note.getText(), textHash, noteAnalyzer.analyze(note.getText(), textHash, context.getLogger()).getLabels());
+    }
+
+    /**
+     * @return new notes with labels, in the order of <code>notes</code>, analysed concurrently under one deadline
+     */
+    private List<PersistedNote> analysed(String userId, List<PersistedNote> notes, Context context) throws InterruptedException, ExecutionException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BULK_ANALYSIS_TIMEOUT_MS);
+        final List<Future<PersistedNote>> analyses = new ArrayList<>(notes.size());
+        for (PersistedNote note : notes) {
+            analyses.add(analysisExecutor.submit(() -> {
+                final String textHash = TextHash.of(note.getText());
+                final List<String> labels = noteAnalyzer.analyze(note.getText(), textHash, deadline, context.getLogger()).getLabels();
+                return PersistedNote.create(userId, note.getTitle(), note.getText(), textHash, labels);
+            }));
+        }
+        final List<PersistedNote> analysed = new ArrayList<>(notes.size());
+        for (Future<PersistedNote> analysis : analyses) {
+            analysed.add(analysis.get());
+        }
+        return analysed;
+    }
+
+    private static List<PersistedNote> pending(String userId, List<PersistedNote> notes) {
+        final List<PersistedNote> pending = new ArrayList<>(notes.size());
+        for (PersistedNote note : notes) {
+            pending.add(PersistedNote.createPending(userId, note.getTitle(), note.getText()));
+        }
+        return pending;
+    }
+
+    private boolean isBatch(APIGatewayProxyRequestEvent request) {
+        return nonNull(request.getResource()) && request.getResource().endsWith("/batch");
+    }
+
     private boolean invalid(PersistedNote note) {
         return isNull(note.getText()) || note.getText().isEmpty() || isNull(note.getTitle()) || note.getTitle().isEmpty();
     }
 
-    private APIGatewayProxyResponseEvent put(String userId, String noteId, PersistedNote note) {
-        PersistedNote updated = PersistedNote.updated(userId, noteId, note.getTitle(), note.getText(), analyze(note.getText()));
-        persist(updated);
-        return response(200, null);
+    private boolean invalidPatch(PersistedNote note) {
+        return (isNull(note.getText()) && isNull(note.getTitle()))
+                || (nonNull(note.getText()) && note.getText().isEmpty())
+                || (nonNull(note.getTitle()) && note.getTitle().isEmpty());
     }
 
-    private List<String> analyze(String textToAnalyze) {
-        DetectDominantLanguageResponse dominantLanguage = comprehendClient.detectDominantLanguage(DetectDominantLanguageRequest.builder().text(textToAnalyze).build());
-        return new ArrayList<>(dominantLanguage
-                .languages()
-                .stream()
-                .filter(language -> LanguageCode.fromValue(language.languageCode()) != LanguageCode.UNKNOWN_TO_SDK_VERSION)
-                .map(DominantLanguage::languageCode)
-                .map(code -> comprehendClient.detectEntities(DetectEntitiesRequest.builder().languageCode(code).text(textToAnalyze).build()))
-                .flatMap(detectEntitiesResponse -> detectEntitiesResponse.entities().stream())
-                .map(Entity::text)
-                .collect(Collectors.toSet()));
+    /**
+     * Updates a text note in place with <code>UpdateItem</code>, touching only the attributes present in the request.
+     * <p>
+     * PUT replaces title and text and creates the note when it doesn't exist, PATCH changes any of them on an existing note.
+     * With <code>If-Match</code> the write is conditional on the note's version (412 on mismatch), so concurrent edits can't
+     * silently overwrite each other. The old item comes back with the write, so analysis runs again only when the text
+     * hash changed. The new version is returned as <code>ETag</code>.
+     * <p>
+     * With synchronous enrichment a new text is analysed before the write, like {@link #post} does, so the labels change
+     * together with the text in a single write and readers never see the new text with the old labels.
+     * <p>
+     * The timestamp never moves backwards, label index sort keys and sync watermarks rely on it: when the stored one is
+     * ahead of this clock (e.g. set by enrichment), the write is retried with the stored timestamp + 1 like enrichment does.
+     * PUT keeps the type of an existing note, so files and images keep their stored objects.
+     * <p>
+     * A long text is stored in the bucket before the write; the body the old item pointed to is removed only once the
+     * write succeeded, so a failed write never leaves the note without its text.
+     */
+    private APIGatewayProxyResponseEvent update(String userId, String noteId, PersistedNote note, Long expectedVersion, boolean upsert, Context context) {
+        long now = System.currentTimeMillis();
+        final String textHash = nonNull(note.getText()) ? TextHash.of(note.getText()) : null;
+        final Map<String, String> attributeNames = new HashMap<>();
+        final Map<String, AttributeValue> attributeValues = new HashMap<>();
+        attributeNames.put("#timestamp", NoteItemCodec.TIMESTAMP);
+        attributeNames.put("#version", NoteItemCodec.VERSION);
+        attributeValues.put(":now", AttributeValue.builder().n(Long.toString(now)).build());
+        attributeValues.put(":zero", AttributeValue.builder().n("0").build());
+        attributeValues.put(":one", AttributeValue.builder().n("1").build());
+        final StringBuilder updateExpression = new StringBuilder("SET #timestamp = :now, #version = if_not_exists(#version, :zero) + :one");
+        final StringBuilder removeExpression = new StringBuilder();
+        String textLocation = null;
+        // an unchanged text is mostly answered by the labels cache, keyed by the same hash
+        final List<String> newLabels = !ASYNC_ENRICHMENT && nonNull(textHash) ? noteAnalyzer.analyze(note.getText(), textHash, context.getLogger()).getLabels() : null;
+        if (nonNull(note.getTitle())) {
+            attributeNames.put("#title", NoteItemCodec.TITLE);
+            attributeValues.put(":title", AttributeValue.builder().s(note.getTitle()).build());
+            updateExpression.append(", #title = :title");
+        }
+        if (nonNull(textHash)) {
+            attributeNames.put("#text", NoteItemCodec.TEXT);
+            attributeNames.put("#textHash", NoteItemCodec.TEXT_HASH);
+            attributeNames.put("#textLocation", NoteItemCodec.TEXT_LOCATION);
+            attributeNames.put("#preview", NoteItemCodec.PREVIEW);
+            attributeValues.put(":textHash", AttributeValue.builder().s(textHash).build());
+            if (noteBodyStore.shouldOffload(note.getText())) {
+                textLocation = noteBodyStore.store(userId, noteId, textHash, note.getText());
+                attributeValues.put(":textLocation", AttributeValue.builder().s(textLocation).build());
+                attributeValues.put(":preview", AttributeValue.builder().s(NoteBodyStore.preview(note.getText())).build());
+                updateExpression.append(", #textLocation = :textLocation, #preview = :preview, #textHash = :textHash");
+                removeExpression.append("#text");
+            } else {
+                attributeValues.put(":text", AttributeValue.builder().s(note.getText()).build());
+                updateExpression.append(", #text = :text, #textHash = :textHash");
+                removeExpression.append("#textLocation, #preview");
+            }
+        }
+        if (nonNull(newLabels)) {
+            attributeNames.put("#labels", NoteItemCodec.LABELS);
+            if (newLabels.isEmpty()) {
+                removeExpression.append(", #labels");
+            } else {
+                attributeValues.put(":labels", AttributeValue.builder().ss(newLabels).build());
+                updateExpression.append(", #labels = :labels");
+            }
+        }
+        if (upsert) {
+            attributeNames.put("#type", NoteItemCodec.TYPE);
+            attributeValues.put(":type", AttributeValue.builder().s(NoteType.TEXT.name()).build());
+            updateExpression.append(", #type = if_not_exists(#type, :type)");
+        }
+
+        if (removeExpression.length() > 0) {
+            updateExpression.append(" REMOVE ").append(removeExpression);
+        }
+
+        final String condition;
+        if (isNull(expectedVersion)) {
+            condition = upsert ? null : "attribute_exists(#noteId)";
+        } else if (ANY_VERSION.equals(expectedVersion)) {
+            condition = "attribute_exists(#noteId)";
+        } else if (expectedVersion == 0) {
+            // notes written before versioning have no version attribute
+            condition = "attribute_exists(#noteId) AND attribute_not_exists(#version)";
+        } else {
+            attributeValues.put(":expected", AttributeValue.builder().n(Long.toString(expectedVersion)).build());
+            condition = "#version = :expected";
+        }
+        if (nonNull(condition) && condition.contains("#noteId")) {
+            attributeNames.put("#noteId", NoteItemCodec.NOTE_ID);
+        }
+        final String timestampCondition = "(attribute_not_exists(#timestamp) OR #timestamp < :now)";
+
+        final Map<String, AttributeValue> key = NoteItemCodec.key(userId, noteId);
+        Map<String, AttributeValue> old;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                old = dynamoDbClient.updateItem(UpdateItemRequest
+                        .builder()
+                        .tableName(TABLE_NAME)
+                        .key(key)
+                        .updateExpression(updateExpression.toString())
+                        .conditionExpression(isNull(condition) ? timestampCondition : condition + " AND " + timestampCondition)
+                        .expressionAttributeNames(attributeNames)
+                        .expressionAttributeValues(attributeValues)
+                        .returnValues(ReturnValue.ALL_OLD)
+                        .build()).attributes();
+                break;
+            } catch (ConditionalCheckFailedException e) {
+                final Map<String, AttributeValue> current = current(key);
+                final AttributeValue timestamp = current.get(NoteItemCodec.TIMESTAMP);
+                if (attempt >= TIMESTAMP_MAX_ATTEMPTS || isNull(timestamp) || Long.parseLong(timestamp.n()) < now) {
+                    discardText(textLocation, current, noteId, context);
+                    return response(isNull(expectedVersion) ? 404 : 412, null);
+                }
+                now = Long.parseLong(timestamp.n()) + 1;
+                attributeValues.put(":now", AttributeValue.builder().n(Long.toString(now)).build());
+            }
+        }
+
+        final long version = (old.containsKey(NoteItemCodec.VERSION) ? Long.parseLong(old.get(NoteItemCodec.VERSION).n()) : 0) + 1;
+        final boolean textChanged = nonNull(textHash) && (!old.containsKey(NoteItemCodec.TEXT_HASH) || !textHash.equals(old.get(NoteItemCodec.TEXT_HASH).s()));
+        final String title = nonNull(note.getTitle()) ? note.getTitle() : old.get(NoteItemCodec.TITLE).s();
+        final String oldTextLocation = old.containsKey(NoteItemCodec.TEXT_LOCATION) ? old.get(NoteItemCodec.TEXT_LOCATION).s() : null;
+        if (nonNull(textHash) && nonNull(oldTextLocation) && !oldTextLocation.equals(textLocation)) {
+            try {
+                noteBodyStore.delete(oldTextLocation);
+            } catch (Exception e) {
+                context.getLogger().log("Unable to delete previous text of note " + noteId);
+                e.printStackTrace();
+            }
+        }
+        final String text = nonNull(note.getText()) ? note.getText()
+                : old.containsKey(NoteItemCodec.TEXT) ? old.get(NoteItemCodec.TEXT).s()
+                : nonNull(oldTextLocation) ? noteBodyStore.load(oldTextLocation) : null;
+        final List<String> labels = nonNull(newLabels) ? newLabels
+                : old.containsKey(NoteItemCodec.LABELS) ? old.get(NoteItemCodec.LABELS).ss() : Collections.emptyList();
+
+        if (ASYNC_ENRICHMENT && textChanged) {
+            if (markPending(key, textHash)) {
+                enrich(EnrichmentRequest.of(userId, noteId, now), context);
+            }
+        }
+        listVersions.bumpQuietly(userId, context.getLogger());
+        try {
+            searchIndex.index(userId, noteId, now, title, text, String.join(" ", labels));
+        } catch (Exception e) {
+            context.getLogger().log("Unable to index note " + noteId + " for search");
+            e.printStackTrace();
+        }
+        return response(200, null, etag(version));
     }
 
-    private void persist(PersistedNote note) {
-        Map<String, AttributeValue> item = mapToItem(note);
-        dynamoDbClient.putItem(PutItemRequest
+    /**
+     * @return timestamp and text location of the note, empty when there is no such note
+     */
+    private Map<String, AttributeValue> current(Map<String, AttributeValue> key) {
+        final Map<String, String> attributeNames = new HashMap<>();
+        attributeNames.put("#timestamp", NoteItemCodec.TIMESTAMP);
+        attributeNames.put("#textLocation", NoteItemCodec.TEXT_LOCATION);
+        final Map<String, AttributeValue> item = dynamoDbClient.getItem(GetItemRequest
                 .builder()
                 .tableName(TABLE_NAME)
-                .item(item)
-                .build());
+                .key(key)
+                .consistentRead(true)
+                .projectionExpression("#timestamp, #textLocation")
+                .expressionAttributeNames(attributeNames)
+                .build()).item();
+        return isNull(item) ? Collections.emptyMap() : item;
+    }
+
+    /**
+     * Removes a text stored for a write that failed. Locations are derived from the text hash, so the object is kept
+     * when the note already points to the same one.
+     */
+    private void discardText(String textLocation, Map<String, AttributeValue> current, String noteId, Context context) {
+        if (isNull(textLocation) || (current.containsKey(NoteItemCodec.TEXT_LOCATION) && textLocation.equals(current.get(NoteItemCodec.TEXT_LOCATION).s()))) {
+            return;
+        }
+        try {
+            noteBodyStore.delete(textLocation);
+        } catch (Exception e) {
+            context.getLogger().log("Unable to delete text of rejected update of note " + noteId);
+            e.printStackTrace();
+        }
     }
 
-    private Map<String, AttributeValue> mapToItem(PersistedNote note) {
-        Map<String, AttributeValue> item = new HashMap<>();
-        item.put("userId", AttributeValue.builder().s(note.getUserId()).build());
-        item.put("noteId", AttributeValue.builder().s(note.getNoteId()).build());
-        item.put("title", AttributeValue.builder().s(note.getTitle()).build());
-        item.put("text", AttributeValue.builder().s(note.getText()).build());
-        item.put("type", AttributeValue.builder().s(note.getType().name()).build());
-        if (nonNull(note.getLabels()) && !note.getLabels().isEmpty()) {
-            item.put("labels", AttributeValue.builder().ss(note.getLabels()).build());
+    /**
+     * Marks a changed text for enrichment. Conditional on the text rather than the version, so a later update which
+     * kept the text doesn't leave it unenriched, while one which changed it again marks its own text.
+     *
+     * @return <code>false</code> when the text was replaced in the meantime
+     */
+    private boolean markPending(Map<String, AttributeValue> key, String textHash) {
+        final Map<String, String> attributeNames = new HashMap<>();
+        final Map<String, AttributeValue> attributeValues = new HashMap<>();
+        attributeNames.put("#enrichment", NoteItemCodec.ENRICHMENT);
+        attributeNames.put("#textHash", NoteItemCodec.TEXT_HASH);
+        attributeValues.put(":pending", AttributeValue.builder().s(EnrichmentStatus.PENDING.name()).build());
+        attributeValues.put(":textHash", AttributeValue.builder().s(textHash).build());
+        try {
+            dynamoDbClient.updateItem(UpdateItemRequest
+                    .builder()
+                    .tableName(TABLE_NAME)
+                    .key(key)
+                    .updateExpression("SET #enrichment = :pending")
+                    .conditionExpression("#textHash = :textHash")
+                    .expressionAttributeNames(attributeNames)
+                    .expressionAttributeValues(attributeValues)
+                    .build());
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    private static Map<String, String> etag(long version) {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("ETag", "\"" + version + "\"");
+        headers.put("Access-Control-Expose-Headers", "ETag");
+        return headers;
+    }
+
+    /**
+     * @return expected version from an <code>If-Match</code> value, <code>null</code> without one, {@link #ANY_VERSION}
+     * for <code>*</code> and {@link #INVALID_VERSION} when it can't be parsed
+     */
+    private static Long expectedVersion(String ifMatch) {
+        if (isNull(ifMatch)) {
+            return null;
+        }
+        String value = ifMatch.trim();
+        if (value.equals("*")) {
+            return ANY_VERSION;
+        }
+        if (value.startsWith("W/")) {
+            value = value.substring(2);
+        }
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1);
+        }
+        try {
+            final long version = Long.parseLong(value);
+            return version >= 0 ? version : INVALID_VERSION;
+        } catch (NumberFormatException e) {
+            return INVALID_VERSION;
+        }
+    }
+
+    private static String header(APIGatewayProxyRequestEvent request, String name) {
+        if (isNull(request.getHeaders())) {
+            return null;
+        }
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private void enrich(PersistedNote note, Context context) {
+        enrich(EnrichmentRequest.of(note.getUserId(), note.getNoteId(), note.getTimestamp()), context);
+    }
+
+    private void enrich(EnrichmentRequest enrichmentRequest, Context context) {
+        try {
+            enrichmentQueue.send(enrichmentRequest);
+        } catch (Exception e) {
+            context.getLogger().log("Unable to queue enrichment of note " + enrichmentRequest.getNoteId() + ", enriching synchronously");
+            e.printStackTrace();
+            noteEnricher.enrich(enrichmentRequest, context.getLogger());
+        }
+    }
+
+    private void persist(PersistedNote note, Context context) {
+        dynamoDbClient.putItem(PutItemRequest
+                .builder()
+                .tableName(TABLE_NAME)
+                .item(NoteItemCodec.toItem(noteBodyStore.offload(note)))
+                .build());
+        try {
+            searchIndex.index(note);
+        } catch (Exception e) {
+            context.getLogger().log("Unable to index note " + note.getNoteId() + " for search");
+            e.printStackTrace();
         }
-        item.put("timestamp", AttributeValue.builder().n(Long.toString(note.getTimestamp())).build());
-        return item;
     }
 
 }
@@ -0,0 +1,73 @@
+package dev.jozefowicz.stacjait.mynotes.createnote;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.jozefowicz.stacjait.mynotes.common.Clients;
+import dev.jozefowicz.stacjait.mynotes.common.Environment;
+import dev.jozefowicz.stacjait.mynotes.common.ListVersions;
+import dev.jozefowicz.stacjait.mynotes.common.Metrics;
+import dev.jozefowicz.stacjait.mynotes.common.NoteBodyStore;
+import dev.jozefowicz.stacjait.mynotes.common.SearchIndex;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Consumes enrichment requests queued by {@link CreateNoteHandler} running with <code>ENRICHMENT_MODE=async</code>.
+ * <p>
+ * Failed messages are reported as batch item failures, so the event source mapping must enable
+ * <code>ReportBatchItemFailures</code> - only those messages return to the queue and requests which succeeded are
+ * not analysed again. An incomplete analysis (Comprehend errors or the deadline) fails the message too and the note
+ * stays pending until a redelivery completes it.
+ */
+public class EnrichNoteHandler implements RequestHandler<SQSEvent, SQSBatchResponse> {
+
+    private final static String TABLE_NAME = Environment.get("TABLE_NAME");
+    private final static int ANALYSIS_CONCURRENCY = Environment.intValue("ANALYSIS_CONCURRENCY", 4);
+    private final static int ANALYSIS_TIMEOUT_MS = Environment.intValue("ANALYSIS_TIMEOUT_MS", 20000);
+    private final static String LABELS_CACHE_TABLE = Environment.get("LABELS_CACHE_TABLE");
+    private final static int LABELS_CACHE_SIZE = Environment.intValue("LABELS_CACHE_SIZE", 1000);
+    private final static int LABELS_CACHE_TTL_SECONDS = Environment.intValue("LABELS_CACHE_TTL_SECONDS", 86400);
+    private final static String SEARCH_INDEX_TABLE = Environment.get("SEARCH_INDEX_TABLE");
+    private final static String BUCKET_NAME = Environment.get("BUCKET_NAME");
+    private final static String USER_STATE_TABLE = Environment.get("USER_STATE_TABLE");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DynamoDbClient dynamoDbClient = Clients.dynamoDb();
+    private final LabelsCache labelsCache = new LabelsCache(LABELS_CACHE_SIZE, LABELS_CACHE_TTL_SECONDS, dynamoDbClient, LABELS_CACHE_TABLE);
+    private final NoteAnalyzer noteAnalyzer = new NoteAnalyzer(Clients.comprehendAsync(), labelsCache, ANALYSIS_CONCURRENCY, ANALYSIS_TIMEOUT_MS);
+    private final NoteEnricher noteEnricher = new NoteEnricher(dynamoDbClient, noteAnalyzer, new SearchIndex(dynamoDbClient, SEARCH_INDEX_TABLE), new NoteBodyStore(Clients.s3(), BUCKET_NAME), new ListVersions(dynamoDbClient, USER_STATE_TABLE), TABLE_NAME, true);
+
+    public EnrichNoteHandler() {
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        Clients.warmUp(dynamoDbClient);
+    }
+
+    @Override
+    public SQSBatchResponse handleRequest(SQSEvent event, Context context) {
+        final Metrics metrics = Metrics.start(context);
+        metrics.count("Records", event.getRecords().size());
+        try {
+            final List<SQSBatchResponse.BatchItemFailure> failures = new ArrayList<>();
+            for (SQSEvent.SQSMessage message : event.getRecords()) {
+                try {
+                    noteEnricher.enrich(objectMapper.readValue(message.getBody(), EnrichmentRequest.class), context.getLogger());
+                } catch (Exception e) {
+                    context.getLogger().log("Exception while enriching note from message " + message.getMessageId());
+                    e.printStackTrace();
+                    failures.add(new SQSBatchResponse.BatchItemFailure(message.getMessageId()));
+                }
+            }
+            metrics.count("Failures", failures.size());
+            return new SQSBatchResponse(failures);
+        } finally {
+            metrics.emit();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package dev.jozefowicz.stacjait.mynotes.createnote;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public interface EnrichmentQueue {
+
+    void send(EnrichmentRequest request);
+
+    /**
+     * @return requests which could not be queued
+     */
+    default List<EnrichmentRequest> sendAll(List<EnrichmentRequest> requests) {
+        final List<EnrichmentRequest> failed = new ArrayList<>();
+        for (EnrichmentRequest request : requests) {
+            try {
+                send(request);
+            } catch (Exception e) {
+                failed.add(request);
+            }
+        }
+        return failed;
+    }
+
+}
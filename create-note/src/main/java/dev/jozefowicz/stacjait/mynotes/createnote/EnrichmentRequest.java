@@ -0,0 +1,27 @@
+package dev.jozefowicz.stacjait.mynotes.createnote;
+
+public class EnrichmentRequest {
+    private String userId;
+    private String noteId;
+    private long timestamp;
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getNoteId() {
+        return noteId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public static final EnrichmentRequest of(String userId, String noteId, long timestamp) {
+        EnrichmentRequest request = new EnrichmentRequest();
+        request.userId = userId;
+        request.noteId = noteId;
+        request.timestamp = timestamp;
+        return request;
+    }
+}
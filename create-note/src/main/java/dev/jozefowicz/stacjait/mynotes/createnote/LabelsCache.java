@@ -0,0 +1,136 @@
+package dev.jozefowicz.stacjait.mynotes.createnote;
+
+import dev.jozefowicz.stacjait.mynotes.common.Metrics;
+import dev.jozefowicz.stacjait.mynotes.common.TextHash;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Two tier cache of text labels keyed by the {@link TextHash} of the analysed text, the same hash notes store. The languages
+ * are detected from the text itself, so they need no part in the key. Lookups are counted as <code>LabelsCacheHit</code>
+ * and <code>LabelsCacheMiss</code> {@link Metrics}.
+ * <p>
+ * The local tier is an LRU living as long as the container, the shared tier is an optional DynamoDB table
+ * (partition key <code>textHash</code>, TTL attribute <code>expiresAt</code>) which lets containers reuse each other's analysis.
+ */
+public class LabelsCache {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final Map<String, Entry> entries;
+
+    public LabelsCache(int maxEntries, long ttlSeconds, DynamoDbClient dynamoDbClient, String tableName) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > LabelsCache.this.maxEntries;
+            }
+        };
+    }
+
+    public List<String> get(String key) {
+        final long now = System.currentTimeMillis();
+        synchronized (entries) {
+            final Entry entry = entries.get(key);
+            if (nonNull(entry)) {
+                if (entry.expiresAt > now) {
+                    Metrics.current().count("LabelsCacheHit", 1);
+                    return entry.labels;
+                }
+                entries.remove(key);
+            }
+        }
+        final List<String> shared = getShared(key, now);
+        if (nonNull(shared)) {
+            Metrics.current().count("LabelsCacheHit", 1);
+            putLocal(key, shared, now);
+            return shared;
+        }
+        Metrics.current().count("LabelsCacheMiss", 1);
+        return null;
+    }
+
+    public void put(String key, Collection<String> labels) {
+        final long now = System.currentTimeMillis();
+        final List<String> copy = Collections.unmodifiableList(new ArrayList<>(labels));
+        putLocal(key, copy, now);
+        putShared(key, copy, now);
+    }
+
+    private void putLocal(String key, List<String> labels, long now) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, new Entry(labels, now + ttlMillis));
+        }
+    }
+
+    private List<String> getShared(String key, long now) {
+        if (isNull(tableName)) {
+            return null;
+        }
+        try {
+            final GetItemResponse response = dynamoDbClient.getItem(GetItemRequest
+                    .builder()
+                    .tableName(tableName)
+                    .key(Collections.singletonMap("textHash", AttributeValue.builder().s(key).build()))
+                    .build());
+            final Map<String, AttributeValue> item = response.item();
+            if (isNull(item) || item.isEmpty() || TimeUnit.SECONDS.toMillis(Long.parseLong(item.get("expiresAt").n())) <= now) {
+                return null;
+            }
+            return Collections.unmodifiableList(item.get("labels").l().stream().map(AttributeValue::s).collect(Collectors.toList()));
+        } catch (SdkException e) {
+            return null;
+        }
+    }
+
+    private void putShared(String key, List<String> labels, long now) {
+        if (isNull(tableName)) {
+            return;
+        }
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("textHash", AttributeValue.builder().s(key).build());
+        item.put("labels", AttributeValue.builder().l(labels.stream().map(label -> AttributeValue.builder().s(label).build()).collect(Collectors.toList())).build());
+        item.put("expiresAt", AttributeValue.builder().n(Long.toString(TimeUnit.MILLISECONDS.toSeconds(now + ttlMillis))).build());
+        try {
+            dynamoDbClient.putItem(PutItemRequest.builder().tableName(tableName).item(item).build());
+        } catch (SdkException e) {
+            // shared tier is best effort, the note is persisted regardless
+        }
+    }
+
+    private static final class Entry {
+        private final List<String> labels;
+        private final long expiresAt;
+
+        private Entry(List<String> labels, long expiresAt) {
+            this.labels = labels;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
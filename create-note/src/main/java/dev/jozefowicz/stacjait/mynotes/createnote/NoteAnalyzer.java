@@ -0,0 +1,184 @@
+package dev.jozefowicz.stacjait.mynotes.createnote;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import dev.jozefowicz.stacjait.mynotes.common.TextHash;
+import software.amazon.awssdk.services.comprehend.ComprehendAsyncClient;
+import software.amazon.awssdk.services.comprehend.model.DetectDominantLanguageRequest;
+import software.amazon.awssdk.services.comprehend.model.DetectDominantLanguageResponse;
+import software.amazon.awssdk.services.comprehend.model.DetectEntitiesRequest;
+import software.amazon.awssdk.services.comprehend.model.DetectEntitiesResponse;
+import software.amazon.awssdk.services.comprehend.model.DominantLanguage;
+import software.amazon.awssdk.services.comprehend.model.LanguageCode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Detects entities for every dominant language of a text with at most <code>concurrency</code> Comprehend calls in flight.
+ * <p>
+ * Analysis never outlives <code>timeoutMillis</code> - labels collected until the deadline are returned and the rest is dropped,
+ * so a slow Comprehend only makes labels incomplete instead of making the request slow. The result tells whether the
+ * analysis was complete, so callers which can retry don't settle for partial labels. Only complete analyses are cached.
+ */
+public class NoteAnalyzer {
+
+    private final ComprehendAsyncClient comprehendClient;
+    private final LabelsCache labelsCache;
+    private final int concurrency;
+    private final long timeoutMillis;
+
+    public NoteAnalyzer(ComprehendAsyncClient comprehendClient, LabelsCache labelsCache, int concurrency, long timeoutMillis) {
+        this.comprehendClient = comprehendClient;
+        this.labelsCache = labelsCache;
+        this.concurrency = Math.max(1, concurrency);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public Analysis analyze(String textToAnalyze, LambdaLogger logger) {
+        return analyze(textToAnalyze, TextHash.of(textToAnalyze), logger);
+    }
+
+    /**
+     * @param textHash {@link TextHash} of <code>textToAnalyze</code>, for callers which already computed it
+     */
+    public Analysis analyze(String textToAnalyze, String textHash, LambdaLogger logger) {
+        return analyze(textToAnalyze, textHash, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis), logger);
+    }
+
+    /**
+     * @param deadline {@link System#nanoTime()} the analysis ends at if it comes before <code>timeoutMillis</code>,
+     *                 e.g. the one shared by all the notes of a batch
+     */
+    public Analysis analyze(String textToAnalyze, String textHash, long deadline, LambdaLogger logger) {
+        final List<String> cached = labelsCache.get(textHash);
+        if (nonNull(cached)) {
+            return Analysis.of(new ArrayList<>(cached), true);
+        }
+        final long start = System.nanoTime();
+        final long timeout = Math.min(TimeUnit.MILLISECONDS.toNanos(timeoutMillis), Math.max(0, deadline - start));
+        final long analysisDeadline = start + timeout;
+        final Set<String> labels = ConcurrentHashMap.newKeySet();
+        final CompletableFuture<DetectDominantLanguageResponse> dominantLanguage = comprehendClient
+                .detectDominantLanguage(DetectDominantLanguageRequest.builder().text(textToAnalyze).build());
+        EntityDetection entityDetection = null;
+        boolean complete = false;
+        try {
+            final List<String> languageCodes = dominantLanguage
+                    .get(remaining(analysisDeadline), TimeUnit.NANOSECONDS)
+                    .languages()
+                    .stream()
+                    .filter(language -> LanguageCode.fromValue(language.languageCode()) != LanguageCode.UNKNOWN_TO_SDK_VERSION)
+                    .map(DominantLanguage::languageCode)
+                    .distinct()
+                    .collect(Collectors.toList());
+            entityDetection = new EntityDetection(languageCodes, textToAnalyze, labels, analysisDeadline, logger);
+            complete = entityDetection.start().get(remaining(analysisDeadline), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            logger.log("Text analysis exceeded " + TimeUnit.NANOSECONDS.toMillis(timeout) + " ms, returning " + labels.size() + " partial labels");
+        } catch (ExecutionException e) {
+            logger.log("Text analysis failed: " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // nothing may outlive the deadline, calls still in flight would keep adding to labels already returned
+            dominantLanguage.cancel(true);
+            if (nonNull(entityDetection)) {
+                entityDetection.cancel();
+            }
+        }
+        final List<String> result = new ArrayList<>(labels);
+        if (complete) {
+            labelsCache.put(textHash, result);
+        }
+        return Analysis.of(result, complete);
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
+    /**
+     * Entity detection of one text, at most <code>concurrency</code> languages at a time. No call starts after the deadline
+     * or {@link #cancel()}, calls in flight are cancelled.
+     */
+    private final class EntityDetection {
+        private final List<String> languageCodes;
+        private final String text;
+        private final Set<String> labels;
+        private final long deadline;
+        private final LambdaLogger logger;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicBoolean complete = new AtomicBoolean(true);
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+
+        private EntityDetection(List<String> languageCodes, String text, Set<String> labels, long deadline, LambdaLogger logger) {
+            this.languageCodes = languageCodes;
+            this.text = text;
+            this.labels = labels;
+            this.deadline = deadline;
+            this.logger = logger;
+        }
+
+        /**
+         * @return future completed with <code>true</code> when entities were detected for every language
+         */
+        private CompletableFuture<Boolean> start() {
+            final CompletableFuture<?>[] workers = new CompletableFuture<?>[Math.min(concurrency, languageCodes.size())];
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = detectNext();
+            }
+            return CompletableFuture.allOf(workers).thenApply(ignored -> complete.get());
+        }
+
+        private void cancel() {
+            cancelled.set(true);
+            inFlight.forEach(call -> call.cancel(true));
+        }
+
+        private CompletableFuture<Void> detectNext() {
+            if (cancelled.get() || remaining(deadline) == 0) {
+                if (next.get() < languageCodes.size()) {
+                    complete.set(false);
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+            final int index = next.getAndIncrement();
+            if (index >= languageCodes.size()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            final String languageCode = languageCodes.get(index);
+            final CompletableFuture<DetectEntitiesResponse> call = comprehendClient
+                    .detectEntities(DetectEntitiesRequest.builder().languageCode(languageCode).text(text).build());
+            inFlight.add(call);
+            if (cancelled.get()) {
+                call.cancel(true);
+            }
+            return call
+                    .handle((response, error) -> {
+                        inFlight.remove(call);
+                        if (nonNull(response) && !cancelled.get()) {
+                            response.entities().forEach(entity -> labels.add(entity.text()));
+                        } else {
+                            complete.set(false);
+                            if (!cancelled.get()) {
+                                logger.log("Entity detection failed for language " + languageCode + ": " + error);
+                            }
+                        }
+                        return null;
+                    })
+                    .thenCompose(ignored -> detectNext());
+        }
+    }
+}
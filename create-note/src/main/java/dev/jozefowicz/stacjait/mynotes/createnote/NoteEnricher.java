@@ -0,0 +1,162 @@
+package dev.jozefowicz.stacjait.mynotes.createnote;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import dev.jozefowicz.stacjait.mynotes.common.EnrichmentStatus;
+import dev.jozefowicz.stacjait.mynotes.common.ListVersions;
+import dev.jozefowicz.stacjait.mynotes.common.NoteBodyStore;
+import dev.jozefowicz.stacjait.mynotes.common.SearchIndex;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Background stage of the asynchronous enrichment - analyses text of a pending note and stores its labels.
+ * <p>
+ * Labels are written with a conditional update on the analysed text, so a result computed for an outdated text
+ * (the note was edited or deleted in the meantime) is discarded instead of overwriting newer data, while edits
+ * which leave the text alone (e.g. a new title) only make it retry.
+ * The update moves the timestamp forward, so delta sync picks the labels up like any other change.
+ * Offloaded texts are read back from the bucket before the analysis.
+ * <p>
+ * With <code>requireCompleteAnalysis</code> an incomplete analysis fails the request and leaves the note pending, so a
+ * queue consumer has the message redelivered; otherwise the partial labels are stored.
+ */
+public class NoteEnricher {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final DynamoDbClient dynamoDbClient;
+    private final NoteAnalyzer noteAnalyzer;
+    private final SearchIndex searchIndex;
+    private final NoteBodyStore noteBodyStore;
+    private final ListVersions listVersions;
+    private final String tableName;
+    private final boolean requireCompleteAnalysis;
+
+    public NoteEnricher(DynamoDbClient dynamoDbClient, NoteAnalyzer noteAnalyzer, SearchIndex searchIndex, NoteBodyStore noteBodyStore, ListVersions listVersions, String tableName, boolean requireCompleteAnalysis) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.noteAnalyzer = noteAnalyzer;
+        this.searchIndex = searchIndex;
+        this.noteBodyStore = noteBodyStore;
+        this.listVersions = listVersions;
+        this.tableName = tableName;
+        this.requireCompleteAnalysis = requireCompleteAnalysis;
+    }
+
+    /**
+     * @return <code>true</code> when labels were stored, <code>false</code> when the request was outdated
+     * @throws IllegalStateException when the analysis was incomplete and <code>requireCompleteAnalysis</code> is set
+     */
+    public boolean enrich(EnrichmentRequest request, LambdaLogger logger) {
+        final Map<String, AttributeValue> key = new HashMap<>();
+        key.put("userId", AttributeValue.builder().s(request.getUserId()).build());
+        key.put("noteId", AttributeValue.builder().s(request.getNoteId()).build());
+        // an edit of other attributes only changes the timestamp, the retry re-reads the note and hits the labels cache
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            final Map<String, AttributeValue> item = read(key);
+            if (!isPending(item)) {
+                logger.log("Skipping outdated enrichment of note " + request.getNoteId());
+                return false;
+            }
+            final String text = item.containsKey("text") ? item.get("text").s() : noteBodyStore.load(item.get("textLocation").s());
+            final Analysis analysis = item.containsKey("textHash") ? noteAnalyzer.analyze(text, item.get("textHash").s(), logger) : noteAnalyzer.analyze(text, logger);
+            if (requireCompleteAnalysis && !analysis.isComplete()) {
+                throw new IllegalStateException("Analysis of note " + request.getNoteId() + " is incomplete, leaving it pending");
+            }
+            final List<String> labels = analysis.getLabels();
+            final long modified = Math.max(System.currentTimeMillis(), Long.parseLong(item.get("timestamp").n()) + 1);
+            if (store(key, item, labels, modified)) {
+                try {
+                    searchIndex.index(request.getUserId(), request.getNoteId(), modified, item.get("title").s(), text, String.join(" ", labels));
+                } catch (Exception e) {
+                    logger.log("Unable to index labels of note " + request.getNoteId() + " for search");
+                    e.printStackTrace();
+                }
+                listVersions.bumpQuietly(request.getUserId(), logger);
+                return true;
+            }
+            logger.log("Note " + request.getNoteId() + " changed during enrichment");
+        }
+        logger.log("Giving up enrichment of note " + request.getNoteId() + " after " + MAX_ATTEMPTS + " attempts");
+        return false;
+    }
+
+    private Map<String, AttributeValue> read(Map<String, AttributeValue> key) {
+        final Map<String, String> attributeNames = new HashMap<>();
+        attributeNames.put("#title", "title");
+        attributeNames.put("#text", "text");
+        attributeNames.put("#textHash", "textHash");
+        attributeNames.put("#textLocation", "textLocation");
+        attributeNames.put("#timestamp", "timestamp");
+        attributeNames.put("#enrichment", "enrichment");
+        return dynamoDbClient.getItem(GetItemRequest
+                .builder()
+                .tableName(tableName)
+                .key(key)
+                .consistentRead(true)
+                .projectionExpression("#title, #text, #textHash, #textLocation, #timestamp, #enrichment")
+                .expressionAttributeNames(attributeNames)
+                .build()).item();
+    }
+
+    /**
+     * Stores labels unless the text, the enrichment status or the timestamp changed since <code>item</code> was read -
+     * the timestamp condition keeps it from ever moving backwards.
+     */
+    private boolean store(Map<String, AttributeValue> key, Map<String, AttributeValue> item, List<String> labels, long modified) {
+        final Map<String, String> attributeNames = new HashMap<>();
+        final Map<String, AttributeValue> attributeValues = new HashMap<>();
+        attributeNames.put("#timestamp", "timestamp");
+        attributeNames.put("#enrichment", "enrichment");
+        attributeValues.put(":timestamp", item.get("timestamp"));
+        attributeValues.put(":modified", AttributeValue.builder().n(Long.toString(modified)).build());
+        attributeValues.put(":pending", AttributeValue.builder().s(EnrichmentStatus.PENDING.name()).build());
+        attributeValues.put(":completed", AttributeValue.builder().s(EnrichmentStatus.COMPLETED.name()).build());
+        final String updateExpression;
+        if (labels.isEmpty()) {
+            updateExpression = "SET #enrichment = :completed, #timestamp = :modified";
+        } else {
+            attributeNames.put("#labels", "labels");
+            attributeValues.put(":labels", AttributeValue.builder().ss(labels).build());
+            updateExpression = "SET #enrichment = :completed, #timestamp = :modified, #labels = :labels";
+        }
+        // notes written before text hashes were stored are matched on the text itself
+        final String textCondition;
+        if (item.containsKey("textHash")) {
+            attributeNames.put("#textHash", "textHash");
+            attributeValues.put(":textHash", item.get("textHash"));
+            textCondition = "#textHash = :textHash";
+        } else {
+            attributeNames.put("#text", "text");
+            attributeValues.put(":text", item.get("text"));
+            textCondition = "#text = :text";
+        }
+        try {
+            dynamoDbClient.updateItem(UpdateItemRequest
+                    .builder()
+                    .tableName(tableName)
+                    .key(key)
+                    .updateExpression(updateExpression)
+                    .conditionExpression(textCondition + " AND #enrichment = :pending AND #timestamp = :timestamp")
+                    .expressionAttributeNames(attributeNames)
+                    .expressionAttributeValues(attributeValues)
+                    .build());
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    private boolean isPending(Map<String, AttributeValue> item) {
+        return !item.isEmpty()
+                && (item.containsKey("text") || item.containsKey("textLocation"))
+                && item.containsKey("enrichment")
+                && EnrichmentStatus.PENDING.name().equals(item.get("enrichment").s());
+    }
+}
@@ -0,0 +1,77 @@
+package dev.jozefowicz.stacjait.mynotes.createnote;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SqsEnrichmentQueue implements EnrichmentQueue {
+
+    private static final int MAX_BATCH_SIZE = 10;
+
+    private final SqsClient sqsClient;
+    private final ObjectMapper objectMapper;
+    private final String queueUrl;
+
+    public SqsEnrichmentQueue(SqsClient sqsClient, ObjectMapper objectMapper, String queueUrl) {
+        this.sqsClient = sqsClient;
+        this.objectMapper = objectMapper;
+        this.queueUrl = queueUrl;
+    }
+
+    @Override
+    public void send(EnrichmentRequest request) {
+        try {
+            sqsClient.sendMessage(SendMessageRequest
+                    .builder()
+                    .queueUrl(queueUrl)
+                    .messageBody(objectMapper.writeValueAsString(request))
+                    .build());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to serialize enrichment request", e);
+        }
+    }
+
+    /**
+     * Sends requests with <code>SendMessageBatch</code>, ten per call. Entry ids are positions in <code>requests</code>.
+     */
+    @Override
+    public List<EnrichmentRequest> sendAll(List<EnrichmentRequest> requests) {
+        final List<EnrichmentRequest> failed = new ArrayList<>();
+        for (int from = 0; from < requests.size(); from += MAX_BATCH_SIZE) {
+            final int to = Math.min(from + MAX_BATCH_SIZE, requests.size());
+            final List<SendMessageBatchRequestEntry> entries = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                try {
+                    entries.add(SendMessageBatchRequestEntry
+                            .builder()
+                            .id(Integer.toString(i))
+                            .messageBody(objectMapper.writeValueAsString(requests.get(i)))
+                            .build());
+                } catch (JsonProcessingException e) {
+                    throw new IllegalStateException("Unable to serialize enrichment request", e);
+                }
+            }
+            try {
+                final SendMessageBatchResponse response = sqsClient.sendMessageBatch(SendMessageBatchRequest
+                        .builder()
+                        .queueUrl(queueUrl)
+                        .entries(entries)
+                        .build());
+                for (BatchResultErrorEntry error : response.failed()) {
+                    failed.add(requests.get(Integer.parseInt(error.id())));
+                }
+            } catch (Exception e) {
+                failed.addAll(requests.subList(from, to));
+            }
+        }
+        return failed;
+    }
+}
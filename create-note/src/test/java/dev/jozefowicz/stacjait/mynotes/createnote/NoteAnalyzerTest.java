@@ -0,0 +1,66 @@
+package dev.jozefowicz.stacjait.mynotes.createnote;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NoteAnalyzerTest {
+
+    private static final LambdaLogger LOGGER = new LambdaLogger() {
+        @Override
+        public void log(String message) {
+        }
+
+        @Override
+        public void log(byte[] message) {
+        }
+    };
+
+    private final LabelsCache labelsCache = new LabelsCache(100, 60, null, null);
+
+    @Test
+    void detectsEntitiesOfEveryLanguageAndCachesThem() {
+        final StubComprehend comprehend = new StubComprehend("en", "de");
+        final NoteAnalyzer noteAnalyzer = new NoteAnalyzer(comprehend, labelsCache, 1, 5_000);
+
+        final Analysis analysis = noteAnalyzer.analyze("Trip to Paris", LOGGER);
+        assertTrue(analysis.isComplete());
+        assertEquals(new HashSet<>(Arrays.asList("Trip", "Paris")), new HashSet<>(analysis.getLabels()));
+        assertEquals(2, comprehend.getEntityCalls());
+
+        assertTrue(noteAnalyzer.analyze("Trip to Paris", LOGGER).isComplete());
+        assertEquals(2, comprehend.getEntityCalls());
+    }
+
+    @Test
+    void reportsFailedDetectionAsIncompleteAndDoesNotCacheIt() {
+        final StubComprehend comprehend = new StubComprehend();
+        comprehend.failWith(new IllegalStateException("Comprehend unavailable"));
+        final NoteAnalyzer noteAnalyzer = new NoteAnalyzer(comprehend, labelsCache, 1, 5_000);
+
+        assertFalse(noteAnalyzer.analyze("Trip to Paris", LOGGER).isComplete());
+        assertFalse(noteAnalyzer.analyze("Trip to Paris", LOGGER).isComplete());
+        assertEquals(2, comprehend.getEntityCalls());
+    }
+
+    @Test
+    void stopsAtTheDeadline() {
+        final StubComprehend comprehend = new StubComprehend("en", "de", "fr");
+        comprehend.hang();
+        final NoteAnalyzer noteAnalyzer = new NoteAnalyzer(comprehend, labelsCache, 1, 50);
+
+        final Analysis analysis = noteAnalyzer.analyze("Trip to Paris", LOGGER);
+
+        assertFalse(analysis.isComplete());
+        assertTrue(analysis.getLabels().isEmpty());
+        // the call in flight is cancelled and the remaining languages are never requested
+        assertEquals(1, comprehend.getEntityCalls());
+        assertTrue(comprehend.getHanging().get(0).isCancelled());
+    }
+}
@@ -0,0 +1,117 @@
+package dev.jozefowicz.stacjait.mynotes.createnote;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import dev.jozefowicz.stacjait.mynotes.common.EnrichmentStatus;
+import dev.jozefowicz.stacjait.mynotes.common.ListVersions;
+import dev.jozefowicz.stacjait.mynotes.common.NoteBodyStore;
+import dev.jozefowicz.stacjait.mynotes.common.SearchIndex;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NoteEnricherTest {
+
+    private static final long TIMESTAMP = 4_000_000_000_000L;
+    private static final LambdaLogger LOGGER = new LambdaLogger() {
+        @Override
+        public void log(String message) {
+        }
+
+        @Override
+        public void log(byte[] message) {
+        }
+    };
+
+    private final SingleNoteTable table = new SingleNoteTable();
+    private final StubComprehend comprehend = new StubComprehend();
+
+    @Test
+    void completesPendingNote() {
+        table.put(note("Trip to Paris with Anna", "hash-1", EnrichmentStatus.PENDING));
+
+        assertTrue(enricher().enrich(request(), LOGGER));
+
+        final Map<String, AttributeValue> item = table.get();
+        assertEquals(EnrichmentStatus.COMPLETED.name(), item.get("enrichment").s());
+        assertEquals(new HashSet<>(Arrays.asList("Trip", "Paris", "Anna")), new HashSet<>(item.get("labels").ss()));
+        assertTrue(Long.parseLong(item.get("timestamp").n()) > TIMESTAMP);
+    }
+
+    @Test
+    void skipsNoteWhichIsNotPending() {
+        table.put(note("Trip to Paris", "hash-1", EnrichmentStatus.COMPLETED));
+
+        assertFalse(enricher().enrich(request(), LOGGER));
+
+        assertFalse(table.get().containsKey("labels"));
+        assertEquals(Long.toString(TIMESTAMP), table.get().get("timestamp").n());
+        assertEquals(0, comprehend.getEntityCalls());
+    }
+
+    @Test
+    void skipsDeletedNote() {
+        assertFalse(enricher().enrich(request(), LOGGER));
+        assertEquals(0, comprehend.getEntityCalls());
+    }
+
+    @Test
+    void discardsLabelsOfOutdatedTextAndRetries() {
+        table.put(note("Trip to Paris", "hash-1", EnrichmentStatus.PENDING));
+        // the text changes right after the first read, as if the note was edited during the analysis
+        final AtomicBoolean edited = new AtomicBoolean();
+        table.onRead(() -> {
+            if (edited.compareAndSet(false, true)) {
+                table.put(note("Walk in Rome", "hash-2", EnrichmentStatus.PENDING));
+            }
+        });
+
+        assertTrue(enricher().enrich(request(), LOGGER));
+
+        assertEquals(2, table.getReads());
+        assertEquals("hash-2", table.get().get("textHash").s());
+        assertEquals(new HashSet<>(Arrays.asList("Walk", "Rome")), new HashSet<>(table.get().get("labels").ss()));
+    }
+
+    @Test
+    void leavesNotePendingWhenAnalysisIsIncomplete() {
+        table.put(note("Trip to Paris", "hash-1", EnrichmentStatus.PENDING));
+        comprehend.failWith(new IllegalStateException("Comprehend unavailable"));
+
+        assertThrows(IllegalStateException.class, () -> enricher().enrich(request(), LOGGER));
+
+        assertEquals(EnrichmentStatus.PENDING.name(), table.get().get("enrichment").s());
+        assertFalse(table.get().containsKey("labels"));
+        assertEquals(Long.toString(TIMESTAMP), table.get().get("timestamp").n());
+    }
+
+    private NoteEnricher enricher() {
+        final NoteAnalyzer noteAnalyzer = new NoteAnalyzer(comprehend, new LabelsCache(100, 60, table, null), 1, 5_000);
+        return new NoteEnricher(table, noteAnalyzer, new SearchIndex(table, null), new NoteBodyStore(null, null), new ListVersions(table, null), "notes", true);
+    }
+
+    private static EnrichmentRequest request() {
+        return EnrichmentRequest.of("user", "note", TIMESTAMP);
+    }
+
+    private static Map<String, AttributeValue> note(String text, String textHash, EnrichmentStatus enrichment) {
+        final Map<String, AttributeValue> item = new HashMap<>();
+        item.put("userId", AttributeValue.builder().s("user").build());
+        item.put("noteId", AttributeValue.builder().s("note").build());
+        item.put("title", AttributeValue.builder().s("Title").build());
+        item.put("text", AttributeValue.builder().s(text).build());
+        item.put("textHash", AttributeValue.builder().s(textHash).build());
+        item.put("timestamp", AttributeValue.builder().n(Long.toString(TIMESTAMP)).build());
+        item.put("enrichment", AttributeValue.builder().s(enrichment.name()).build());
+        return item;
+    }
+}
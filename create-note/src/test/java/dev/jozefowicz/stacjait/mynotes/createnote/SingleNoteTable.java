@@ -0,0 +1,96 @@
+package dev.jozefowicz.stacjait.mynotes.createnote;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Notes table holding a single note, just enough of DynamoDB for the enrichment update: the conditions compare the
+ * analysed text, the enrichment status and the timestamp, the update sets the values given for them.
+ * {@link #onRead} runs after every read, e.g. to change the note between the analysis and the update.
+ */
+class SingleNoteTable implements DynamoDbClient {
+
+    private static final Map<String, String> CONDITIONS = new HashMap<>();
+    private static final Map<String, String> UPDATES = new HashMap<>();
+
+    static {
+        CONDITIONS.put(":textHash", "textHash");
+        CONDITIONS.put(":text", "text");
+        CONDITIONS.put(":pending", "enrichment");
+        CONDITIONS.put(":timestamp", "timestamp");
+        UPDATES.put(":completed", "enrichment");
+        UPDATES.put(":modified", "timestamp");
+        UPDATES.put(":labels", "labels");
+    }
+
+    private final AtomicInteger reads = new AtomicInteger();
+    private volatile Map<String, AttributeValue> item;
+    private volatile Runnable onRead = () -> {
+    };
+
+    void put(Map<String, AttributeValue> item) {
+        this.item = new HashMap<>(item);
+    }
+
+    Map<String, AttributeValue> get() {
+        return item;
+    }
+
+    void onRead(Runnable onRead) {
+        this.onRead = onRead;
+    }
+
+    int getReads() {
+        return reads.get();
+    }
+
+    @Override
+    public GetItemResponse getItem(GetItemRequest request) {
+        reads.incrementAndGet();
+        final Map<String, AttributeValue> current = item;
+        onRead.run();
+        return isNull(current) ? GetItemResponse.builder().build() : GetItemResponse.builder().item(current).build();
+    }
+
+    @Override
+    public synchronized UpdateItemResponse updateItem(UpdateItemRequest request) {
+        if (isNull(item)) {
+            throw ConditionalCheckFailedException.builder().message("No note").build();
+        }
+        final Map<String, AttributeValue> values = request.expressionAttributeValues();
+        for (Map.Entry<String, String> condition : CONDITIONS.entrySet()) {
+            if (values.containsKey(condition.getKey()) && !values.get(condition.getKey()).equals(item.get(condition.getValue()))) {
+                throw ConditionalCheckFailedException.builder().message("Condition on " + condition.getValue() + " failed").build();
+            }
+        }
+        final Map<String, AttributeValue> updated = new HashMap<>(item);
+        UPDATES.forEach((value, name) -> {
+            if (nonNull(values.get(value))) {
+                updated.put(name, values.get(value));
+            }
+        });
+        item = updated;
+        return UpdateItemResponse.builder().build();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
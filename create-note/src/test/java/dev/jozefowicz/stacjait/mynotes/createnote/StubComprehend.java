@@ -0,0 +1,96 @@
+package dev.jozefowicz.stacjait.mynotes.createnote;
+
+import software.amazon.awssdk.services.comprehend.ComprehendAsyncClient;
+import software.amazon.awssdk.services.comprehend.model.DetectDominantLanguageRequest;
+import software.amazon.awssdk.services.comprehend.model.DetectDominantLanguageResponse;
+import software.amazon.awssdk.services.comprehend.model.DetectEntitiesRequest;
+import software.amazon.awssdk.services.comprehend.model.DetectEntitiesResponse;
+import software.amazon.awssdk.services.comprehend.model.DominantLanguage;
+import software.amazon.awssdk.services.comprehend.model.Entity;
+import software.amazon.awssdk.services.comprehend.model.EntityType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Detects the given languages (English by default) and treats capitalized words as entities. Entity detection can
+ * instead fail with {@link #failWith} or never answer with {@link #hang}.
+ */
+class StubComprehend implements ComprehendAsyncClient {
+
+    private final List<String> languageCodes;
+    private final AtomicInteger entityCalls = new AtomicInteger();
+    private final List<CompletableFuture<DetectEntitiesResponse>> hanging = new CopyOnWriteArrayList<>();
+    private volatile RuntimeException failure;
+    private volatile boolean hang;
+
+    StubComprehend(String... languageCodes) {
+        this.languageCodes = languageCodes.length == 0 ? Collections.singletonList("en") : Arrays.asList(languageCodes);
+    }
+
+    void hang() {
+        this.hang = true;
+    }
+
+    List<CompletableFuture<DetectEntitiesResponse>> getHanging() {
+        return hanging;
+    }
+
+    void failWith(RuntimeException failure) {
+        this.failure = failure;
+    }
+
+    int getEntityCalls() {
+        return entityCalls.get();
+    }
+
+    @Override
+    public CompletableFuture<DetectDominantLanguageResponse> detectDominantLanguage(DetectDominantLanguageRequest request) {
+        return CompletableFuture.completedFuture(DetectDominantLanguageResponse
+                .builder()
+                .languages(languageCodes.stream().map(code -> DominantLanguage.builder().languageCode(code).score(0.9f).build()).collect(Collectors.toList()))
+                .build());
+    }
+
+    @Override
+    public CompletableFuture<DetectEntitiesResponse> detectEntities(DetectEntitiesRequest request) {
+        entityCalls.incrementAndGet();
+        final CompletableFuture<DetectEntitiesResponse> response = new CompletableFuture<>();
+        if (nonNull(failure)) {
+            response.completeExceptionally(failure);
+            return response;
+        } else if (hang) {
+            hanging.add(response);
+            return response;
+        }
+        final Set<String> words = new LinkedHashSet<>();
+        for (String word : request.text().split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty() && Character.isUpperCase(word.charAt(0))) {
+                words.add(word);
+            }
+        }
+        final List<Entity> entities = new ArrayList<>(words.size());
+        words.forEach(word -> entities.add(Entity.builder().text(word).type(EntityType.OTHER).score(0.9f).build()));
+        response.complete(DetectEntitiesResponse.builder().entities(entities).build());
+        return response;
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -4,17 +4,41 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.jozefowicz.stacjait.mynotes.common.BatchReader;
+import dev.jozefowicz.stacjait.mynotes.common.BatchWriter;
+import dev.jozefowicz.stacjait.mynotes.common.Clients;
+import dev.jozefowicz.stacjait.mynotes.common.Environment;
+import dev.jozefowicz.stacjait.mynotes.common.ItemResult;
+import dev.jozefowicz.stacjait.mynotes.common.ListVersions;
+import dev.jozefowicz.stacjait.mynotes.common.Metrics;
+import dev.jozefowicz.stacjait.mynotes.common.NoteItemCodec;
 import dev.jozefowicz.stacjait.mynotes.common.NoteType;
+import dev.jozefowicz.stacjait.mynotes.common.SearchIndex;
+import dev.jozefowicz.stacjait.mynotes.common.Tombstones;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DeleteRequest;
 import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.Delete;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static dev.jozefowicz.stacjait.mynotes.common.APIGatewayProxyResponseEventBuilder.response;
 import static java.util.Objects.isNull;
@@ -22,15 +46,34 @@ import static java.util.Objects.nonNull;
 
 public class DeleteNoteHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
-    private final static String BUCKET_NAME = System.getenv("BUCKET_NAME");
-    private final static String TABLE_NAME = System.getenv("TABLE_NAME");
+    private final static String BUCKET_NAME = Environment.get("BUCKET_NAME");
+    private final static String TABLE_NAME = Environment.get("TABLE_NAME");
+    private final static String SEARCH_INDEX_TABLE = Environment.get("SEARCH_INDEX_TABLE");
+    private final static String TOMBSTONE_TABLE = Environment.get("TOMBSTONE_TABLE");
+    private final static int TOMBSTONE_TTL_DAYS = Environment.intValue("TOMBSTONE_TTL_DAYS", 30);
+    private final static String USER_STATE_TABLE = Environment.get("USER_STATE_TABLE");
+    private final static int BULK_MAX_ITEMS = Environment.intValue("BULK_MAX_ITEMS", 1000);
+    private final static int WRITE_MAX_ATTEMPTS = Environment.intValue("WRITE_MAX_ATTEMPTS", 8);
+    private final static int WRITE_BACKOFF_MS = Environment.intValue("WRITE_BACKOFF_MS", 50);
+    private final static int MAX_DELETE_OBJECTS = 1000;
 
-    private final DynamoDbClient dynamoDbClient = DynamoDbClient.create();
-    private final S3Client s3Client = S3Client.create();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DynamoDbClient dynamoDbClient = Clients.dynamoDb();
+    private final BatchReader batchReader = new BatchReader(dynamoDbClient, TABLE_NAME, WRITE_MAX_ATTEMPTS, WRITE_BACKOFF_MS);
+    private final BatchWriter batchWriter = new BatchWriter(dynamoDbClient, TABLE_NAME, WRITE_MAX_ATTEMPTS, WRITE_BACKOFF_MS);
+    private final S3Client s3Client = Clients.s3();
+    private final SearchIndex searchIndex = new SearchIndex(dynamoDbClient, SEARCH_INDEX_TABLE);
+    private final Tombstones tombstones = new Tombstones(dynamoDbClient, TOMBSTONE_TABLE, TOMBSTONE_TTL_DAYS);
+    private final ListVersions listVersions = new ListVersions(dynamoDbClient, USER_STATE_TABLE);
+
+    public DeleteNoteHandler() {
+        Clients.warmUp(dynamoDbClient);
+    }
 
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent request, Context context) {
-
+        final Metrics metrics = Metrics.start(context);
+        metrics.size("RequestBytes", request.getBody());
         try {
             if (!request.getHttpMethod().equalsIgnoreCase("delete")) {
                 return response(405, null);
@@ -42,6 +85,10 @@ public class DeleteNoteHandler implements RequestHandler<APIGatewayProxyRequestE
             Map<String, String> claims = (Map<String, String>) request.getRequestContext().getAuthorizer().get("claims");
             final String userId = claims.get("cognito:username");
 
+            if (nonNull(request.getResource()) && request.getResource().endsWith("/batch")) {
+                return nonNull(request.getBody()) ? deleteBatch(userId, request.getBody(), context) : response(400, null);
+            }
+
             if (nonNull(request.getPathParameters()) && request.getPathParameters().containsKey("id")) {
                 Map<String, AttributeValue> params = new HashMap<>();
                 params.put("userId", AttributeValue.builder().s(userId).build());
@@ -52,6 +99,11 @@ public class DeleteNoteHandler implements RequestHandler<APIGatewayProxyRequestE
                         .key(params)
                         .returnValues(ReturnValue.ALL_OLD)
                         .build());
+                // written even when the note was already gone, so a retry after a failed tombstone write still records it
+                tombstones.put(userId, request.getPathParameters().get("id"), System.currentTimeMillis());
+                if (!deletedNote.attributes().isEmpty()) {
+                    listVersions.bumpQuietly(userId, context.getLogger());
+                }
 
                 if (!deletedNote.attributes().isEmpty() && deletedNote.attributes().containsKey("type") && NoteType.valueOf(deletedNote.attributes().get("type").s()).isStored()) {
                     s3Client.deleteObject(DeleteObjectRequest
@@ -60,6 +112,26 @@ public class DeleteNoteHandler implements RequestHandler<APIGatewayProxyRequestE
                             .key(deletedNote.attributes().get("s3Location").s())
                             .build());
                 }
+                if (deletedNote.attributes().containsKey(NoteItemCodec.THUMBNAILS)) {
+                    for (AttributeValue thumbnail : deletedNote.attributes().get(NoteItemCodec.THUMBNAILS).m().values()) {
+                        s3Client.deleteObject(DeleteObjectRequest.builder().bucket(BUCKET_NAME).key(thumbnail.s()).build());
+                    }
+                }
+                if (deletedNote.attributes().containsKey(NoteItemCodec.TEXT_LOCATION)) {
+                    s3Client.deleteObject(DeleteObjectRequest
+                            .builder()
+                            .bucket(BUCKET_NAME)
+                            .key(deletedNote.attributes().get(NoteItemCodec.TEXT_LOCATION).s())
+                            .build());
+                }
+                if (!deletedNote.attributes().isEmpty()) {
+                    try {
+                        searchIndex.remove(userId, request.getPathParameters().get("id"));
+                    } catch (Exception e) {
+                        context.getLogger().log("Unable to remove note from search index");
+                        e.printStackTrace();
+                    }
+                }
                 return response(200, null);
             }
 
@@ -68,8 +140,107 @@ public class DeleteNoteHandler implements RequestHandler<APIGatewayProxyRequestE
             context.getLogger().log("Exception while processing request");
             e.printStackTrace();
             return response(500, null);
+        } finally {
+            metrics.emit();
         }
     }
 
+    /**
+     * Deletes up to <code>BULK_MAX_ITEMS</code> notes given as a JSON array of ids and answers with one {@link ItemResult} per id:
+     * 200 when deleted, 404 when there was no such note and 500 when it has to be retried.
+     * <p>
+     * Notes are read with <code>BatchGetItem</code> first, because <code>BatchWriteItem</code> doesn't return deleted items
+     * and their S3 locations are needed. Files, thumbnails and offloaded texts of deleted notes are removed with <code>DeleteObjects</code>, up to 1000 keys per call.
+     */
+    private APIGatewayProxyResponseEvent deleteBatch(String userId, String body, Context context) throws IOException, InterruptedException {
+        final Set<String> noteIds = new LinkedHashSet<>(Arrays.asList(objectMapper.readValue(body, String[].class)));
+        noteIds.remove(null);
+        if (noteIds.isEmpty() || noteIds.size() > BULK_MAX_ITEMS) {
+            return response(400, null);
+        }
+
+        final List<Map<String, AttributeValue>> keys = new ArrayList<>(noteIds.size());
+        for (String noteId : noteIds) {
+            keys.add(NoteItemCodec.key(userId, noteId));
+        }
+        final Map<String, String> attributeNames = new HashMap<>();
+        attributeNames.put("#noteId", NoteItemCodec.NOTE_ID);
+        attributeNames.put("#type", NoteItemCodec.TYPE);
+        attributeNames.put("#s3Location", NoteItemCodec.S3_LOCATION);
+        attributeNames.put("#textLocation", NoteItemCodec.TEXT_LOCATION);
+        attributeNames.put("#thumbnails", NoteItemCodec.THUMBNAILS);
+        final Map<String, Map<String, AttributeValue>> existing = new HashMap<>();
+        for (Map<String, AttributeValue> item : batchReader.read(keys, "#noteId, #type, #s3Location, #textLocation, #thumbnails", attributeNames)) {
+            existing.put(item.get(NoteItemCodec.NOTE_ID).s(), item);
+        }
+
+        final List<WriteRequest> deletes = new ArrayList<>(existing.size());
+        for (String noteId : existing.keySet()) {
+            deletes.add(WriteRequest.builder().deleteRequest(DeleteRequest.builder().key(NoteItemCodec.key(userId, noteId)).build()).build());
+        }
+        final Set<String> failed = new HashSet<>();
+        for (WriteRequest write : batchWriter.write(deletes)) {
+            failed.add(write.deleteRequest().key().get(NoteItemCodec.NOTE_ID).s());
+        }
+
+        // missing notes get tombstones too, so a retry after a failed tombstone write still records the deletion
+        final List<String> tombstoned = new ArrayList<>(noteIds);
+        tombstoned.removeAll(failed);
+        failed.addAll(tombstones.putAll(userId, tombstoned, System.currentTimeMillis()));
+
+        final List<String> deleted = new ArrayList<>(existing.keySet());
+        deleted.removeAll(failed);
+        if (!deleted.isEmpty()) {
+            listVersions.bumpQuietly(userId, context.getLogger());
+        }
+        try {
+            for (String noteId : searchIndex.removeAll(userId, deleted)) {
+                context.getLogger().log("Unable to remove note " + noteId + " from search index");
+            }
+        } catch (Exception e) {
+            context.getLogger().log("Unable to remove notes from search index");
+            e.printStackTrace();
+        }
+        deleteObjects(deleted, existing, context);
+
+        final List<ItemResult> results = new ArrayList<>(noteIds.size());
+        for (String noteId : noteIds) {
+            results.add(ItemResult.of(noteId, failed.contains(noteId) ? 500 : existing.containsKey(noteId) ? 200 : 404));
+        }
+        return response(200, objectMapper.writeValueAsString(results));
+    }
+
+    private void deleteObjects(List<String> deleted, Map<String, Map<String, AttributeValue>> items, Context context) {
+        final List<ObjectIdentifier> objects = new ArrayList<>();
+        for (String noteId : deleted) {
+            final Map<String, AttributeValue> item = items.get(noteId);
+            if (item.containsKey(NoteItemCodec.TYPE) && item.containsKey(NoteItemCodec.S3_LOCATION)
+                    && NoteItemCodec.noteType(item.get(NoteItemCodec.TYPE).s()).isStored()) {
+                objects.add(ObjectIdentifier.builder().key(item.get(NoteItemCodec.S3_LOCATION).s()).build());
+            }
+            if (item.containsKey(NoteItemCodec.THUMBNAILS)) {
+                for (AttributeValue thumbnail : item.get(NoteItemCodec.THUMBNAILS).m().values()) {
+                    objects.add(ObjectIdentifier.builder().key(thumbnail.s()).build());
+                }
+            }
+            if (item.containsKey(NoteItemCodec.TEXT_LOCATION)) {
+                objects.add(ObjectIdentifier.builder().key(item.get(NoteItemCodec.TEXT_LOCATION).s()).build());
+            }
+        }
+        for (int from = 0; from < objects.size(); from += MAX_DELETE_OBJECTS) {
+            try {
+                final DeleteObjectsResponse deleteObjectsResponse = s3Client.deleteObjects(DeleteObjectsRequest
+                        .builder()
+                        .bucket(BUCKET_NAME)
+                        .delete(Delete.builder().objects(objects.subList(from, Math.min(from + MAX_DELETE_OBJECTS, objects.size()))).quiet(true).build())
+                        .build());
+                deleteObjectsResponse.errors().forEach(error -> context.getLogger().log("Unable to delete " + error.key() + ": " + error.code()));
+            } catch (Exception e) {
+                // notes are already gone at this point, a failure only leaves orphaned objects behind
+                context.getLogger().log("Exception while deleting files of deleted notes");
+                e.printStackTrace();
+            }
+        }
+    }
 
 }
@@ -1,26 +1,30 @@
 package dev.jozefowicz.stacjait.mynotes.fileupload;
 
-import com.amazonaws.HttpMethod;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
-import com.amazonaws.services.dynamodbv2.document.ItemUtils;
-import com.amazonaws.services.dynamodbv2.model.AttributeValue;
-import com.amazonaws.services.dynamodbv2.model.QueryRequest;
-import com.amazonaws.services.dynamodbv2.model.QueryResult;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
-import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import dev.jozefowicz.stacjait.mynotes.common.PersistedNote;
+import dev.jozefowicz.stacjait.mynotes.common.Clients;
+import dev.jozefowicz.stacjait.mynotes.common.Environment;
+import dev.jozefowicz.stacjait.mynotes.common.Metrics;
+import dev.jozefowicz.stacjait.mynotes.common.NoteType;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
 
@@ -28,27 +32,30 @@ import static dev.jozefowicz.stacjait.mynotes.common.APIGatewayProxyResponseEven
 import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
 
-/**
- * This AWS Lambda handler uses SDK v1 because there is still no implementation of presigned URL generation in SDK v2
- * <p>
- * https://github.com/aws/aws-sdk-java-v2/issues/203
- */
 public class FileUploadHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
-    private final static String BUCKET_NAME = System.getenv("BUCKET_NAME");
-    private final static String TABLE_NAME = System.getenv("TABLE_NAME");
+    private final static String BUCKET_NAME = Environment.get("BUCKET_NAME");
+    private final static String TABLE_NAME = Environment.get("TABLE_NAME");
+    private final static Duration PRESIGNED_URL_TTL = Duration.ofMinutes(Environment.intValue("PRESIGNED_URL_TTL_MINUTES", 15));
+    private final static int MULTIPART_MIN_PART_SIZE_MB = Environment.intValue("MULTIPART_MIN_PART_SIZE_MB", 8);
+    private final static int MULTIPART_URLS_PER_CALL = Environment.intValue("MULTIPART_URLS_PER_CALL", 100);
+    private final static int MULTIPART_URL_TTL_MINUTES = Environment.intValue("MULTIPART_URL_TTL_MINUTES", 60);
 
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final AmazonDynamoDB dynamoDbClient = AmazonDynamoDBClient.builder().build();
-    private final AmazonS3 amazonS3 = AmazonS3ClientBuilder.standard()
-            .build();
+    private final DynamoDbClient dynamoDbClient = Clients.dynamoDb();
+    private final S3Presigner s3Presigner = Clients.s3Presigner();
+    private final MultipartUploads multipartUploads = new MultipartUploads(Clients.s3(), s3Presigner, BUCKET_NAME,
+            Duration.ofMinutes(MULTIPART_URL_TTL_MINUTES), MULTIPART_MIN_PART_SIZE_MB * 1024L * 1024L, MULTIPART_URLS_PER_CALL);
 
     public FileUploadHandler() {
         objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        Clients.warmUp(dynamoDbClient);
     }
 
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent request, Context context) {
+        final Metrics metrics = Metrics.start(context);
+        metrics.size("RequestBytes", request.getBody());
         try {
             if (isNull(request.getRequestContext().getAuthorizer()) || request.getRequestContext().getAuthorizer().isEmpty()) {
                 context.getLogger().log("Authorizer not configured");
@@ -62,7 +69,7 @@ public class FileUploadHandler implements RequestHandler<APIGatewayProxyRequestE
                 case "GET":
                     return get(request, userId);
                 case "POST":
-                    return post(request, userId);
+                    return isMultipart(request) ? multipart(request, userId) : post(request, userId);
                 default:
                     return response(405, null);
             }
@@ -70,6 +77,8 @@ public class FileUploadHandler implements RequestHandler<APIGatewayProxyRequestE
             context.getLogger().log("Exception while processing request");
             e.printStackTrace();
             return response(500, null);
+        } finally {
+            metrics.emit();
         }
     }
 
@@ -82,32 +91,117 @@ public class FileUploadHandler implements RequestHandler<APIGatewayProxyRequestE
             return response(400, null);
         }
         final String key = userId + "/" + UUID.randomUUID().toString() + "/" + fileUploadRestest.getName();
-        return response(200, this.objectMapper.writeValueAsString(SignedUrlResponse.of(presignedUrl(key, HttpMethod.PUT))));
+        return response(200, this.objectMapper.writeValueAsString(SignedUrlResponse.of(presignedPutUrl(key))));
+    }
+
+    private boolean isMultipart(APIGatewayProxyRequestEvent request) {
+        return nonNull(request.getResource()) && request.getResource().endsWith("/multipart");
+    }
+
+    /**
+     * Multipart upload for files too large or connections too flaky for a single PUT, see {@link MultipartUploads}.
+     * <code>initiate</code> needs <code>name</code> and <code>size</code>; <code>resume</code> (next window of part URLs and
+     * the parts already uploaded), <code>complete</code> and <code>abort</code> need the <code>key</code> and <code>uploadId</code>
+     * returned by <code>initiate</code>, <code>resume</code> and <code>complete</code> the <code>size</code> as well.
+     * <code>complete</code> answers 409 while parts are still missing.
+     */
+    private APIGatewayProxyResponseEvent multipart(APIGatewayProxyRequestEvent request, String userId) throws IOException {
+        if (isNull(request.getBody())) {
+            return response(400, null);
+        }
+        final MultipartUploadRequest upload = this.objectMapper.readValue(request.getBody(), MultipartUploadRequest.class);
+        if (isNull(upload.getAction())) {
+            return response(400, null);
+        }
+        if (upload.getAction().equals("initiate")) {
+            if (isNull(upload.getName()) || upload.getName().isEmpty() || invalidSize(upload.getSize())) {
+                return response(400, null);
+            }
+            final String key = userId + "/" + UUID.randomUUID().toString() + "/" + upload.getName();
+            return response(200, this.objectMapper.writeValueAsString(multipartUploads.initiate(key, upload.getSize())));
+        }
+        // the key is only trusted when it is in the caller's own prefix
+        if (isNull(upload.getKey()) || !upload.getKey().startsWith(userId + "/") || isNull(upload.getUploadId())) {
+            return response(400, null);
+        }
+        try {
+            switch (upload.getAction()) {
+                case "resume":
+                    if (invalidSize(upload.getSize()) || (nonNull(upload.getFirstPart()) && upload.getFirstPart() < 1)) {
+                        return response(400, null);
+                    }
+                    return response(200, this.objectMapper.writeValueAsString(multipartUploads.resume(upload.getKey(), upload.getUploadId(), upload.getSize(), upload.getFirstPart())));
+                case "complete":
+                    if (invalidSize(upload.getSize())) {
+                        return response(400, null);
+                    }
+                    return response(multipartUploads.complete(upload.getKey(), upload.getUploadId(), upload.getSize()) ? 200 : 409, null);
+                case "abort":
+                    multipartUploads.abort(upload.getKey(), upload.getUploadId());
+                    return response(200, null);
+                default:
+                    return response(400, null);
+            }
+        } catch (NoSuchUploadException e) {
+            return response(404, null);
+        }
+    }
+
+    private boolean invalidSize(Long size) {
+        return isNull(size) || size <= 0 || size > MultipartUploads.MAX_FILE_SIZE;
     }
 
     private APIGatewayProxyResponseEvent get(APIGatewayProxyRequestEvent request, String userId) throws IOException {
-        if (nonNull(request.getPathParameters()) && request.getPathParameters().containsKey("id")) {
-            Map<String, String> attributeNames = new HashMap<>();
-            attributeNames.put("#noteId", "noteId");
-            attributeNames.put("#userId", "userId");
-            Map<String, AttributeValue> attributeValues = new HashMap<>();
-            attributeValues.put(":noteId", new AttributeValue().withS(request.getPathParameters().get("id")));
-            attributeValues.put(":userId", new AttributeValue().withS(userId));
-            final QueryResult queryResult = dynamoDbClient.query(
-                    new QueryRequest()
-                            .withTableName(TABLE_NAME)
-                            .withKeyConditionExpression("#userId = :userId and #noteId = :noteId")
-                            .withExpressionAttributeNames(attributeNames)
-                            .withExpressionAttributeValues(attributeValues));
-            if (queryResult.getCount().equals(1)) {
-                final PersistedNote note = this.objectMapper.readValue(ItemUtils.toItem(queryResult.getItems().get(0)).toJSON(), PersistedNote.class);
-                return response(200, this.objectMapper.writeValueAsString(SignedUrlResponse.of(presignedUrl(note.getS3Location(), HttpMethod.GET))));
+        if (isNull(request.getPathParameters()) || !request.getPathParameters().containsKey("id")) {
+            return response(400, null);
+        }
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put("userId", AttributeValue.builder().s(userId).build());
+        key.put("noteId", AttributeValue.builder().s(request.getPathParameters().get("id")).build());
+        Map<String, String> attributeNames = new HashMap<>();
+        attributeNames.put("#s3Location", "s3Location");
+        attributeNames.put("#type", "type");
+        attributeNames.put("#thumbnails", "thumbnails");
+        final Map<String, AttributeValue> item = dynamoDbClient.getItem(GetItemRequest
+                .builder()
+                .tableName(TABLE_NAME)
+                .key(key)
+                .consistentRead(true)
+                .projectionExpression("#s3Location, #type, #thumbnails")
+                .expressionAttributeNames(attributeNames)
+                .build()).item();
+        if (item.isEmpty() || !item.containsKey("type") || !item.containsKey("s3Location") || !NoteType.valueOf(item.get("type").s()).isStored()) {
+            return response(404, null);
+        }
+        Map<String, String> thumbnails = null;
+        if (item.containsKey("thumbnails")) {
+            thumbnails = new LinkedHashMap<>();
+            for (Map.Entry<String, AttributeValue> thumbnail : item.get("thumbnails").m().entrySet()) {
+                thumbnails.put(thumbnail.getKey(), presignedGetUrl(thumbnail.getValue().s()));
             }
         }
-        return response(400, null);
+        return response(200, this.objectMapper.writeValueAsString(SignedUrlResponse.of(presignedGetUrl(item.get("s3Location").s()), thumbnails)));
+    }
+
+    private String presignedPutUrl(String key) {
+        final long start = System.nanoTime();
+        final String url = s3Presigner.presignPutObject(PutObjectPresignRequest
+                .builder()
+                .signatureDuration(PRESIGNED_URL_TTL)
+                .putObjectRequest(PutObjectRequest.builder().bucket(BUCKET_NAME).key(key).build())
+                .build()).url().toString();
+        Metrics.current().time("S3.PresignPutObject", start);
+        return url;
     }
 
-    private String presignedUrl(String key, HttpMethod httpMethod) {
-        return amazonS3.generatePresignedUrl(new GeneratePresignedUrlRequest(BUCKET_NAME, key, httpMethod)).toString();
+    private String presignedGetUrl(String key) {
+        final long start = System.nanoTime();
+        final String url = s3Presigner.presignGetObject(GetObjectPresignRequest
+                .builder()
+                .signatureDuration(PRESIGNED_URL_TTL)
+                .getObjectRequest(GetObjectRequest.builder().bucket(BUCKET_NAME).key(key).build())
+                .build()).url().toString();
+        Metrics.current().time("S3.PresignGetObject", start);
+        return url;
     }
 }
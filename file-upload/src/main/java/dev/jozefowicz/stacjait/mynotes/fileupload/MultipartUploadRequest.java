@@ -0,0 +1,58 @@
+package dev.jozefowicz.stacjait.mynotes.fileupload;
+
+public class MultipartUploadRequest {
+    private String action;
+    private String name;
+    private Long size;
+    private String key;
+    private String uploadId;
+    private Integer firstPart;
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public Integer getFirstPart() {
+        return firstPart;
+    }
+
+    public void setFirstPart(Integer firstPart) {
+        this.firstPart = firstPart;
+    }
+}
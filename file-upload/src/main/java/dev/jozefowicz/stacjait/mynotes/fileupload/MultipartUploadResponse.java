@@ -0,0 +1,57 @@
+package dev.jozefowicz.stacjait.mynotes.fileupload;
+
+import java.util.List;
+
+public class MultipartUploadResponse {
+    private final String key;
+    private final String uploadId;
+    private final long partSize;
+    private final int partCount;
+    private final List<PartUrl> parts;
+    private final List<UploadedPart> uploaded;
+
+    private MultipartUploadResponse(String key, String uploadId, long partSize, int partCount, List<PartUrl> parts, List<UploadedPart> uploaded) {
+        this.key = key;
+        this.uploadId = uploadId;
+        this.partSize = partSize;
+        this.partCount = partCount;
+        this.parts = parts;
+        this.uploaded = uploaded;
+    }
+
+    /**
+     * @param parts    presigned URLs of the parts to upload next
+     * @param uploaded parts S3 already has, empty right after initiation
+     */
+    public static final MultipartUploadResponse of(String key, String uploadId, long partSize, int partCount, List<PartUrl> parts, List<UploadedPart> uploaded) {
+        return new MultipartUploadResponse(key, uploadId, partSize, partCount, parts, uploaded);
+    }
+
+    public static class PartUrl {
+        private final int partNumber;
+        private final String link;
+
+        private PartUrl(int partNumber, String link) {
+            this.partNumber = partNumber;
+            this.link = link;
+        }
+
+        public static final PartUrl of(int partNumber, String link) {
+            return new PartUrl(partNumber, link);
+        }
+    }
+
+    public static class UploadedPart {
+        private final int partNumber;
+        private final long size;
+
+        private UploadedPart(int partNumber, long size) {
+            this.partNumber = partNumber;
+            this.size = size;
+        }
+
+        public static final UploadedPart of(int partNumber, long size) {
+            return new UploadedPart(partNumber, size);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package dev.jozefowicz.stacjait.mynotes.fileupload;
+
+import dev.jozefowicz.stacjait.mynotes.common.Metrics;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.ListPartsRequest;
+import software.amazon.awssdk.services.s3.model.Part;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.UploadPartPresignRequest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Multipart uploads straight from clients to S3.
+ * <p>
+ * The part size is derived from the declared file size - at least <code>minPartSize</code> and large enough to stay within
+ * the 10 000 parts S3 allows - so any file up to 5 TiB can be uploaded. Parts are presigned in windows of
+ * <code>urlsPerCall</code>; clients upload them in parallel and ask for the next window (or resume after a failure)
+ * with the part S3 is missing. Completion lists the parts S3 received, so clients don't have to collect ETags.
+ */
+public class MultipartUploads {
+
+    public static final long MAX_FILE_SIZE = 5L * 1024 * 1024 * 1024 * 1024;
+    private static final int MAX_PARTS = 10_000;
+    private static final long MEBIBYTE = 1024 * 1024;
+
+    private final S3Client s3Client;
+    private final S3Presigner s3Presigner;
+    private final String bucketName;
+    private final Duration urlTtl;
+    private final long minPartSize;
+    private final int urlsPerCall;
+
+    public MultipartUploads(S3Client s3Client, S3Presigner s3Presigner, String bucketName, Duration urlTtl, long minPartSize, int urlsPerCall) {
+        this.s3Client = s3Client;
+        this.s3Presigner = s3Presigner;
+        this.bucketName = bucketName;
+        this.urlTtl = urlTtl;
+        this.minPartSize = minPartSize;
+        this.urlsPerCall = urlsPerCall;
+    }
+
+    public long partSize(long fileSize) {
+        final long partSize = Math.max(minPartSize, (fileSize + MAX_PARTS - 1) / MAX_PARTS);
+        return (partSize + MEBIBYTE - 1) / MEBIBYTE * MEBIBYTE;
+    }
+
+    public int partCount(long fileSize) {
+        final long partSize = partSize(fileSize);
+        return (int) ((fileSize + partSize - 1) / partSize);
+    }
+
+    public MultipartUploadResponse initiate(String key, long fileSize) {
+        final String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder().bucket(bucketName).key(key).build()).uploadId();
+        return MultipartUploadResponse.of(key, uploadId, partSize(fileSize), partCount(fileSize), partUrls(key, uploadId, 1, partCount(fileSize)), new ArrayList<>());
+    }
+
+    /**
+     * @param firstPart first part to presign, the first part S3 doesn't have yet when <code>null</code>
+     * @throws software.amazon.awssdk.services.s3.model.NoSuchUploadException when the upload was completed or aborted
+     */
+    public MultipartUploadResponse resume(String key, String uploadId, long fileSize, Integer firstPart) {
+        final List<MultipartUploadResponse.UploadedPart> uploaded = new ArrayList<>();
+        final boolean[] received = new boolean[partCount(fileSize) + 1];
+        for (Part part : listParts(key, uploadId)) {
+            uploaded.add(MultipartUploadResponse.UploadedPart.of(part.partNumber(), part.size()));
+            if (part.partNumber() < received.length) {
+                received[part.partNumber()] = true;
+            }
+        }
+        int from = 1;
+        if (nonNull(firstPart)) {
+            from = firstPart;
+        } else {
+            while (from < received.length && received[from]) {
+                from++;
+            }
+        }
+        final List<MultipartUploadResponse.PartUrl> urls = new ArrayList<>();
+        for (int partNumber = from; partNumber < received.length && urls.size() < urlsPerCall; partNumber++) {
+            if (!received[partNumber]) {
+                urls.add(MultipartUploadResponse.PartUrl.of(partNumber, partUrl(key, uploadId, partNumber)));
+            }
+        }
+        return MultipartUploadResponse.of(key, uploadId, partSize(fileSize), partCount(fileSize), urls, uploaded);
+    }
+
+    /**
+     * @return <code>false</code> when S3 doesn't have all parts of a <code>fileSize</code> bytes file yet
+     */
+    public boolean complete(String key, String uploadId, long fileSize) {
+        final List<CompletedPart> parts = new ArrayList<>();
+        for (Part part : listParts(key, uploadId)) {
+            parts.add(CompletedPart.builder().partNumber(part.partNumber()).eTag(part.eTag()).build());
+        }
+        if (parts.size() != partCount(fileSize)) {
+            return false;
+        }
+        s3Client.completeMultipartUpload(CompleteMultipartUploadRequest
+                .builder()
+                .bucket(bucketName)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                .build());
+        return true;
+    }
+
+    public void abort(String key, String uploadId) {
+        s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder().bucket(bucketName).key(key).uploadId(uploadId).build());
+    }
+
+    private Iterable<Part> listParts(String key, String uploadId) {
+        // parts come back in ascending part number order, as CompleteMultipartUpload requires
+        return s3Client.listPartsPaginator(ListPartsRequest.builder().bucket(bucketName).key(key).uploadId(uploadId).build()).parts();
+    }
+
+    private List<MultipartUploadResponse.PartUrl> partUrls(String key, String uploadId, int from, int partCount) {
+        final List<MultipartUploadResponse.PartUrl> urls = new ArrayList<>();
+        for (int partNumber = from; partNumber <= partCount && urls.size() < urlsPerCall; partNumber++) {
+            urls.add(MultipartUploadResponse.PartUrl.of(partNumber, partUrl(key, uploadId, partNumber)));
+        }
+        return urls;
+    }
+
+    private String partUrl(String key, String uploadId, int partNumber) {
+        final long start = System.nanoTime();
+        final String url = s3Presigner.presignUploadPart(UploadPartPresignRequest
+                .builder()
+                .signatureDuration(urlTtl)
+                .uploadPartRequest(UploadPartRequest.builder().bucket(bucketName).key(key).uploadId(uploadId).partNumber(partNumber).build())
+                .build()).url().toString();
+        Metrics.current().time("S3.PresignUploadPart", start);
+        return url;
+    }
+}
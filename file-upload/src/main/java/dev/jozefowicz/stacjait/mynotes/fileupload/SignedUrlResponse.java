@@ -1,13 +1,24 @@
 package dev.jozefowicz.stacjait.mynotes.fileupload;
 
+import java.util.Map;
+
 public class SignedUrlResponse {
     private final String link;
+    private final Map<String, String> thumbnails;
 
-    private SignedUrlResponse(String link) {
+    private SignedUrlResponse(String link, Map<String, String> thumbnails) {
         this.link = link;
+        this.thumbnails = thumbnails;
     }
 
     public static final SignedUrlResponse of(String link) {
-        return new SignedUrlResponse(link);
+        return new SignedUrlResponse(link, null);
+    }
+
+    /**
+     * @param thumbnails presigned thumbnail URLs keyed by size
+     */
+    public static final SignedUrlResponse of(String link, Map<String, String> thumbnails) {
+        return new SignedUrlResponse(link, thumbnails);
     }
 }
@@ -0,0 +1,138 @@
+package dev.jozefowicz.stacjait.mynotes.labelindex;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.DynamodbEvent;
+import dev.jozefowicz.stacjait.mynotes.common.BatchWriter;
+import dev.jozefowicz.stacjait.mynotes.common.Clients;
+import dev.jozefowicz.stacjait.mynotes.common.Environment;
+import dev.jozefowicz.stacjait.mynotes.common.LabelIndex;
+import dev.jozefowicz.stacjait.mynotes.common.ListVersions;
+import dev.jozefowicz.stacjait.mynotes.common.Metrics;
+import dev.jozefowicz.stacjait.mynotes.common.NoteItemCodec;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.DeleteRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Keeps the label index table in sync with the notes table, consuming its stream (view type <code>NEW_AND_OLD_IMAGES</code>).
+ * <p>
+ * Every note write path - create, update, enrichment, uploads and deletes - is covered without touching the writers.
+ * Entries of labels the note no longer has are deleted and entries of its current labels are rewritten when one of the
+ * {@link LabelIndex#ATTRIBUTES} they hold changed - edits of the text or the enrichment state don't touch the index.
+ * Puts and deletes are idempotent, so a failed batch is simply thrown back to be retried by the event source mapping.
+ * <p>
+ * Label lists are served from the index, so the list version of every affected user is bumped once the whole batch is
+ * written - a failed batch bumps nothing until its retry succeeds.
+ */
+public class LabelIndexHandler implements RequestHandler<DynamodbEvent, Void> {
+
+    private final static String LABEL_INDEX_TABLE = Environment.get("LABEL_INDEX_TABLE");
+    private final static int WRITE_MAX_ATTEMPTS = Environment.intValue("WRITE_MAX_ATTEMPTS", 8);
+    private final static int WRITE_BACKOFF_MS = Environment.intValue("WRITE_BACKOFF_MS", 50);
+    private final static String USER_STATE_TABLE = Environment.get("USER_STATE_TABLE");
+
+    private final DynamoDbClient dynamoDbClient = Clients.dynamoDb();
+    private final BatchWriter batchWriter = new BatchWriter(dynamoDbClient, LABEL_INDEX_TABLE, WRITE_MAX_ATTEMPTS, WRITE_BACKOFF_MS);
+    private final ListVersions listVersions = new ListVersions(dynamoDbClient, USER_STATE_TABLE);
+
+    public LabelIndexHandler() {
+        Clients.warmUp(dynamoDbClient);
+    }
+
+    @Override
+    public Void handleRequest(DynamodbEvent event, Context context) {
+        final Metrics metrics = Metrics.start(context);
+        metrics.count("Records", event.getRecords().size());
+        try {
+            // keyed by index entry, records of one item arrive in order so the last change of an entry wins
+            final Map<String, WriteRequest> writes = new LinkedHashMap<>();
+            final Set<String> userIds = new HashSet<>();
+            for (DynamodbEvent.DynamodbStreamRecord record : event.getRecords()) {
+                final Map<String, AttributeValue> oldImage = StreamImages.toItem(record.getDynamodb().getOldImage());
+                final Map<String, AttributeValue> newImage = StreamImages.toItem(record.getDynamodb().getNewImage());
+                final Map<String, Map<String, AttributeValue>> current = entries(newImage);
+                final Map<String, Map<String, AttributeValue>> previous = entries(oldImage);
+                boolean changed = false;
+                for (Map.Entry<String, Map<String, AttributeValue>> entry : previous.entrySet()) {
+                    if (!current.containsKey(entry.getKey())) {
+                        writes.put(entry.getKey(), WriteRequest.builder().deleteRequest(DeleteRequest.builder().key(key(entry.getValue())).build()).build());
+                        changed = true;
+                    }
+                }
+                for (Map.Entry<String, Map<String, AttributeValue>> entry : current.entrySet()) {
+                    if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                        writes.put(entry.getKey(), WriteRequest.builder().putRequest(PutRequest.builder().item(entry.getValue()).build()).build());
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    userIds.add((newImage.isEmpty() ? oldImage : newImage).get(NoteItemCodec.USER_ID).s());
+                }
+            }
+
+            final List<WriteRequest> failed;
+            try {
+                failed = batchWriter.write(new ArrayList<>(writes.values()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while writing label index", e);
+            }
+            context.getLogger().log("Processed " + event.getRecords().size() + " records, " + writes.size() + " label index writes, " + failed.size() + " failed");
+            if (!failed.isEmpty()) {
+                // the retry writes the whole batch again and bumps once it succeeded, bumping now would invalidate twice
+                throw new IllegalStateException(failed.size() + " of " + writes.size() + " label index writes failed");
+            }
+            userIds.forEach(userId -> listVersions.bumpQuietly(userId, context.getLogger()));
+            return null;
+        } finally {
+            metrics.emit();
+        }
+    }
+
+    /**
+     * @return label index items of a note image by <code>userLabel/sortKey</code>
+     */
+    private Map<String, Map<String, AttributeValue>> entries(Map<String, AttributeValue> image) {
+        final AttributeValue labels = image.get(NoteItemCodec.LABELS);
+        if (isNull(labels) || !labels.hasSs() || labels.ss().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final String userId = image.get(NoteItemCodec.USER_ID).s();
+        final String sortKey = LabelIndex.sortKey(Long.parseLong(image.get(NoteItemCodec.TIMESTAMP).n()), image.get(NoteItemCodec.NOTE_ID).s());
+        final Map<String, Map<String, AttributeValue>> entries = new HashMap<>();
+        for (String label : labels.ss()) {
+            final String userLabel = LabelIndex.partitionKey(userId, label);
+            final Map<String, AttributeValue> item = new HashMap<>();
+            for (String attribute : LabelIndex.ATTRIBUTES) {
+                if (image.containsKey(attribute)) {
+                    item.put(attribute, image.get(attribute));
+                }
+            }
+            item.put(LabelIndex.USER_LABEL, AttributeValue.builder().s(userLabel).build());
+            item.put(LabelIndex.SORT_KEY, AttributeValue.builder().s(sortKey).build());
+            entries.put(userLabel + "/" + sortKey, item);
+        }
+        return entries;
+    }
+
+    private Map<String, AttributeValue> key(Map<String, AttributeValue> item) {
+        final Map<String, AttributeValue> key = new HashMap<>();
+        key.put(LabelIndex.USER_LABEL, item.get(LabelIndex.USER_LABEL));
+        key.put(LabelIndex.SORT_KEY, item.get(LabelIndex.SORT_KEY));
+        return key;
+    }
+}
@@ -0,0 +1,58 @@
+package dev.jozefowicz.stacjait.mynotes.labelindex;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Converts stream record images from the Lambda events model to SDK attribute values, so they can be written back as they are.
+ */
+final class StreamImages {
+
+    private StreamImages() {
+    }
+
+    static Map<String, AttributeValue> toItem(Map<String, com.amazonaws.services.lambda.runtime.events.models.dynamodb.AttributeValue> image) {
+        if (isNull(image)) {
+            return Collections.emptyMap();
+        }
+        final Map<String, AttributeValue> item = new HashMap<>((int) (image.size() / 0.75f) + 1);
+        image.forEach((name, value) -> item.put(name, toAttributeValue(value)));
+        return item;
+    }
+
+    private static AttributeValue toAttributeValue(com.amazonaws.services.lambda.runtime.events.models.dynamodb.AttributeValue value) {
+        if (nonNull(value.getS())) {
+            return AttributeValue.builder().s(value.getS()).build();
+        } else if (nonNull(value.getN())) {
+            return AttributeValue.builder().n(value.getN()).build();
+        } else if (nonNull(value.getSS())) {
+            return AttributeValue.builder().ss(value.getSS()).build();
+        } else if (nonNull(value.getNS())) {
+            return AttributeValue.builder().ns(value.getNS()).build();
+        } else if (nonNull(value.getB())) {
+            return AttributeValue.builder().b(SdkBytes.fromByteBuffer(value.getB())).build();
+        } else if (nonNull(value.getBS())) {
+            final List<SdkBytes> bytes = new ArrayList<>(value.getBS().size());
+            value.getBS().forEach(buffer -> bytes.add(SdkBytes.fromByteBuffer(buffer)));
+            return AttributeValue.builder().bs(bytes).build();
+        } else if (nonNull(value.getBOOL())) {
+            return AttributeValue.builder().bool(value.getBOOL()).build();
+        } else if (nonNull(value.getL())) {
+            final List<AttributeValue> list = new ArrayList<>(value.getL().size());
+            value.getL().forEach(element -> list.add(toAttributeValue(element)));
+            return AttributeValue.builder().l(list).build();
+        } else if (nonNull(value.getM())) {
+            return AttributeValue.builder().m(toItem(value.getM())).build();
+        }
+        return AttributeValue.builder().nul(true).build();
+    }
+}
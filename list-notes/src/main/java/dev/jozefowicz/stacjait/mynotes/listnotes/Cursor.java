@@ -0,0 +1,117 @@
+package dev.jozefowicz.stacjait.mynotes.listnotes;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Opaque continuation token built from DynamoDB <code>lastEvaluatedKey</code>.
+ * <p>
+ * Token format is <code>base64url(payload).base64url(hmac)</code> where payload binds the key to the scope it was issued for
+ * (the user, or the user and label of a label listing), so a token can neither be forged nor replayed against another partition.
+ * <p>
+ * The secret (<code>CURSOR_SECRET</code>) is mandatory and must be the same in every container, a token issued by one
+ * container is continued by whichever container serves the next page.
+ */
+public final class Cursor {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final String SCOPE_FIELD = "u";
+    private static final String KEY_FIELD = "k";
+    private static final String STRING_PREFIX = "S:";
+    private static final String NUMBER_PREFIX = "N:";
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final TypeReference<Map<String, Object>> PAYLOAD_TYPE = new TypeReference<Map<String, Object>>() {
+    };
+
+    private final ObjectMapper objectMapper;
+    private final SecretKeySpec secret;
+
+    /**
+     * @throws IllegalStateException when <code>secret</code> is missing, so a misconfigured function fails on its first invocation
+     */
+    public Cursor(ObjectMapper objectMapper, String secret) {
+        if (isNull(secret) || secret.isEmpty()) {
+            throw new IllegalStateException("CURSOR_SECRET is not configured, cursors can't be signed");
+        }
+        this.objectMapper = objectMapper;
+        this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+    }
+
+    public String encode(String scope, Map<String, AttributeValue> lastEvaluatedKey) {
+        if (isNull(lastEvaluatedKey) || lastEvaluatedKey.isEmpty()) {
+            return null;
+        }
+        Map<String, String> key = new HashMap<>();
+        lastEvaluatedKey.forEach((name, value) -> key.put(name, nonNull(value.n()) ? NUMBER_PREFIX + value.n() : STRING_PREFIX + value.s()));
+        Map<String, Object> payload = new HashMap<>();
+        payload.put(SCOPE_FIELD, scope);
+        payload.put(KEY_FIELD, key);
+        try {
+            final byte[] json = objectMapper.writeValueAsBytes(payload);
+            return ENCODER.encodeToString(json) + "." + ENCODER.encodeToString(sign(json));
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to encode cursor", e);
+        }
+    }
+
+    /**
+     * @return exclusive start key or <code>null</code> when token is malformed, tampered with or was issued for another scope
+     */
+    public Map<String, AttributeValue> decode(String scope, String token) {
+        final int separator = token.indexOf('.');
+        if (separator <= 0) {
+            return null;
+        }
+        try {
+            final byte[] json = DECODER.decode(token.substring(0, separator));
+            final byte[] signature = DECODER.decode(token.substring(separator + 1));
+            if (!MessageDigest.isEqual(sign(json), signature)) {
+                return null;
+            }
+            final Map<String, Object> payload = objectMapper.readValue(json, PAYLOAD_TYPE);
+            if (!scope.equals(payload.get(SCOPE_FIELD)) || !(payload.get(KEY_FIELD) instanceof Map)) {
+                return null;
+            }
+            Map<String, AttributeValue> exclusiveStartKey = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) payload.get(KEY_FIELD)).entrySet()) {
+                final String value = String.valueOf(entry.getValue());
+                if (value.startsWith(NUMBER_PREFIX)) {
+                    exclusiveStartKey.put(String.valueOf(entry.getKey()), AttributeValue.builder().n(value.substring(NUMBER_PREFIX.length())).build());
+                } else if (value.startsWith(STRING_PREFIX)) {
+                    exclusiveStartKey.put(String.valueOf(entry.getKey()), AttributeValue.builder().s(value.substring(STRING_PREFIX.length())).build());
+                } else {
+                    return null;
+                }
+            }
+            return exclusiveStartKey.isEmpty() ? null : exclusiveStartKey;
+        } catch (IllegalArgumentException | IOException e) {
+            return null;
+        }
+    }
+
+    private byte[] sign(byte[] payload) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(secret);
+            return mac.doFinal(payload);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to sign cursor", e);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package dev.jozefowicz.stacjait.mynotes.listnotes;
+
+import dev.jozefowicz.stacjait.mynotes.common.Metrics;
+import dev.jozefowicz.stacjait.mynotes.common.TextHash;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Two tier cache of written list pages, keyed by the request and valid for a single
+ * {@link dev.jozefowicz.stacjait.mynotes.common.ListVersions list version} of the user.
+ * <p>
+ * The local tier is an LRU of at most <code>maxEntries</code> pages living as long as the container, the shared tier is an
+ * optional DynamoDB table (partition key <code>cacheKey</code>, TTL attribute <code>expiresAt</code>) which lets containers
+ * reuse each other's pages. Any write bumps the version, so an entry goes stale as soon as its list changes. Entries never
+ * live longer than <code>ttlMillis</code>, which keeps the presigned thumbnail URLs in cached pages valid. Failures of the
+ * shared tier are counted as <code>ListCache.SharedErrors</code> and the page is served as if it missed.
+ * <p>
+ * The ETag of a page is weak - its version and the <code>ttlMillis</code> window the page was built in. Containers
+ * building the same page within one window agree on it even without the shared tier, while bodies differ only in the
+ * signatures of their presigned URLs. A new window gives a new ETag, so a client revalidating with
+ * <code>If-None-Match</code> picks up fresh URLs before its old ones expire.
+ */
+public class ListCache {
+
+    /**
+     * Pages above this size stay out of the shared tier, whose items are limited to 400 KB.
+     */
+    private static final int MAX_SHARED_BODY_LENGTH = 128 * 1024;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final Map<String, Entry> entries;
+
+    public ListCache(int maxEntries, long ttlMillis, DynamoDbClient dynamoDbClient, String tableName) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ListCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param scope list scope as bound into cursors - time range and user or label partition
+     */
+    public static String key(String scope, int limit, Set<String> fields, String cursor) {
+        return TextHash.of(scope + "\n" + limit + "\n" + String.join(",", fields) + "\n" + (isNull(cursor) ? "" : cursor));
+    }
+
+    /**
+     * @return page cached for <code>version</code>, <code>null</code> when there is none
+     */
+    public Entry get(String key, long version, long now) {
+        synchronized (entries) {
+            final Entry entry = entries.get(key);
+            if (nonNull(entry)) {
+                if (entry.version == version && entry.expiresAt > now) {
+                    Metrics.current().count("ListCache.LocalHits", 1);
+                    return entry;
+                }
+                entries.remove(key);
+            }
+        }
+        final Entry shared = getShared(key, version, now);
+        if (nonNull(shared)) {
+            Metrics.current().count("ListCache.SharedHits", 1);
+            putLocal(key, shared);
+            return shared;
+        }
+        Metrics.current().count("ListCache.Misses", 1);
+        return null;
+    }
+
+    public Entry put(String key, long version, String body, long now) {
+        final Entry entry = new Entry(version, body, "W/\"" + version + "-" + Long.toString(now / Math.max(ttlMillis, 1), 36) + "\"", now + ttlMillis);
+        putLocal(key, entry);
+        putShared(key, entry);
+        return entry;
+    }
+
+    private void putLocal(String key, Entry entry) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    private Entry getShared(String key, long version, long now) {
+        if (isNull(tableName)) {
+            return null;
+        }
+        try {
+            final Map<String, AttributeValue> item = dynamoDbClient.getItem(GetItemRequest
+                    .builder()
+                    .tableName(tableName)
+                    .key(Collections.singletonMap("cacheKey", AttributeValue.builder().s(key).build()))
+                    .build()).item();
+            if (isNull(item) || item.isEmpty() || Long.parseLong(item.get("version").n()) != version) {
+                return null;
+            }
+            final long expiresAt = Long.parseLong(item.get("expiresAtMillis").n());
+            if (expiresAt <= now) {
+                return null;
+            }
+            return new Entry(version, item.get("body").s(), item.get("etag").s(), expiresAt);
+        } catch (SdkException e) {
+            Metrics.current().count("ListCache.SharedErrors", 1);
+            return null;
+        }
+    }
+
+    private void putShared(String key, Entry entry) {
+        if (isNull(tableName) || entry.body.length() > MAX_SHARED_BODY_LENGTH) {
+            return;
+        }
+        final Map<String, AttributeValue> item = new HashMap<>();
+        item.put("cacheKey", AttributeValue.builder().s(key).build());
+        item.put("version", AttributeValue.builder().n(Long.toString(entry.version)).build());
+        item.put("body", AttributeValue.builder().s(entry.body).build());
+        item.put("etag", AttributeValue.builder().s(entry.etag).build());
+        item.put("expiresAtMillis", AttributeValue.builder().n(Long.toString(entry.expiresAt)).build());
+        // TTL deletion lags behind, expiresAtMillis is what reads go by
+        item.put("expiresAt", AttributeValue.builder().n(Long.toString(TimeUnit.MILLISECONDS.toSeconds(entry.expiresAt) + 1)).build());
+        try {
+            dynamoDbClient.putItem(PutItemRequest.builder().tableName(tableName).item(item).build());
+        } catch (SdkException e) {
+            // shared tier is best effort, the page is served regardless
+            Metrics.current().count("ListCache.SharedErrors", 1);
+        }
+    }
+
+    public static final class Entry {
+        private final long version;
+        private final String body;
+        private final String etag;
+        private final long expiresAt;
+
+        private Entry(long version, String body, String etag, long expiresAt) {
+            this.version = version;
+            this.body = body;
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
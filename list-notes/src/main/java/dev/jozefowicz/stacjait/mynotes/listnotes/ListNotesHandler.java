@@ -7,16 +7,30 @@ import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.jozefowicz.stacjait.mynotes.common.BatchReader;
+import dev.jozefowicz.stacjait.mynotes.common.Clients;
+import dev.jozefowicz.stacjait.mynotes.common.Environment;
+import dev.jozefowicz.stacjait.mynotes.common.LabelIndex;
+import dev.jozefowicz.stacjait.mynotes.common.ListVersions;
+import dev.jozefowicz.stacjait.mynotes.common.Metrics;
+import dev.jozefowicz.stacjait.mynotes.common.NoteBodyStore;
+import dev.jozefowicz.stacjait.mynotes.common.NoteItemCodec;
 import dev.jozefowicz.stacjait.mynotes.common.ResponseNote;
-import dev.jozefowicz.stacjait.mynotes.common.NoteType;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
 import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static dev.jozefowicz.stacjait.mynotes.common.APIGatewayProxyResponseEventBuilder.response;
 import static java.util.Objects.isNull;
@@ -24,18 +38,40 @@ import static java.util.Objects.nonNull;
 
 public class ListNotesHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
-    private  static final String TABLE_NAME = System.getenv("TABLE_NAME");
+    private  static final String TABLE_NAME = Environment.get("TABLE_NAME");
+    private static final String LABEL_INDEX_TABLE = Environment.get("LABEL_INDEX_TABLE");
+    private static final String TIMESTAMP_INDEX_NAME = Environment.get("TIMESTAMP_INDEX_NAME");
+    private static final String CURSOR_SECRET = Environment.get("CURSOR_SECRET");
+    private static final String BUCKET_NAME = Environment.get("BUCKET_NAME");
+    private static final Duration PRESIGNED_URL_TTL = Duration.ofMinutes(Environment.intValue("PRESIGNED_URL_TTL_MINUTES", 15));
+    private static final String USER_STATE_TABLE = Environment.get("USER_STATE_TABLE");
+    private static final String LIST_CACHE_TABLE = Environment.get("LIST_CACHE_TABLE");
+    private static final int LIST_CACHE_SIZE = Environment.intValue("LIST_CACHE_SIZE", 1000);
+    // cached pages carry presigned URLs, half of their lifetime is left to the client
+    private static final long LIST_CACHE_TTL_MILLIS = Math.min(TimeUnit.SECONDS.toMillis(Environment.intValue("LIST_CACHE_TTL_SECONDS", 300)), PRESIGNED_URL_TTL.toMillis() / 2);
+    private static final int READ_MAX_ATTEMPTS = Environment.intValue("READ_MAX_ATTEMPTS", 8);
+    private static final int READ_BACKOFF_MS = Environment.intValue("READ_BACKOFF_MS", 50);
+    private static final int DEFAULT_LIMIT = 50;
+    private static final int MAX_LIMIT = 200;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final DynamoDbClient dynamoDbClient = DynamoDbClient.create();
+    private final DynamoDbClient dynamoDbClient = Clients.dynamoDb();
+    private final Cursor cursor = new Cursor(objectMapper, CURSOR_SECRET);
+    private final PageWriter pageWriter = new PageWriter(objectMapper.getFactory(), new ThumbnailUrls(Clients.s3Presigner(), BUCKET_NAME, PRESIGNED_URL_TTL));
+    private final NoteBodyStore noteBodyStore = new NoteBodyStore(Clients.s3(), BUCKET_NAME);
+    private final BatchReader batchReader = new BatchReader(dynamoDbClient, TABLE_NAME, READ_MAX_ATTEMPTS, READ_BACKOFF_MS);
+    private final ListVersions listVersions = new ListVersions(dynamoDbClient, USER_STATE_TABLE);
+    private final ListCache listCache = new ListCache(LIST_CACHE_SIZE, LIST_CACHE_TTL_MILLIS, dynamoDbClient, LIST_CACHE_TABLE);
 
     public ListNotesHandler() {
         objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        Clients.warmUp(dynamoDbClient);
     }
 
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent request, Context context) {
-
+        final Metrics metrics = Metrics.start(context);
+        metrics.size("RequestBytes", request.getBody());
         try {
             if (!request.getHttpMethod().equalsIgnoreCase("get")) {
                 return response(405, null);
@@ -63,31 +99,267 @@ public class ListNotesHandler implements RequestHandler<APIGatewayProxyRequestEv
             Map<String, String> claims = (Map<String, String>) request.getRequestContext().getAuthorizer().get("claims");
             final String userId = claims.get("cognito:username");
 
-            QueryResponse queryResponse = dynamoDbClient.query(QueryRequest
-                    .builder()
-                    .tableName(TABLE_NAME)
-                    .keyConditionExpression("#userId = :userId")
-                    .expressionAttributeNames(Collections.singletonMap("#userId", "userId"))
-                    .expressionAttributeValues(Collections.singletonMap(":userId", AttributeValue.builder().s(userId).build()))
-                    .build());
-            final Page page = new Page(queryResponse.items().stream().map(this::mapToNote).collect(Collectors.toList()), nonNull(queryResponse.lastEvaluatedKey()));
-            return response(200, objectMapper.writeValueAsString(page));
+            if (nonNull(request.getPathParameters()) && request.getPathParameters().containsKey("id")) {
+                return getNote(userId, request.getPathParameters().get("id"));
+            }
+
+            final Map<String, String> queryParameters = nonNull(request.getQueryStringParameters()) ? request.getQueryStringParameters() : Collections.emptyMap();
+            final Integer limit = limit(queryParameters.get("limit"));
+            final Set<String> fields = PageWriter.fields(queryParameters.get("fields"));
+            final String label = queryParameters.get("label");
+            final TimeRange range = TimeRange.of(queryParameters.get("since"), queryParameters.get("until"), queryParameters.get("order"));
+            if (isNull(limit) || isNull(fields) || isNull(range)
+                    || (nonNull(label) && (label.isEmpty() || isNull(LABEL_INDEX_TABLE)))
+                    || (isNull(label) && !range.isEmpty() && isNull(TIMESTAMP_INDEX_NAME))) {
+                return response(400, null);
+            }
+            final String scope = range.scope() + "|" + (isNull(label) ? userId : LabelIndex.partitionKey(userId, label));
+
+            Map<String, AttributeValue> exclusiveStartKey = null;
+            if (nonNull(queryParameters.get("cursor"))) {
+                exclusiveStartKey = cursor.decode(scope, queryParameters.get("cursor"));
+                if (isNull(exclusiveStartKey)) {
+                    return response(400, null);
+                }
+            }
+
+            if (!listVersions.isEnabled()) {
+                return response(200, page(userId, label, range, fields, limit, scope, exclusiveStartKey));
+            }
+            final long now = System.currentTimeMillis();
+            final long version = listVersions.current(userId);
+            final String cacheKey = ListCache.key(scope, limit, fields, queryParameters.get("cursor"));
+            ListCache.Entry page = listCache.get(cacheKey, version, now);
+            if (isNull(page)) {
+                page = listCache.put(cacheKey, version, page(userId, label, range, fields, limit, scope, exclusiveStartKey), now);
+            }
+            // a page built here can still match one another container served within the same window
+            if (matches(header(request, "If-None-Match"), page.getEtag())) {
+                Metrics.current().count("ListCache.NotModified", 1);
+                return response(304, null, etag(page.getEtag()));
+            }
+            return response(200, page.getBody(), etag(page.getEtag()));
         } catch (Exception e) {
             context.getLogger().log("Exception while processing request");
             e.printStackTrace();
             return response(500, null);
+        } finally {
+            metrics.emit();
         }
     }
 
-    private ResponseNote mapToNote(Map<String, AttributeValue> item) {
-        return new ResponseNote(
-                item.get("noteId").s(),
-                item.get("title").s(),
-                nonNull(item.get("text")) ? item.get("text").s() : null,
-                Long.valueOf(item.get("timestamp").n()),
-                NoteType.valueOf(item.get("type").s()),
-                nonNull(item.get("size")) ? Long.valueOf(item.get("size").n()) : null,
-                item.containsKey("labels") ? item.get("labels").ss() : null);
+    /**
+     * Queries of cacheable pages are strongly consistent, a page cached for a version must contain every write counted in it.
+     */
+    private String page(String userId, String label, TimeRange range, Set<String> fields, int limit, String scope, Map<String, AttributeValue> exclusiveStartKey) throws IOException, InterruptedException {
+        final QueryResponse queryResponse;
+        if (nonNull(label)) {
+            queryResponse = queryLabel(LabelIndex.partitionKey(userId, label), range, fields, limit, exclusiveStartKey);
+            final List<Map<String, AttributeValue>> items = LabelIndex.ATTRIBUTES.containsAll(fields) ? queryResponse.items() : notes(userId, queryResponse.items(), fields);
+            return pageWriter.write(items, cursor.encode(scope, queryResponse.lastEvaluatedKey()), fields);
+        } else if (!range.isEmpty()) {
+            queryResponse = queryTimestamps(userId, range, fields, limit, exclusiveStartKey);
+        } else {
+            queryResponse = queryNotes(userId, fields, limit, exclusiveStartKey);
+        }
+        return pageWriter.write(queryResponse.items(), cursor.encode(scope, queryResponse.lastEvaluatedKey()), fields);
+    }
+
+    /**
+     * Returns a single note with its full text, read back from the bucket when it was offloaded.
+     */
+    private APIGatewayProxyResponseEvent getNote(String userId, String noteId) throws IOException {
+        final Map<String, AttributeValue> item = dynamoDbClient.getItem(GetItemRequest
+                .builder()
+                .tableName(TABLE_NAME)
+                .key(NoteItemCodec.key(userId, noteId))
+                .build()).item();
+        if (isNull(item) || item.isEmpty()) {
+            return response(404, null);
+        }
+        final AttributeValue textLocation = item.get(NoteItemCodec.TEXT_LOCATION);
+        final ResponseNote note = nonNull(textLocation)
+                ? NoteItemCodec.toResponseNote(item, noteBodyStore.load(textLocation.s()))
+                : NoteItemCodec.toResponseNote(item);
+        return response(200, objectMapper.writeValueAsString(note), nonNull(note.getVersion()) ? etag("\"" + note.getVersion() + "\"") : null);
+    }
+
+    private QueryResponse queryNotes(String userId, Set<String> fields, int limit, Map<String, AttributeValue> exclusiveStartKey) {
+        final Map<String, String> attributeNames = new HashMap<>();
+        attributeNames.put("#userId", "userId");
+        return dynamoDbClient.query(QueryRequest
+                .builder()
+                .tableName(TABLE_NAME)
+                .keyConditionExpression("#userId = :userId")
+                .projectionExpression(PageWriter.projection(fields, attributeNames))
+                .expressionAttributeNames(attributeNames)
+                .expressionAttributeValues(Collections.singletonMap(":userId", AttributeValue.builder().s(userId).build()))
+                .consistentRead(listVersions.isEnabled())
+                .limit(limit)
+                .exclusiveStartKey(exclusiveStartKey)
+                .build());
+    }
+
+    /**
+     * Notes in timestamp order read from the <code>(userId, timestamp)</code> local secondary index, so a recent-first
+     * view or a time window reads only the items it returns.
+     */
+    private QueryResponse queryTimestamps(String userId, TimeRange range, Set<String> fields, int limit, Map<String, AttributeValue> exclusiveStartKey) {
+        final Map<String, String> attributeNames = new HashMap<>();
+        final Map<String, AttributeValue> attributeValues = new HashMap<>();
+        attributeNames.put("#userId", "userId");
+        attributeValues.put(":userId", AttributeValue.builder().s(userId).build());
+        final StringBuilder keyCondition = new StringBuilder("#userId = :userId");
+        if (range.isBounded()) {
+            attributeNames.put("#timestamp", "timestamp");
+            keyCondition.append(" AND #timestamp ").append(rangeCondition(range));
+            if (nonNull(range.getSince())) {
+                attributeValues.put(":since", AttributeValue.builder().n(Long.toString(range.getSince())).build());
+            }
+            if (nonNull(range.getUntil())) {
+                attributeValues.put(":until", AttributeValue.builder().n(Long.toString(range.getUntil())).build());
+            }
+        }
+        return dynamoDbClient.query(QueryRequest
+                .builder()
+                .tableName(TABLE_NAME)
+                .indexName(TIMESTAMP_INDEX_NAME)
+                .keyConditionExpression(keyCondition.toString())
+                .projectionExpression(PageWriter.projection(fields, attributeNames))
+                .expressionAttributeNames(attributeNames)
+                .expressionAttributeValues(attributeValues)
+                .scanIndexForward(!range.isDescending(false))
+                .consistentRead(listVersions.isEnabled())
+                .limit(limit)
+                .exclusiveStartKey(exclusiveStartKey)
+                .build());
+    }
+
+    /**
+     * Notes with a label, newest first unless asked otherwise, read from the label index. Its entries hold only the
+     * {@link LabelIndex#ATTRIBUTES}, when other fields are requested just the note ids are read and the notes are fetched by {@link #notes}.
+     */
+    private QueryResponse queryLabel(String userLabel, TimeRange range, Set<String> fields, int limit, Map<String, AttributeValue> exclusiveStartKey) {
+        final Map<String, String> attributeNames = new HashMap<>();
+        final Map<String, AttributeValue> attributeValues = new HashMap<>();
+        attributeNames.put("#userLabel", LabelIndex.USER_LABEL);
+        attributeValues.put(":userLabel", AttributeValue.builder().s(userLabel).build());
+        final StringBuilder keyCondition = new StringBuilder("#userLabel = :userLabel");
+        if (range.isBounded()) {
+            // sort keys are timestamp#noteId, so the upper bound is the first key of the next millisecond
+            attributeNames.put("#sortKey", LabelIndex.SORT_KEY);
+            keyCondition.append(" AND #sortKey ").append(rangeCondition(range));
+            if (nonNull(range.getSince())) {
+                attributeValues.put(":since", AttributeValue.builder().s(LabelIndex.sortKey(range.getSince(), "")).build());
+            }
+            if (nonNull(range.getUntil())) {
+                attributeValues.put(":until", AttributeValue.builder().s(LabelIndex.sortKey(range.getUntil() + 1, "")).build());
+            }
+        }
+        return dynamoDbClient.query(QueryRequest
+                .builder()
+                .tableName(LABEL_INDEX_TABLE)
+                .keyConditionExpression(keyCondition.toString())
+                .projectionExpression(LabelIndex.ATTRIBUTES.containsAll(fields) ? PageWriter.projection(fields, attributeNames) : noteId(attributeNames))
+                .expressionAttributeNames(attributeNames)
+                .expressionAttributeValues(attributeValues)
+                .scanIndexForward(!range.isDescending(true))
+                .consistentRead(listVersions.isEnabled())
+                .limit(limit)
+                .exclusiveStartKey(exclusiveStartKey)
+                .build());
+    }
+
+    /**
+     * @return notes behind label index entries in the order of the entries, notes deleted in the meantime are left out
+     */
+    private List<Map<String, AttributeValue>> notes(String userId, List<Map<String, AttributeValue>> entries, Set<String> fields) throws InterruptedException {
+        final List<Map<String, AttributeValue>> keys = new ArrayList<>(entries.size());
+        for (Map<String, AttributeValue> entry : entries) {
+            keys.add(NoteItemCodec.key(userId, entry.get(NoteItemCodec.NOTE_ID).s()));
+        }
+        final Map<String, String> attributeNames = new HashMap<>();
+        String projection = PageWriter.projection(fields, attributeNames);
+        if (nonNull(projection) && !fields.contains(NoteItemCodec.NOTE_ID)) {
+            // the id puts notes back in order, it isn't written unless requested
+            projection += ", " + noteId(attributeNames);
+        }
+        final Map<String, Map<String, AttributeValue>> notes = new HashMap<>();
+        for (Map<String, AttributeValue> item : batchReader.read(keys, projection, attributeNames.isEmpty() ? null : attributeNames, listVersions.isEnabled())) {
+            notes.put(item.get(NoteItemCodec.NOTE_ID).s(), item);
+        }
+        final List<Map<String, AttributeValue>> items = new ArrayList<>(entries.size());
+        for (Map<String, AttributeValue> entry : entries) {
+            final Map<String, AttributeValue> note = notes.get(entry.get(NoteItemCodec.NOTE_ID).s());
+            if (nonNull(note)) {
+                items.add(note);
+            }
+        }
+        return items;
+    }
+
+    private static String noteId(Map<String, String> attributeNames) {
+        attributeNames.put("#" + NoteItemCodec.NOTE_ID, NoteItemCodec.NOTE_ID);
+        return "#" + NoteItemCodec.NOTE_ID;
+    }
+
+    private String rangeCondition(TimeRange range) {
+        if (nonNull(range.getSince()) && nonNull(range.getUntil())) {
+            return "BETWEEN :since AND :until";
+        }
+        return nonNull(range.getSince()) ? ">= :since" : "<= :until";
+    }
+
+    private static Map<String, String> etag(String etag) {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("ETag", etag);
+        headers.put("Access-Control-Expose-Headers", "ETag");
+        return headers;
+    }
+
+    /**
+     * Weak comparison as required for <code>If-None-Match</code> - <code>W/</code> prefixes are ignored on both sides.
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (isNull(ifNoneMatch)) {
+            return false;
+        }
+        final String opaqueTag = opaqueTag(etag);
+        for (String value : ifNoneMatch.split(",")) {
+            final String candidate = opaqueTag(value.trim());
+            if (candidate.equals("*") || candidate.equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static String header(APIGatewayProxyRequestEvent request, String name) {
+        if (isNull(request.getHeaders())) {
+            return null;
+        }
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private Integer limit(String value) {
+        if (isNull(value)) {
+            return DEFAULT_LIMIT;
+        }
+        try {
+            final int limit = Integer.parseInt(value);
+            return limit > 0 ? Math.min(limit, MAX_LIMIT) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 
 }
@@ -2,13 +2,17 @@ package dev.jozefowicz.stacjait.mynotes.listnotes;
 
 import java.util.List;
 
+import static java.util.Objects.nonNull;
+
 public class Page<T> {
     private final List<T> elements;
     private final boolean hasNext;
+    private final String nextCursor;
 
-    public Page(List<T> elements, boolean hasNext) {
+    public Page(List<T> elements, String nextCursor) {
         this.elements = elements;
-        this.hasNext = hasNext;
+        this.hasNext = nonNull(nextCursor);
+        this.nextCursor = nextCursor;
     }
 
     public List<T> getElements() {
@@ -19,4 +23,8 @@ public class Page<T> {
         return hasNext;
     }
 
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
 }
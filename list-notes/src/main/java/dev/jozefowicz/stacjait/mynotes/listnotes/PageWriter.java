@@ -0,0 +1,176 @@
+package dev.jozefowicz.stacjait.mynotes.listnotes;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import dev.jozefowicz.stacjait.mynotes.common.NoteItemCodec;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Writes a {@link Page} of notes straight from DynamoDB items with a streaming generator.
+ * <p>
+ * The output has the same shape as <code>objectMapper.writeValueAsString(new Page(notes, nextCursor))</code>, but no
+ * intermediate <code>ResponseNote</code> objects or page are built - each item is decoded while it is written.
+ * Thumbnail locations are written as presigned URLs keyed by size, so list views never have to fetch the originals.
+ */
+public class PageWriter {
+
+    public static final Set<String> ALL_FIELDS = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(
+            "noteId", "title", "text", "truncated", "timestamp", "type", "size", "labels", "enrichment", "version", "thumbnails")));
+    private static final String TRUNCATED = "truncated";
+
+    private static final int ESTIMATED_NOTE_SIZE = 256;
+
+    private final JsonFactory jsonFactory;
+    private final Function<String, String> thumbnailUrls;
+
+    public PageWriter(JsonFactory jsonFactory, Function<String, String> thumbnailUrls) {
+        this.jsonFactory = jsonFactory;
+        this.thumbnailUrls = thumbnailUrls;
+    }
+
+    /**
+     * @return requested fields in response order, {@link #ALL_FIELDS} when none were requested or <code>null</code> when an unknown field was requested
+     */
+    public static Set<String> fields(String fields) {
+        if (isNull(fields) || fields.isEmpty()) {
+            return ALL_FIELDS;
+        }
+        final Set<String> requested = new LinkedHashSet<>(Arrays.asList(fields.split(",")));
+        if (!ALL_FIELDS.containsAll(requested)) {
+            return null;
+        }
+        final Set<String> selected = new LinkedHashSet<>(ALL_FIELDS);
+        selected.retainAll(requested);
+        return selected;
+    }
+
+    /**
+     * @return projection expression reading just the attributes behind <code>fields</code>, <code>null</code> for all fields
+     */
+    public static String projection(Set<String> fields, Map<String, String> attributeNames) {
+        if (fields.containsAll(ALL_FIELDS)) {
+            return null;
+        }
+        StringBuilder projection = new StringBuilder();
+        for (String field : fields) {
+            for (String attribute : attributes(field)) {
+                attributeNames.put("#" + attribute, attribute);
+                projection.append(projection.length() > 0 ? ", #" : "#").append(attribute);
+            }
+        }
+        return projection.toString();
+    }
+
+    private static String[] attributes(String field) {
+        switch (field) {
+            case NoteItemCodec.TEXT:
+                return new String[]{NoteItemCodec.TEXT, NoteItemCodec.PREVIEW};
+            case TRUNCATED:
+                return new String[]{NoteItemCodec.TEXT_LOCATION};
+            default:
+                return new String[]{field};
+        }
+    }
+
+    public String write(List<Map<String, AttributeValue>> items, String nextCursor, Set<String> fields) throws IOException {
+        final StringWriter writer = new StringWriter(64 + items.size() * ESTIMATED_NOTE_SIZE);
+        try (JsonGenerator generator = jsonFactory.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("elements");
+            for (Map<String, AttributeValue> item : items) {
+                writeNote(generator, item, fields);
+            }
+            generator.writeEndArray();
+            generator.writeBooleanField("hasNext", nonNull(nextCursor));
+            generator.writeStringField("nextCursor", nextCursor);
+            generator.writeEndObject();
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes a delta sync response - changed notes, ids of deleted notes and the watermark for the next sync.
+     * <code>deleted</code> and <code>watermark</code> are only known on the last page.
+     */
+    public String writeChanges(List<Map<String, AttributeValue>> items, List<String> deleted, Long watermark, boolean resync, String nextCursor, Set<String> fields) throws IOException {
+        final StringWriter writer = new StringWriter(128 + items.size() * ESTIMATED_NOTE_SIZE + deleted.size() * 40);
+        try (JsonGenerator generator = jsonFactory.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("elements");
+            for (Map<String, AttributeValue> item : items) {
+                writeNote(generator, item, fields);
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("deleted");
+            for (String noteId : deleted) {
+                generator.writeString(noteId);
+            }
+            generator.writeEndArray();
+            generator.writeBooleanField("resync", resync);
+            generator.writeBooleanField("hasNext", nonNull(nextCursor));
+            generator.writeStringField("nextCursor", nextCursor);
+            generator.writeFieldName("watermark");
+            if (nonNull(watermark)) {
+                generator.writeNumber(watermark);
+            } else {
+                generator.writeNull();
+            }
+            generator.writeEndObject();
+        }
+        return writer.toString();
+    }
+
+    private void writeNote(JsonGenerator generator, Map<String, AttributeValue> item, Set<String> fields) throws IOException {
+        generator.writeStartObject();
+        for (String field : fields) {
+            if (field.equals(TRUNCATED)) {
+                // offloaded texts are listed by their preview
+                generator.writeBooleanField(TRUNCATED, item.containsKey(NoteItemCodec.TEXT_LOCATION));
+                continue;
+            }
+            final AttributeValue value = field.equals(NoteItemCodec.TEXT) && !item.containsKey(NoteItemCodec.TEXT) ? item.get(NoteItemCodec.PREVIEW) : item.get(field);
+            generator.writeFieldName(field);
+            if (isNull(value)) {
+                generator.writeNull();
+                continue;
+            }
+            switch (field) {
+                case NoteItemCodec.TIMESTAMP:
+                case NoteItemCodec.SIZE:
+                case NoteItemCodec.VERSION:
+                    generator.writeNumber(value.n());
+                    break;
+                case NoteItemCodec.THUMBNAILS:
+                    generator.writeStartObject();
+                    for (Map.Entry<String, AttributeValue> thumbnail : value.m().entrySet()) {
+                        generator.writeStringField(thumbnail.getKey(), thumbnailUrls.apply(thumbnail.getValue().s()));
+                    }
+                    generator.writeEndObject();
+                    break;
+                case NoteItemCodec.LABELS:
+                    generator.writeStartArray();
+                    for (String label : value.ss()) {
+                        generator.writeString(label);
+                    }
+                    generator.writeEndArray();
+                    break;
+                default:
+                    generator.writeString(value.s());
+            }
+        }
+        generator.writeEndObject();
+    }
+}
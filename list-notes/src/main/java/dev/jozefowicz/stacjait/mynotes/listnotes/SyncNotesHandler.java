@@ -0,0 +1,178 @@
+package dev.jozefowicz.stacjait.mynotes.listnotes;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.jozefowicz.stacjait.mynotes.common.Clients;
+import dev.jozefowicz.stacjait.mynotes.common.Environment;
+import dev.jozefowicz.stacjait.mynotes.common.Metrics;
+import dev.jozefowicz.stacjait.mynotes.common.Tombstones;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static dev.jozefowicz.stacjait.mynotes.common.APIGatewayProxyResponseEventBuilder.response;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Delta sync - returns notes created or updated and ids of notes deleted since the client's watermark.
+ * <p>
+ * Changes are read in timestamp order from the <code>(userId, timestamp)</code> index. Every write moves a note's timestamp
+ * forward, so a note changed while the client is paging shows up on a later page. Tombstones and the new watermark are
+ * therefore only read on the last page. Timestamps are assigned by writers before their put lands, so every sync reads
+ * <code>SYNC_SKEW_MS</code> back from the watermark; clients must treat changes as idempotent upserts.
+ * <p>
+ * Without <code>since</code> the whole note set is returned. When the watermark is older than tombstone retention
+ * the response has <code>resync</code> set and the client has to start over without <code>since</code>.
+ * <code>compact=true</code> leaves note text out of the response.
+ */
+public class SyncNotesHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+
+    private static final String TABLE_NAME = Environment.get("TABLE_NAME");
+    private static final String TIMESTAMP_INDEX_NAME = Environment.get("TIMESTAMP_INDEX_NAME");
+    private static final String TOMBSTONE_TABLE = Environment.get("TOMBSTONE_TABLE");
+    private static final String CURSOR_SECRET = Environment.get("CURSOR_SECRET");
+    private static final String BUCKET_NAME = Environment.get("BUCKET_NAME");
+    private static final Duration PRESIGNED_URL_TTL = Duration.ofMinutes(Environment.intValue("PRESIGNED_URL_TTL_MINUTES", 15));
+    private static final int TOMBSTONE_TTL_DAYS = Environment.intValue("TOMBSTONE_TTL_DAYS", 30);
+    private static final int SYNC_SKEW_MS = Environment.intValue("SYNC_SKEW_MS", 5000);
+    private static final int DEFAULT_LIMIT = 500;
+    private static final int MAX_LIMIT = 1000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DynamoDbClient dynamoDbClient = Clients.dynamoDb();
+    private final Cursor cursor = new Cursor(objectMapper, CURSOR_SECRET);
+    private final PageWriter pageWriter = new PageWriter(objectMapper.getFactory(), new ThumbnailUrls(Clients.s3Presigner(), BUCKET_NAME, PRESIGNED_URL_TTL));
+    private final Tombstones tombstones = new Tombstones(dynamoDbClient, TOMBSTONE_TABLE, TOMBSTONE_TTL_DAYS);
+
+    public SyncNotesHandler() {
+        Clients.warmUp(dynamoDbClient);
+    }
+
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent request, Context context) {
+        final Metrics metrics = Metrics.start(context);
+        metrics.size("RequestBytes", request.getBody());
+        try {
+            if (!request.getHttpMethod().equalsIgnoreCase("get")) {
+                return response(405, null);
+            } else if (isNull(request.getRequestContext().getAuthorizer()) || request.getRequestContext().getAuthorizer().isEmpty()) {
+                context.getLogger().log("Authorizer not configured");
+                return response(401, null);
+            } else if (isNull(TIMESTAMP_INDEX_NAME) || !tombstones.isEnabled()) {
+                context.getLogger().log("Sync requires TIMESTAMP_INDEX_NAME and TOMBSTONE_TABLE");
+                return response(500, null);
+            }
+
+            Map<String, String> claims = (Map<String, String>) request.getRequestContext().getAuthorizer().get("claims");
+            final String userId = claims.get("cognito:username");
+
+            final Map<String, String> queryParameters = nonNull(request.getQueryStringParameters()) ? request.getQueryStringParameters() : Collections.emptyMap();
+            final Integer limit = limit(queryParameters.get("limit"));
+            final Long since = watermark(queryParameters.get("since"));
+            final Set<String> fields = fields(queryParameters.get("fields"), "true".equals(queryParameters.get("compact")));
+            if (isNull(limit) || isNull(fields) || (nonNull(queryParameters.get("since")) && isNull(since))) {
+                return response(400, null);
+            }
+
+            final long now = System.currentTimeMillis();
+            if (nonNull(since) && tombstones.isExpired(since, now)) {
+                return response(200, pageWriter.writeChanges(Collections.emptyList(), Collections.emptyList(), null, true, null, fields));
+            }
+            final Long from = nonNull(since) ? since - SYNC_SKEW_MS : null;
+
+            final String scope = "sync:" + since + "|" + userId;
+            Map<String, AttributeValue> exclusiveStartKey = null;
+            if (nonNull(queryParameters.get("cursor"))) {
+                exclusiveStartKey = cursor.decode(scope, queryParameters.get("cursor"));
+                if (isNull(exclusiveStartKey)) {
+                    return response(400, null);
+                }
+            }
+
+            final QueryResponse queryResponse = changes(userId, from, fields, limit, exclusiveStartKey);
+            final String nextCursor = cursor.encode(scope, queryResponse.lastEvaluatedKey());
+            if (nonNull(nextCursor)) {
+                return response(200, pageWriter.writeChanges(queryResponse.items(), Collections.emptyList(), null, false, nextCursor, fields));
+            }
+            final List<String> deleted = nonNull(from) ? tombstones.deletedSince(userId, from) : Collections.emptyList();
+            return response(200, pageWriter.writeChanges(queryResponse.items(), deleted, now, false, null, fields));
+        } catch (Exception e) {
+            context.getLogger().log("Exception while processing request");
+            e.printStackTrace();
+            return response(500, null);
+        } finally {
+            metrics.emit();
+        }
+    }
+
+    private QueryResponse changes(String userId, Long from, Set<String> fields, int limit, Map<String, AttributeValue> exclusiveStartKey) {
+        final Map<String, String> attributeNames = new HashMap<>();
+        final Map<String, AttributeValue> attributeValues = new HashMap<>();
+        attributeNames.put("#userId", "userId");
+        attributeValues.put(":userId", AttributeValue.builder().s(userId).build());
+        String keyCondition = "#userId = :userId";
+        if (nonNull(from)) {
+            attributeNames.put("#timestamp", "timestamp");
+            attributeValues.put(":from", AttributeValue.builder().n(Long.toString(from)).build());
+            keyCondition += " AND #timestamp >= :from";
+        }
+        return dynamoDbClient.query(QueryRequest
+                .builder()
+                .tableName(TABLE_NAME)
+                .indexName(TIMESTAMP_INDEX_NAME)
+                .keyConditionExpression(keyCondition)
+                .projectionExpression(PageWriter.projection(fields, attributeNames))
+                .expressionAttributeNames(attributeNames)
+                .expressionAttributeValues(attributeValues)
+                .limit(limit)
+                .exclusiveStartKey(exclusiveStartKey)
+                .build());
+    }
+
+    private Set<String> fields(String value, boolean compact) {
+        final Set<String> fields = PageWriter.fields(value);
+        if (isNull(fields) || !compact) {
+            return fields;
+        }
+        final Set<String> withoutText = new LinkedHashSet<>(fields);
+        withoutText.remove("text");
+        return withoutText;
+    }
+
+    private Long watermark(String value) {
+        if (isNull(value)) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Integer limit(String value) {
+        if (isNull(value)) {
+            return DEFAULT_LIMIT;
+        }
+        try {
+            final int limit = Integer.parseInt(value);
+            return limit > 0 ? Math.min(limit, MAX_LIMIT) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package dev.jozefowicz.stacjait.mynotes.listnotes;
+
+import dev.jozefowicz.stacjait.mynotes.common.Metrics;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Presigns GET URLs of thumbnails written by process-file. Signing happens locally, no request is made per URL.
+ */
+public class ThumbnailUrls implements Function<String, String> {
+
+    private static final String PRESIGN_METRIC = "S3.PresignGetObject";
+
+    private final S3Presigner s3Presigner;
+    private final String bucketName;
+    private final Duration ttl;
+
+    public ThumbnailUrls(S3Presigner s3Presigner, String bucketName, Duration ttl) {
+        this.s3Presigner = s3Presigner;
+        this.bucketName = bucketName;
+        this.ttl = ttl;
+    }
+
+    @Override
+    public String apply(String key) {
+        final long start = System.nanoTime();
+        final String url = s3Presigner.presignGetObject(GetObjectPresignRequest
+                .builder()
+                .signatureDuration(ttl)
+                .getObjectRequest(GetObjectRequest.builder().bucket(bucketName).key(key).build())
+                .build()).url().toString();
+        Metrics.current().time(PRESIGN_METRIC, start);
+        return url;
+    }
+}
@@ -0,0 +1,74 @@
+package dev.jozefowicz.stacjait.mynotes.listnotes;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Optional <code>since</code>/<code>until</code> (epoch millis, both inclusive) and <code>order</code> (<code>asc</code> or
+ * <code>desc</code>) options of a listing.
+ * <p>
+ * Bounds are clamped to <code>[0, Long.MAX_VALUE - 1]</code> - label index sort keys are zero padded timestamps, which
+ * don't order negative values, and label listings query up to <code>until + 1</code>.
+ */
+public class TimeRange {
+    private static final long MAX_TIMESTAMP = Long.MAX_VALUE - 1;
+
+    private final Long since;
+    private final Long until;
+    private final String order;
+
+    private TimeRange(Long since, Long until, String order) {
+        this.since = since;
+        this.until = until;
+        this.order = order;
+    }
+
+    /**
+     * @return parsed range or <code>null</code> when any of the values is invalid
+     */
+    public static TimeRange of(String since, String until, String order) {
+        if (nonNull(order) && !order.equals("asc") && !order.equals("desc")) {
+            return null;
+        }
+        try {
+            final TimeRange range = new TimeRange(bound(since), bound(until), order);
+            return nonNull(range.since) && nonNull(range.until) && range.since > range.until ? null : range;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Long bound(String value) {
+        return nonNull(value) ? Math.min(Math.max(Long.parseLong(value), 0), MAX_TIMESTAMP) : null;
+    }
+
+    public Long getSince() {
+        return since;
+    }
+
+    public Long getUntil() {
+        return until;
+    }
+
+    public boolean isBounded() {
+        return nonNull(since) || nonNull(until);
+    }
+
+    /**
+     * @return <code>true</code> when no option was given at all
+     */
+    public boolean isEmpty() {
+        return !isBounded() && isNull(order);
+    }
+
+    public boolean isDescending(boolean byDefault) {
+        return isNull(order) ? byDefault : order.equals("desc");
+    }
+
+    /**
+     * Part of the cursor scope - a start key is only valid for the key condition and direction it was returned for.
+     */
+    public String scope() {
+        return since + ":" + until + ":" + order;
+    }
+}
@@ -0,0 +1,74 @@
+package dev.jozefowicz.stacjait.mynotes.listnotes;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CursorTest {
+
+    private final Cursor cursor = new Cursor(new ObjectMapper(), "secret");
+
+    @Test
+    void decodesWhatItEncoded() {
+        final Map<String, AttributeValue> key = key();
+        assertEquals(key, cursor.decode("user", cursor.encode("user", key)));
+    }
+
+    @Test
+    void rejectsTamperedPayload() {
+        final String token = cursor.encode("user", key());
+        final String other = cursor.encode("user", otherKey());
+        final String forged = other.substring(0, other.indexOf('.')) + token.substring(token.indexOf('.'));
+        assertNull(cursor.decode("user", forged));
+    }
+
+    @Test
+    void rejectsTokenOfAnotherScope() {
+        assertNull(cursor.decode("other", cursor.encode("user", key())));
+    }
+
+    @Test
+    void rejectsTokenSignedWithAnotherSecret() {
+        final Cursor other = new Cursor(new ObjectMapper(), "other-secret");
+        assertNull(cursor.decode("user", other.encode("user", key())));
+    }
+
+    @Test
+    void rejectsMalformedToken() {
+        assertNull(cursor.decode("user", "not-a-token"));
+        assertNull(cursor.decode("user", "%%%.%%%"));
+    }
+
+    @Test
+    void encodesNothingWithoutKey() {
+        assertNull(cursor.encode("user", null));
+        assertNull(cursor.encode("user", new HashMap<>()));
+    }
+
+    @Test
+    void requiresSecret() {
+        assertThrows(IllegalStateException.class, () -> new Cursor(new ObjectMapper(), null));
+        assertThrows(IllegalStateException.class, () -> new Cursor(new ObjectMapper(), ""));
+    }
+
+    private static Map<String, AttributeValue> key() {
+        final Map<String, AttributeValue> key = new HashMap<>();
+        key.put("userId", AttributeValue.builder().s("user").build());
+        key.put("noteId", AttributeValue.builder().s("note-1").build());
+        key.put("timestamp", AttributeValue.builder().n("1700000000000").build());
+        return key;
+    }
+
+    private static Map<String, AttributeValue> otherKey() {
+        final Map<String, AttributeValue> key = key();
+        key.put("noteId", AttributeValue.builder().s("note-2").build());
+        return key;
+    }
+}
@@ -0,0 +1,35 @@
+package dev.jozefowicz.stacjait.mynotes.listnotes;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ListNotesHandlerTest {
+
+    private static final String ETAG = "W/\"42-abc\"";
+
+    @Test
+    void matchesSameTag() {
+        assertTrue(ListNotesHandler.matches(ETAG, ETAG));
+    }
+
+    @Test
+    void matchesWeakAndStrongFormOfTheSameTag() {
+        assertTrue(ListNotesHandler.matches("\"42-abc\"", ETAG));
+        assertTrue(ListNotesHandler.matches("W/\"42-abc\"", "\"42-abc\""));
+    }
+
+    @Test
+    void matchesAnyTagOfList() {
+        assertTrue(ListNotesHandler.matches("\"1-a\", W/\"42-abc\"", ETAG));
+        assertTrue(ListNotesHandler.matches("*", ETAG));
+    }
+
+    @Test
+    void doesNotMatchOtherTag() {
+        assertFalse(ListNotesHandler.matches(null, ETAG));
+        assertFalse(ListNotesHandler.matches("W/\"43-abc\"", ETAG));
+        assertFalse(ListNotesHandler.matches("\"1-a\", \"2-b\"", ETAG));
+    }
+}
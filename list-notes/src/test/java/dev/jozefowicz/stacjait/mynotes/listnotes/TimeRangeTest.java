@@ -0,0 +1,59 @@
+package dev.jozefowicz.stacjait.mynotes.listnotes;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimeRangeTest {
+
+    @Test
+    void emptyWithoutOptions() {
+        final TimeRange range = TimeRange.of(null, null, null);
+        assertTrue(range.isEmpty());
+        assertFalse(range.isBounded());
+        assertTrue(range.isDescending(true));
+        assertFalse(range.isDescending(false));
+    }
+
+    @Test
+    void parsesBoundsAndOrder() {
+        final TimeRange range = TimeRange.of("100", "200", "asc");
+        assertEquals(Long.valueOf(100), range.getSince());
+        assertEquals(Long.valueOf(200), range.getUntil());
+        assertTrue(range.isBounded());
+        assertFalse(range.isEmpty());
+        assertFalse(range.isDescending(true));
+    }
+
+    @Test
+    void acceptsSingleBound() {
+        assertNull(TimeRange.of("100", null, null).getUntil());
+        assertNull(TimeRange.of(null, "200", "desc").getSince());
+        assertNotNull(TimeRange.of("200", "200", null));
+    }
+
+    @Test
+    void clampsBounds() {
+        final TimeRange range = TimeRange.of("-5", Long.toString(Long.MAX_VALUE), null);
+        assertEquals(Long.valueOf(0), range.getSince());
+        assertEquals(Long.valueOf(Long.MAX_VALUE - 1), range.getUntil());
+    }
+
+    @Test
+    void rejectsInvalidValues() {
+        assertNull(TimeRange.of("abc", null, null));
+        assertNull(TimeRange.of(null, "1.5", null));
+        assertNull(TimeRange.of(null, null, "newest"));
+        assertNull(TimeRange.of("200", "100", null));
+    }
+
+    @Test
+    void scopeDiffersByDirection() {
+        assertNotEquals(TimeRange.of("100", null, "asc").scope(), TimeRange.of("100", null, "desc").scope());
+    }
+}
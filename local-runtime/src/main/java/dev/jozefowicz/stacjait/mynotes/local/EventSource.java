@@ -0,0 +1,88 @@
+package dev.jozefowicz.stacjait.mynotes.local;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Asynchronous trigger of a background function, like an event source mapping with a single concurrent batch.
+ * <p>
+ * Events are queued by the producer and handed to the consumer on a dedicated thread in batches of up to
+ * <code>batchSize</code>, in the order they were added. A failed batch is logged and dropped - locally it's more useful
+ * to see the failure than to have the batch retried forever.
+ */
+public class EventSource<T> {
+
+    private final String name;
+    private final int batchSize;
+    private final Consumer<List<T>> consumer;
+    private final BlockingQueue<T> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger failedBatches = new AtomicInteger();
+
+    public EventSource(String name, int batchSize, Consumer<List<T>> consumer) {
+        this.name = name;
+        this.batchSize = batchSize;
+        this.consumer = consumer;
+        final Thread thread = new Thread(this::poll, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void add(T event) {
+        inFlight.incrementAndGet();
+        queue.add(event);
+    }
+
+    /**
+     * @return events added but not processed yet
+     */
+    public int pending() {
+        return inFlight.get();
+    }
+
+    public int getFailedBatches() {
+        return failedBatches.get();
+    }
+
+    /**
+     * Waits until every event added so far is processed.
+     *
+     * @return <code>false</code> when <code>timeoutMillis</code> passed first
+     */
+    public boolean drain(long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (inFlight.get() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return true;
+    }
+
+    private void poll() {
+        final List<T> batch = new ArrayList<>(batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            try {
+                consumer.accept(batch);
+            } catch (Exception e) {
+                failedBatches.incrementAndGet();
+                System.err.println("[" + name + "] batch of " + batch.size() + " events failed: " + e);
+            } finally {
+                inFlight.addAndGet(-batch.size());
+                batch.clear();
+            }
+        }
+    }
+}
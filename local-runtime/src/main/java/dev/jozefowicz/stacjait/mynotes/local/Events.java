@@ -0,0 +1,124 @@
+package dev.jozefowicz.stacjait.mynotes.local;
+
+import com.amazonaws.services.lambda.runtime.events.DynamodbEvent;
+import com.amazonaws.services.lambda.runtime.events.S3Event;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.amazonaws.services.lambda.runtime.events.models.dynamodb.StreamRecord;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Builds the Lambda events the background functions receive from what the stand-ins observed.
+ */
+final class Events {
+
+    private Events() {
+    }
+
+    static S3EventNotification.S3EventNotificationRecord objectCreated(String region, String bucketName, String key, long size, String eTag, String sequencer) {
+        final String encodedKey;
+        try {
+            // keys arrive URL encoded, like in real notifications
+            encodedKey = URLEncoder.encode(key, "UTF-8").replace("%2F", "/");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        final S3EventNotification.S3Entity s3 = new S3EventNotification.S3Entity(
+                "local",
+                new S3EventNotification.S3BucketEntity(bucketName, null, "arn:aws:s3:::" + bucketName),
+                new S3EventNotification.S3ObjectEntity(encodedKey, size, eTag.replace("\"", ""), null, sequencer),
+                "1.0");
+        return new S3EventNotification.S3EventNotificationRecord(region, "ObjectCreated:Put", "aws:s3", Instant.now().toString(), "2.1",
+                null, null, s3, null);
+    }
+
+    static S3Event s3Event(List<S3EventNotification.S3EventNotificationRecord> records) {
+        return new S3Event(new ArrayList<>(records));
+    }
+
+    static DynamodbEvent.DynamodbStreamRecord streamRecord(Map<String, AttributeValue> oldImage, Map<String, AttributeValue> newImage) {
+        final StreamRecord streamRecord = new StreamRecord();
+        streamRecord.setOldImage(toImage(oldImage));
+        streamRecord.setNewImage(toImage(newImage));
+        streamRecord.setStreamViewType("NEW_AND_OLD_IMAGES");
+        final DynamodbEvent.DynamodbStreamRecord record = new DynamodbEvent.DynamodbStreamRecord();
+        record.setEventName(isNull(oldImage) ? "INSERT" : isNull(newImage) ? "REMOVE" : "MODIFY");
+        record.setEventSource("aws:dynamodb");
+        record.setDynamodb(streamRecord);
+        return record;
+    }
+
+    static DynamodbEvent dynamodbEvent(List<DynamodbEvent.DynamodbStreamRecord> records) {
+        final DynamodbEvent event = new DynamodbEvent();
+        event.setRecords(new ArrayList<>(records));
+        return event;
+    }
+
+    static SQSEvent sqsEvent(List<Map.Entry<String, String>> messages) {
+        final List<SQSEvent.SQSMessage> records = new ArrayList<>(messages.size());
+        for (Map.Entry<String, String> message : messages) {
+            final SQSEvent.SQSMessage record = new SQSEvent.SQSMessage();
+            record.setMessageId(message.getKey());
+            record.setBody(message.getValue());
+            record.setEventSource("aws:sqs");
+            records.add(record);
+        }
+        final SQSEvent event = new SQSEvent();
+        event.setRecords(records);
+        return event;
+    }
+
+    private static Map<String, com.amazonaws.services.lambda.runtime.events.models.dynamodb.AttributeValue> toImage(Map<String, AttributeValue> item) {
+        if (isNull(item)) {
+            return null;
+        }
+        final Map<String, com.amazonaws.services.lambda.runtime.events.models.dynamodb.AttributeValue> image = new HashMap<>();
+        item.forEach((name, value) -> image.put(name, toStreamValue(value)));
+        return image;
+    }
+
+    private static com.amazonaws.services.lambda.runtime.events.models.dynamodb.AttributeValue toStreamValue(AttributeValue value) {
+        final com.amazonaws.services.lambda.runtime.events.models.dynamodb.AttributeValue streamValue = new com.amazonaws.services.lambda.runtime.events.models.dynamodb.AttributeValue();
+        if (nonNull(value.s())) {
+            streamValue.setS(value.s());
+        } else if (nonNull(value.n())) {
+            streamValue.setN(value.n());
+        } else if (value.hasSs()) {
+            streamValue.setSS(value.ss());
+        } else if (value.hasNs()) {
+            streamValue.setNS(value.ns());
+        } else if (nonNull(value.b())) {
+            streamValue.setB(value.b().asByteBuffer());
+        } else if (value.hasBs()) {
+            final List<ByteBuffer> buffers = new ArrayList<>(value.bs().size());
+            for (SdkBytes bytes : value.bs()) {
+                buffers.add(bytes.asByteBuffer());
+            }
+            streamValue.setBS(buffers);
+        } else if (nonNull(value.bool())) {
+            streamValue.setBOOL(value.bool());
+        } else if (value.hasL()) {
+            final List<com.amazonaws.services.lambda.runtime.events.models.dynamodb.AttributeValue> list = new ArrayList<>(value.l().size());
+            value.l().forEach(element -> list.add(toStreamValue(element)));
+            streamValue.setL(list);
+        } else if (value.hasM()) {
+            streamValue.setM(toImage(value.m()));
+        } else {
+            streamValue.setNULL(true);
+        }
+        return streamValue;
+    }
+}
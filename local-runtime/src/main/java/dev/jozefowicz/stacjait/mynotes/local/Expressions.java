@@ -0,0 +1,394 @@
+package dev.jozefowicz.stacjait.mynotes.local;
+
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Evaluates the subset of DynamoDB expressions the handlers use, on top-level attributes only.
+ * <p>
+ * Conditions and key conditions: comparisons (<code>= &lt;&gt; &lt; &lt;= &gt; &gt;=</code>), <code>BETWEEN</code>,
+ * <code>AND</code>, <code>OR</code>, <code>NOT</code>, parentheses, <code>attribute_exists</code>,
+ * <code>attribute_not_exists</code> and <code>begins_with</code>. Updates: <code>SET</code> with <code>+</code>, <code>-</code>
+ * and <code>if_not_exists</code>, and <code>REMOVE</code>. Anything else fails loudly instead of being silently ignored.
+ */
+public final class Expressions {
+
+    private Expressions() {
+    }
+
+    public static boolean matches(String expression, Map<String, String> names, Map<String, AttributeValue> values, Map<String, AttributeValue> item) {
+        if (isNull(expression) || expression.isEmpty()) {
+            return true;
+        }
+        final Parser parser = new Parser(expression, names, values);
+        final Condition condition = parser.condition();
+        parser.expectEnd();
+        return condition.test(isNull(item) ? Collections.emptyMap() : item);
+    }
+
+    /**
+     * @return value a key condition requires <code>attribute</code> to be equal to, <code>null</code> when there is none
+     */
+    public static AttributeValue equalityValue(String expression, Map<String, String> names, Map<String, AttributeValue> values, String attribute) {
+        final Parser parser = new Parser(expression, names, values);
+        final Condition condition = parser.condition();
+        parser.expectEnd();
+        return condition.equalityValue(attribute);
+    }
+
+    /**
+     * @return copy of <code>item</code> with the update applied
+     */
+    public static Map<String, AttributeValue> update(String expression, Map<String, String> names, Map<String, AttributeValue> values, Map<String, AttributeValue> item) {
+        final Map<String, AttributeValue> updated = new HashMap<>(item);
+        final Parser parser = new Parser(expression, names, values);
+        while (!parser.atEnd()) {
+            final String clause = parser.next().toUpperCase();
+            if (clause.equals("SET")) {
+                do {
+                    final String attribute = parser.path();
+                    parser.expect("=");
+                    updated.put(attribute, parser.value().evaluate(item));
+                } while (parser.accept(","));
+            } else if (clause.equals("REMOVE")) {
+                do {
+                    updated.remove(parser.path());
+                } while (parser.accept(","));
+            } else {
+                throw new IllegalArgumentException("Unsupported update clause " + clause + " in " + expression);
+            }
+        }
+        return updated;
+    }
+
+    public static Map<String, AttributeValue> project(String expression, Map<String, String> names, Map<String, AttributeValue> item) {
+        if (isNull(expression) || expression.isEmpty()) {
+            return item;
+        }
+        final Map<String, AttributeValue> projected = new LinkedHashMap<>();
+        for (String path : expression.split(",")) {
+            final String attribute = resolve(path.trim(), names);
+            if (item.containsKey(attribute)) {
+                projected.put(attribute, item.get(attribute));
+            }
+        }
+        return projected;
+    }
+
+    public static int compare(AttributeValue left, AttributeValue right) {
+        if (nonNull(left.n()) && nonNull(right.n())) {
+            return new BigDecimal(left.n()).compareTo(new BigDecimal(right.n()));
+        }
+        if (nonNull(left.s()) && nonNull(right.s())) {
+            return left.s().compareTo(right.s());
+        }
+        if (nonNull(left.b()) && nonNull(right.b())) {
+            return left.b().asByteBuffer().compareTo(right.b().asByteBuffer());
+        }
+        throw new IllegalArgumentException("Values of different types can't be ordered: " + left + ", " + right);
+    }
+
+    private static boolean equal(AttributeValue left, AttributeValue right) {
+        if (nonNull(left.n()) && nonNull(right.n())) {
+            return compare(left, right) == 0;
+        }
+        return left.equals(right);
+    }
+
+    private static String resolve(String path, Map<String, String> names) {
+        if (path.startsWith("#")) {
+            final String name = isNull(names) ? null : names.get(path);
+            if (isNull(name)) {
+                throw new IllegalArgumentException("Undefined attribute name " + path);
+            }
+            return name;
+        }
+        return path;
+    }
+
+    private interface Condition {
+        boolean test(Map<String, AttributeValue> item);
+
+        default AttributeValue equalityValue(String attribute) {
+            return null;
+        }
+    }
+
+    private interface Operand {
+        AttributeValue evaluate(Map<String, AttributeValue> item);
+
+        default String attribute() {
+            return null;
+        }
+    }
+
+    private static final class Parser {
+        private final List<String> tokens;
+        private final Map<String, String> names;
+        private final Map<String, AttributeValue> values;
+        private final String expression;
+        private int position;
+
+        private Parser(String expression, Map<String, String> names, Map<String, AttributeValue> values) {
+            this.expression = expression;
+            this.tokens = tokenize(expression);
+            this.names = names;
+            this.values = values;
+        }
+
+        Condition condition() {
+            Condition condition = conjunction();
+            while (acceptKeyword("OR")) {
+                final Condition left = condition;
+                final Condition right = conjunction();
+                condition = item -> left.test(item) || right.test(item);
+            }
+            return condition;
+        }
+
+        private Condition conjunction() {
+            Condition condition = negation();
+            while (acceptKeyword("AND")) {
+                final Condition left = condition;
+                final Condition right = negation();
+                condition = new Condition() {
+                    @Override
+                    public boolean test(Map<String, AttributeValue> item) {
+                        return left.test(item) && right.test(item);
+                    }
+
+                    @Override
+                    public AttributeValue equalityValue(String attribute) {
+                        final AttributeValue value = left.equalityValue(attribute);
+                        return nonNull(value) ? value : right.equalityValue(attribute);
+                    }
+                };
+            }
+            return condition;
+        }
+
+        private Condition negation() {
+            if (acceptKeyword("NOT")) {
+                final Condition negated = negation();
+                return item -> !negated.test(item);
+            }
+            return primary();
+        }
+
+        private Condition primary() {
+            if (accept("(")) {
+                final Condition condition = condition();
+                expect(")");
+                return condition;
+            }
+            final String token = peek();
+            if (token.equalsIgnoreCase("attribute_exists") || token.equalsIgnoreCase("attribute_not_exists")) {
+                next();
+                expect("(");
+                final String attribute = path();
+                expect(")");
+                final boolean exists = token.equalsIgnoreCase("attribute_exists");
+                return item -> item.containsKey(attribute) == exists;
+            }
+            if (token.equalsIgnoreCase("begins_with")) {
+                next();
+                expect("(");
+                final Operand subject = operand();
+                expect(",");
+                final Operand prefix = operand();
+                expect(")");
+                return item -> {
+                    final AttributeValue value = subject.evaluate(item);
+                    return nonNull(value) && nonNull(value.s()) && value.s().startsWith(prefix.evaluate(item).s());
+                };
+            }
+            final Operand left = operand();
+            if (acceptKeyword("BETWEEN")) {
+                final Operand low = operand();
+                expectKeyword("AND");
+                final Operand high = operand();
+                return item -> {
+                    final AttributeValue value = left.evaluate(item);
+                    return nonNull(value) && compare(value, low.evaluate(item)) >= 0 && compare(value, high.evaluate(item)) <= 0;
+                };
+            }
+            final String comparator = next();
+            final Operand right = operand();
+            return new Condition() {
+                @Override
+                public boolean test(Map<String, AttributeValue> item) {
+                    final AttributeValue a = left.evaluate(item);
+                    final AttributeValue b = right.evaluate(item);
+                    if (isNull(a) || isNull(b)) {
+                        return comparator.equals("<>") && (nonNull(a) || nonNull(b));
+                    }
+                    switch (comparator) {
+                        case "=":
+                            return equal(a, b);
+                        case "<>":
+                            return !equal(a, b);
+                        case "<":
+                            return compare(a, b) < 0;
+                        case "<=":
+                            return compare(a, b) <= 0;
+                        case ">":
+                            return compare(a, b) > 0;
+                        case ">=":
+                            return compare(a, b) >= 0;
+                        default:
+                            throw new IllegalArgumentException("Unsupported comparator " + comparator + " in " + expression);
+                    }
+                }
+
+                @Override
+                public AttributeValue equalityValue(String attribute) {
+                    return comparator.equals("=") && attribute.equals(left.attribute()) ? right.evaluate(Collections.emptyMap()) : null;
+                }
+            };
+        }
+
+        /**
+         * Right-hand side of <code>SET</code> - an operand optionally followed by <code>+</code> or <code>-</code> and another operand.
+         */
+        Operand value() {
+            final Operand left = operand();
+            if (peekIs("+") || peekIs("-")) {
+                final boolean add = next().equals("+");
+                final Operand right = operand();
+                return item -> {
+                    final BigDecimal a = new BigDecimal(left.evaluate(item).n());
+                    final BigDecimal b = new BigDecimal(right.evaluate(item).n());
+                    return AttributeValue.builder().n((add ? a.add(b) : a.subtract(b)).toPlainString()).build();
+                };
+            }
+            return left;
+        }
+
+        private Operand operand() {
+            final String token = next();
+            if (token.startsWith(":")) {
+                final AttributeValue value = isNull(values) ? null : values.get(token);
+                if (isNull(value)) {
+                    throw new IllegalArgumentException("Undefined attribute value " + token);
+                }
+                return item -> value;
+            }
+            if (token.equalsIgnoreCase("if_not_exists")) {
+                expect("(");
+                final String attribute = path();
+                expect(",");
+                final Operand fallback = value();
+                expect(")");
+                return item -> item.containsKey(attribute) ? item.get(attribute) : fallback.evaluate(item);
+            }
+            final String attribute = resolve(token, names);
+            return new Operand() {
+                @Override
+                public AttributeValue evaluate(Map<String, AttributeValue> item) {
+                    return item.get(attribute);
+                }
+
+                @Override
+                public String attribute() {
+                    return attribute;
+                }
+            };
+        }
+
+        String path() {
+            return resolve(next(), names);
+        }
+
+        boolean atEnd() {
+            return position >= tokens.size();
+        }
+
+        void expectEnd() {
+            if (!atEnd()) {
+                throw new IllegalArgumentException("Unexpected " + peek() + " in " + expression);
+            }
+        }
+
+        String next() {
+            if (atEnd()) {
+                throw new IllegalArgumentException("Unexpected end of " + expression);
+            }
+            return tokens.get(position++);
+        }
+
+        private String peek() {
+            return atEnd() ? "" : tokens.get(position);
+        }
+
+        private boolean peekIs(String token) {
+            return peek().equals(token);
+        }
+
+        boolean accept(String token) {
+            if (peekIs(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean acceptKeyword(String keyword) {
+            if (peek().equalsIgnoreCase(keyword)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(String token) {
+            if (!accept(token)) {
+                throw new IllegalArgumentException("Expected " + token + " but got " + peek() + " in " + expression);
+            }
+        }
+
+        private void expectKeyword(String keyword) {
+            if (!acceptKeyword(keyword)) {
+                throw new IllegalArgumentException("Expected " + keyword + " but got " + peek() + " in " + expression);
+            }
+        }
+
+        private static List<String> tokenize(String expression) {
+            final List<String> tokens = new ArrayList<>();
+            int i = 0;
+            while (i < expression.length()) {
+                final char c = expression.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(' || c == ')' || c == ',' || c == '=' || c == '+' || c == '-') {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                } else if (c == '<' || c == '>') {
+                    final boolean twoChars = i + 1 < expression.length() && (expression.charAt(i + 1) == '=' || (c == '<' && expression.charAt(i + 1) == '>'));
+                    tokens.add(expression.substring(i, twoChars ? i + 2 : i + 1));
+                    i += twoChars ? 2 : 1;
+                } else {
+                    int end = i;
+                    while (end < expression.length() && (Character.isLetterOrDigit(expression.charAt(end)) || "#:_.".indexOf(expression.charAt(end)) >= 0)) {
+                        end++;
+                    }
+                    if (end == i) {
+                        throw new IllegalArgumentException("Unexpected character " + c + " in " + expression);
+                    }
+                    tokens.add(expression.substring(i, end));
+                    i = end;
+                }
+            }
+            return tokens;
+        }
+    }
+}
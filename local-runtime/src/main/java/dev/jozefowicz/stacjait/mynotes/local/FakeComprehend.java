@@ -0,0 +1,86 @@
+package dev.jozefowicz.stacjait.mynotes.local;
+
+import software.amazon.awssdk.services.comprehend.ComprehendAsyncClient;
+import software.amazon.awssdk.services.comprehend.model.DetectDominantLanguageRequest;
+import software.amazon.awssdk.services.comprehend.model.DetectDominantLanguageResponse;
+import software.amazon.awssdk.services.comprehend.model.DetectEntitiesRequest;
+import software.amazon.awssdk.services.comprehend.model.DetectEntitiesResponse;
+import software.amazon.awssdk.services.comprehend.model.DominantLanguage;
+import software.amazon.awssdk.services.comprehend.model.Entity;
+import software.amazon.awssdk.services.comprehend.model.EntityType;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Comprehend stand-in - every text is English and its capitalized words are the entities.
+ * <p>
+ * Responses complete on a scheduler after the configured latency, without holding a thread, like the Netty based client.
+ */
+public class FakeComprehend implements ComprehendAsyncClient {
+
+    private static final int MAX_ENTITIES = 10;
+
+    private final Latency latency;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "fake-comprehend");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public FakeComprehend(Latency latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public CompletableFuture<DetectDominantLanguageResponse> detectDominantLanguage(DetectDominantLanguageRequest request) {
+        return delayed(() -> DetectDominantLanguageResponse
+                .builder()
+                .languages(DominantLanguage.builder().languageCode("en").score(0.99f).build())
+                .build());
+    }
+
+    @Override
+    public CompletableFuture<DetectEntitiesResponse> detectEntities(DetectEntitiesRequest request) {
+        return delayed(() -> {
+            final Set<String> words = new LinkedHashSet<>();
+            for (String word : request.text().split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty() && Character.isUpperCase(word.charAt(0)) && words.size() < MAX_ENTITIES) {
+                    words.add(word);
+                }
+            }
+            final List<Entity> entities = new ArrayList<>(words.size());
+            words.forEach(word -> entities.add(Entity.builder().text(word).type(EntityType.OTHER).score(0.9f).build()));
+            return DetectEntitiesResponse.builder().entities(entities).build();
+        });
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private <T> CompletableFuture<T> delayed(Supplier<T> response) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        scheduler.schedule(() -> {
+            try {
+                future.complete(response.get());
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }, latency.millis(Latency.COMPREHEND), TimeUnit.MILLISECONDS);
+        return future;
+    }
+}
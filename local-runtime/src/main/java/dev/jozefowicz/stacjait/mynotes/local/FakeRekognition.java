@@ -0,0 +1,48 @@
+package dev.jozefowicz.stacjait.mynotes.local;
+
+import software.amazon.awssdk.services.rekognition.RekognitionClient;
+import software.amazon.awssdk.services.rekognition.model.DetectLabelsRequest;
+import software.amazon.awssdk.services.rekognition.model.DetectLabelsResponse;
+import software.amazon.awssdk.services.rekognition.model.Label;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Rekognition stand-in returning a stable pick of labels for every image, derived from its key.
+ */
+public class FakeRekognition implements RekognitionClient {
+
+    private static final String[] LABELS = {"Person", "Outdoors", "Nature", "Text", "Document", "Animal", "Building", "Food", "Vehicle", "Plant"};
+    private static final int LABELS_PER_IMAGE = 3;
+
+    private final Latency latency;
+
+    public FakeRekognition(Latency latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public DetectLabelsResponse detectLabels(DetectLabelsRequest request) {
+        latency.await(Latency.REKOGNITION);
+        final String name = nonNull(request.image().s3Object()) ? request.image().s3Object().name() : "";
+        final int first = Math.floorMod(name.hashCode(), LABELS.length);
+        final int count = nonNull(request.maxLabels()) ? Math.min(LABELS_PER_IMAGE, request.maxLabels()) : LABELS_PER_IMAGE;
+        final List<Label> labels = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            labels.add(Label.builder().name(LABELS[(first + i) % LABELS.length]).confidence(90f).build());
+        }
+        return DetectLabelsResponse.builder().labels(labels).build();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,346 @@
+package dev.jozefowicz.stacjait.mynotes.local;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DescribeEndpointsRequest;
+import software.amazon.awssdk.services.dynamodb.model.DescribeEndpointsResponse;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * DynamoDB stand-in keeping items in memory - the operations and expressions the handlers use, nothing more.
+ * <p>
+ * Items of a partition are kept in a skip list ordered by sort key, so queries and conditional writes behave like the
+ * real service: pages end at <code>Limit</code> with a <code>LastEvaluatedKey</code>, local secondary indexes are
+ * read in index order and conditions are checked atomically per partition. Every call waits the configured latency.
+ * Writes are passed to a table's stream listener with the old and new image, like a <code>NEW_AND_OLD_IMAGES</code> stream.
+ */
+public class InMemoryDynamoDb implements DynamoDbClient {
+
+    private static final AttributeValue NO_SORT_KEY = AttributeValue.builder().s("").build();
+
+    private final Map<String, Table> tables = new ConcurrentHashMap<>();
+    private final Latency latency;
+
+    public InMemoryDynamoDb(Latency latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * @param sortKey    <code>null</code> for a table with a partition key only
+     * @param lsiSortKey local secondary indexes by name, given by their sort key
+     */
+    public InMemoryDynamoDb table(String name, String partitionKey, String sortKey, Map<String, String> lsiSortKey) {
+        tables.put(name, new Table(partitionKey, sortKey, lsiSortKey));
+        return this;
+    }
+
+    public InMemoryDynamoDb table(String name, String partitionKey, String sortKey) {
+        return table(name, partitionKey, sortKey, Collections.emptyMap());
+    }
+
+    public void onChange(String tableName, StreamListener listener) {
+        table(tableName).listener = listener;
+    }
+
+    public int itemCount(String tableName) {
+        return table(tableName).partitions.values().stream().mapToInt(Map::size).sum();
+    }
+
+    @Override
+    public GetItemResponse getItem(GetItemRequest request) {
+        latency.await(Latency.DYNAMODB);
+        final Table table = table(request.tableName());
+        final Map<String, AttributeValue> item = table.get(request.key());
+        if (isNull(item)) {
+            return GetItemResponse.builder().build();
+        }
+        return GetItemResponse.builder().item(Expressions.project(request.projectionExpression(), request.expressionAttributeNames(), item)).build();
+    }
+
+    @Override
+    public PutItemResponse putItem(PutItemRequest request) {
+        latency.await(Latency.DYNAMODB);
+        final Table table = table(request.tableName());
+        final Map<String, AttributeValue> old = table.write(request.item(), existing -> {
+            check(request.conditionExpression(), request.expressionAttributeNames(), request.expressionAttributeValues(), existing);
+            return request.item();
+        });
+        return request.returnValues() == ReturnValue.ALL_OLD && nonNull(old) ? PutItemResponse.builder().attributes(old).build() : PutItemResponse.builder().build();
+    }
+
+    @Override
+    public UpdateItemResponse updateItem(UpdateItemRequest request) {
+        latency.await(Latency.DYNAMODB);
+        final Table table = table(request.tableName());
+        final AtomicReference<Map<String, AttributeValue>> updated = new AtomicReference<>();
+        final Map<String, AttributeValue> old = table.write(request.key(), existing -> {
+            check(request.conditionExpression(), request.expressionAttributeNames(), request.expressionAttributeValues(), existing);
+            final Map<String, AttributeValue> item = new HashMap<>(isNull(existing) ? request.key() : existing);
+            updated.set(Expressions.update(request.updateExpression(), request.expressionAttributeNames(), request.expressionAttributeValues(), item));
+            return updated.get();
+        });
+        if (request.returnValues() == ReturnValue.ALL_OLD && nonNull(old)) {
+            return UpdateItemResponse.builder().attributes(old).build();
+        } else if (request.returnValues() == ReturnValue.ALL_NEW) {
+            return UpdateItemResponse.builder().attributes(updated.get()).build();
+        }
+        return UpdateItemResponse.builder().build();
+    }
+
+    @Override
+    public DeleteItemResponse deleteItem(DeleteItemRequest request) {
+        latency.await(Latency.DYNAMODB);
+        final Table table = table(request.tableName());
+        final Map<String, AttributeValue> old = table.write(request.key(), existing -> {
+            check(request.conditionExpression(), request.expressionAttributeNames(), request.expressionAttributeValues(), existing);
+            return null;
+        });
+        return request.returnValues() == ReturnValue.ALL_OLD && nonNull(old) ? DeleteItemResponse.builder().attributes(old).build() : DeleteItemResponse.builder().build();
+    }
+
+    @Override
+    public QueryResponse query(QueryRequest request) {
+        latency.await(Latency.DYNAMODB);
+        final Table table = table(request.tableName());
+        final String rangeKey = isNull(request.indexName()) ? table.sortKey : table.lsiSortKey.get(request.indexName());
+        if (nonNull(request.indexName()) && isNull(rangeKey)) {
+            throw ResourceNotFoundException.builder().message("Index not found: " + request.indexName()).build();
+        } else if (isNull(rangeKey)) {
+            throw validation("Only tables with a sort key can be queried: " + request.tableName());
+        }
+        final AttributeValue partition = Expressions.equalityValue(request.keyConditionExpression(), request.expressionAttributeNames(), request.expressionAttributeValues(), table.partitionKey);
+        if (isNull(partition)) {
+            throw validation("Query key condition must specify the partition key " + table.partitionKey);
+        }
+        final List<Map<String, AttributeValue>> matching = new ArrayList<>();
+        for (Map<String, AttributeValue> item : table.partition(partition).values()) {
+            if (item.containsKey(rangeKey) && Expressions.matches(request.keyConditionExpression(), request.expressionAttributeNames(), request.expressionAttributeValues(), item)) {
+                matching.add(item);
+            }
+        }
+        Comparator<Map<String, AttributeValue>> order = indexOrder(table, rangeKey);
+        if (Boolean.FALSE.equals(request.scanIndexForward())) {
+            order = order.reversed();
+        }
+        matching.sort(order);
+
+        int from = 0;
+        if (nonNull(request.exclusiveStartKey()) && !request.exclusiveStartKey().isEmpty()) {
+            while (from < matching.size() && order.compare(matching.get(from), request.exclusiveStartKey()) <= 0) {
+                from++;
+            }
+        }
+        final int limit = nonNull(request.limit()) ? request.limit() : Integer.MAX_VALUE;
+        final int to = (int) Math.min(matching.size(), (long) from + limit);
+        final List<Map<String, AttributeValue>> items = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            items.add(Expressions.project(request.projectionExpression(), request.expressionAttributeNames(), matching.get(i)));
+        }
+        final QueryResponse.Builder response = QueryResponse.builder().items(items).count(items.size()).scannedCount(items.size());
+        if (to - from == limit) {
+            // like the service, a full page always carries a LastEvaluatedKey even if nothing follows
+            final Map<String, AttributeValue> last = matching.get(to - 1);
+            final Map<String, AttributeValue> lastEvaluatedKey = new HashMap<>(table.key(last));
+            lastEvaluatedKey.put(rangeKey, last.get(rangeKey));
+            response.lastEvaluatedKey(lastEvaluatedKey);
+        }
+        return response.build();
+    }
+
+    @Override
+    public BatchGetItemResponse batchGetItem(BatchGetItemRequest request) {
+        latency.await(Latency.DYNAMODB);
+        final Map<String, List<Map<String, AttributeValue>>> responses = new HashMap<>();
+        for (Map.Entry<String, KeysAndAttributes> entry : request.requestItems().entrySet()) {
+            final Table table = table(entry.getKey());
+            final KeysAndAttributes keysAndAttributes = entry.getValue();
+            final List<Map<String, AttributeValue>> items = new ArrayList<>();
+            for (Map<String, AttributeValue> key : keysAndAttributes.keys()) {
+                final Map<String, AttributeValue> item = table.get(key);
+                if (nonNull(item)) {
+                    items.add(Expressions.project(keysAndAttributes.projectionExpression(), keysAndAttributes.expressionAttributeNames(), item));
+                }
+            }
+            responses.put(entry.getKey(), items);
+        }
+        return BatchGetItemResponse.builder().responses(responses).unprocessedKeys(Collections.emptyMap()).build();
+    }
+
+    @Override
+    public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+        latency.await(Latency.DYNAMODB);
+        for (Map.Entry<String, List<WriteRequest>> entry : request.requestItems().entrySet()) {
+            final Table table = table(entry.getKey());
+            for (WriteRequest writeRequest : entry.getValue()) {
+                if (nonNull(writeRequest.putRequest())) {
+                    table.write(writeRequest.putRequest().item(), existing -> writeRequest.putRequest().item());
+                } else {
+                    table.write(writeRequest.deleteRequest().key(), existing -> null);
+                }
+            }
+        }
+        return BatchWriteItemResponse.builder().unprocessedItems(Collections.emptyMap()).build();
+    }
+
+    @Override
+    public DescribeEndpointsResponse describeEndpoints(DescribeEndpointsRequest request) {
+        return DescribeEndpointsResponse.builder().endpoints(Collections.emptyList()).build();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private Table table(String name) {
+        final Table table = tables.get(name);
+        if (isNull(table)) {
+            throw ResourceNotFoundException.builder().message("Requested resource not found: Table: " + name + " not found").build();
+        }
+        return table;
+    }
+
+    private static void check(String condition, Map<String, String> names, Map<String, AttributeValue> values, Map<String, AttributeValue> existing) {
+        if (!Expressions.matches(condition, names, values, existing)) {
+            throw ConditionalCheckFailedException.builder().message("The conditional request failed").build();
+        }
+    }
+
+    private static Comparator<Map<String, AttributeValue>> indexOrder(Table table, String rangeKey) {
+        final Comparator<Map<String, AttributeValue>> byRangeKey = (a, b) -> Expressions.compare(a.get(rangeKey), b.get(rangeKey));
+        if (rangeKey.equals(table.sortKey)) {
+            return byRangeKey;
+        }
+        // index entries with equal sort keys are ordered by the table sort key
+        return byRangeKey.thenComparing((a, b) -> Expressions.compare(a.get(table.sortKey), b.get(table.sortKey)));
+    }
+
+    private static DynamoDbException validation(String message) {
+        return DynamoDbException.builder().message(message).statusCode(400).build();
+    }
+
+    public interface StreamListener {
+        void changed(Map<String, AttributeValue> oldImage, Map<String, AttributeValue> newImage);
+    }
+
+    private interface Mutation {
+        /**
+         * @return new item, <code>null</code> to delete it
+         */
+        Map<String, AttributeValue> apply(Map<String, AttributeValue> existing);
+    }
+
+    private static final class Table {
+        private final String partitionKey;
+        private final String sortKey;
+        private final Map<String, String> lsiSortKey;
+        private final ConcurrentMap<AttributeValue, ConcurrentSkipListMap<AttributeValue, Map<String, AttributeValue>>> partitions = new ConcurrentHashMap<>();
+        private volatile StreamListener listener;
+
+        private Table(String partitionKey, String sortKey, Map<String, String> lsiSortKey) {
+            this.partitionKey = partitionKey;
+            this.sortKey = sortKey;
+            this.lsiSortKey = new HashMap<>(lsiSortKey);
+        }
+
+        Map<String, AttributeValue> get(Map<String, AttributeValue> key) {
+            return partition(partitionValue(key)).get(sortValue(key));
+        }
+
+        /**
+         * Applies <code>mutation</code> atomically within the item's partition.
+         *
+         * @return item before the write
+         */
+        Map<String, AttributeValue> write(Map<String, AttributeValue> keyOrItem, Mutation mutation) {
+            final ConcurrentSkipListMap<AttributeValue, Map<String, AttributeValue>> partition = partition(partitionValue(keyOrItem));
+            final AttributeValue sortValue = sortValue(keyOrItem);
+            final Map<String, AttributeValue> old;
+            final Map<String, AttributeValue> updated;
+            synchronized (partition) {
+                old = partition.get(sortValue);
+                updated = mutation.apply(old);
+                if (isNull(updated)) {
+                    partition.remove(sortValue);
+                } else {
+                    partition.put(sortValue, Collections.unmodifiableMap(new HashMap<>(updated)));
+                }
+                final StreamListener streamListener = listener;
+                if (nonNull(streamListener) && (nonNull(old) || nonNull(updated))) {
+                    // inside the lock, so changes of one item reach the stream in order
+                    streamListener.changed(old, updated);
+                }
+            }
+            return old;
+        }
+
+        ConcurrentSkipListMap<AttributeValue, Map<String, AttributeValue>> partition(AttributeValue partitionValue) {
+            return partitions.computeIfAbsent(partitionValue, value -> new ConcurrentSkipListMap<>(Expressions::compare));
+        }
+
+        Map<String, AttributeValue> key(Map<String, AttributeValue> item) {
+            final Map<String, AttributeValue> key = new HashMap<>();
+            key.put(partitionKey, item.get(partitionKey));
+            if (nonNull(sortKey)) {
+                key.put(sortKey, item.get(sortKey));
+            }
+            return key;
+        }
+
+        private AttributeValue partitionValue(Map<String, AttributeValue> key) {
+            final AttributeValue value = key.get(partitionKey);
+            if (isNull(value)) {
+                throw validation("Missing the key " + partitionKey + " in the item");
+            }
+            return value;
+        }
+
+        private AttributeValue sortValue(Map<String, AttributeValue> key) {
+            if (isNull(sortKey)) {
+                return NO_SORT_KEY;
+            }
+            final AttributeValue value = key.get(sortKey);
+            if (isNull(value)) {
+                throw validation("Missing the key " + sortKey + " in the item");
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package dev.jozefowicz.stacjait.mynotes.local;
+
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.DeletedObject;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListPartsRequest;
+import software.amazon.awssdk.services.s3.model.ListPartsResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.Part;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * S3 stand-in keeping objects in memory, for a single configured bucket.
+ * <p>
+ * Supports what the handlers call - single and multipart writes, ranged reads and deletes - plus {@link #uploadPart}
+ * and {@link #put} for uploads coming through presigned URLs. Every object created by a put or a completed multipart
+ * upload is announced to the listener, like an <code>s3:ObjectCreated:*</code> notification. Every call waits the
+ * configured latency.
+ */
+public class InMemoryS3 implements S3Client {
+
+    private final String bucketName;
+    private final Latency latency;
+    private final Map<String, StoredObject> objects = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<Integer, StoredObject>> uploads = new ConcurrentHashMap<>();
+    private final AtomicLong sequencer = new AtomicLong();
+    private volatile ObjectCreatedListener listener;
+
+    public InMemoryS3(String bucketName, Latency latency) {
+        this.bucketName = bucketName;
+        this.latency = latency;
+    }
+
+    public void onObjectCreated(ObjectCreatedListener listener) {
+        this.listener = listener;
+    }
+
+    public int objectCount() {
+        return objects.size();
+    }
+
+    /**
+     * Stores an object uploaded with a presigned <code>PUT</code> URL.
+     */
+    public String put(String bucket, String key, String contentType, byte[] content) {
+        latency.await(Latency.S3);
+        checkBucket(bucket);
+        return store(key, new StoredObject(content, contentType));
+    }
+
+    /**
+     * Stores a part uploaded with a presigned <code>UploadPart</code> URL.
+     *
+     * @return ETag of the part
+     */
+    public String uploadPart(String bucket, String key, String uploadId, int partNumber, byte[] content) {
+        latency.await(Latency.S3);
+        checkBucket(bucket);
+        final StoredObject part = new StoredObject(content, null);
+        upload(key, uploadId).put(partNumber, part);
+        return part.eTag;
+    }
+
+    /**
+     * @return <code>null</code> when there's no such object
+     */
+    public StoredObject object(String bucket, String key) {
+        latency.await(Latency.S3);
+        checkBucket(bucket);
+        return objects.get(key);
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest request, RequestBody requestBody) {
+        latency.await(Latency.S3);
+        checkBucket(request.bucket());
+        final byte[] content;
+        try (InputStream input = requestBody.contentStreamProvider().newStream()) {
+            content = readAll(input);
+        } catch (IOException e) {
+            throw SdkClientException.create("Unable to read request body", e);
+        }
+        final String eTag = store(request.key(), new StoredObject(content, request.contentType()));
+        return PutObjectResponse.builder().eTag(eTag).build();
+    }
+
+    @Override
+    public <ReturnT> ReturnT getObject(GetObjectRequest request, ResponseTransformer<GetObjectResponse, ReturnT> responseTransformer) {
+        latency.await(Latency.S3);
+        checkBucket(request.bucket());
+        final StoredObject object = objects.get(request.key());
+        if (isNull(object)) {
+            throw NoSuchKeyException.builder().message("The specified key does not exist.").statusCode(404).build();
+        }
+        int from = 0;
+        int to = object.content.length;
+        if (nonNull(request.range())) {
+            // bytes=first-last, bytes=first- or bytes=-suffixLength
+            final String[] range = request.range().replace("bytes=", "").split("-", -1);
+            if (range[0].isEmpty()) {
+                from = (int) Math.max(0, object.content.length - Long.parseLong(range[1]));
+            } else {
+                from = (int) Math.min(Long.parseLong(range[0]), object.content.length);
+                to = range[1].isEmpty() ? object.content.length : (int) Math.min(Long.parseLong(range[1]) + 1, object.content.length);
+            }
+        }
+        final GetObjectResponse response = GetObjectResponse
+                .builder()
+                .eTag(object.eTag)
+                .contentType(object.contentType)
+                .contentLength((long) (to - from))
+                .contentRange(nonNull(request.range()) ? "bytes " + from + "-" + (to - 1) + "/" + object.content.length : null)
+                .lastModified(object.lastModified)
+                .build();
+        try {
+            return responseTransformer.transform(response, AbortableInputStream.create(new ByteArrayInputStream(object.content, from, to - from)));
+        } catch (Exception e) {
+            throw SdkClientException.create("Unable to transform response", e);
+        }
+    }
+
+    @Override
+    public ResponseBytes<GetObjectResponse> getObjectAsBytes(GetObjectRequest request) {
+        return getObject(request, ResponseTransformer.toBytes());
+    }
+
+    @Override
+    public DeleteObjectResponse deleteObject(DeleteObjectRequest request) {
+        latency.await(Latency.S3);
+        checkBucket(request.bucket());
+        objects.remove(request.key());
+        return DeleteObjectResponse.builder().build();
+    }
+
+    @Override
+    public DeleteObjectsResponse deleteObjects(DeleteObjectsRequest request) {
+        latency.await(Latency.S3);
+        checkBucket(request.bucket());
+        final List<DeletedObject> deleted = new ArrayList<>();
+        for (ObjectIdentifier identifier : request.delete().objects()) {
+            objects.remove(identifier.key());
+            deleted.add(DeletedObject.builder().key(identifier.key()).build());
+        }
+        return DeleteObjectsResponse.builder().deleted(deleted).build();
+    }
+
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+        latency.await(Latency.S3);
+        checkBucket(request.bucket());
+        final String uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadKey(request.key(), uploadId), new ConcurrentSkipListMap<>());
+        return CreateMultipartUploadResponse.builder().bucket(request.bucket()).key(request.key()).uploadId(uploadId).build();
+    }
+
+    @Override
+    public ListPartsResponse listParts(ListPartsRequest request) {
+        latency.await(Latency.S3);
+        checkBucket(request.bucket());
+        final int maxParts = nonNull(request.maxParts()) ? request.maxParts() : 1000;
+        final int marker = nonNull(request.partNumberMarker()) ? request.partNumberMarker() : 0;
+        final List<Part> parts = new ArrayList<>();
+        Integer nextMarker = null;
+        for (Map.Entry<Integer, StoredObject> part : upload(request.key(), request.uploadId()).tailMap(marker, false).entrySet()) {
+            if (parts.size() == maxParts) {
+                nextMarker = parts.get(parts.size() - 1).partNumber();
+                break;
+            }
+            parts.add(Part.builder().partNumber(part.getKey()).eTag(part.getValue().eTag).size((long) part.getValue().content.length).build());
+        }
+        return ListPartsResponse
+                .builder()
+                .bucket(request.bucket())
+                .key(request.key())
+                .uploadId(request.uploadId())
+                .parts(parts)
+                .isTruncated(nonNull(nextMarker))
+                .nextPartNumberMarker(nextMarker)
+                .build();
+    }
+
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        latency.await(Latency.S3);
+        checkBucket(request.bucket());
+        final Map<Integer, StoredObject> parts = upload(request.key(), request.uploadId());
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (CompletedPart completed : request.multipartUpload().parts()) {
+            final StoredObject part = parts.get(completed.partNumber());
+            if (isNull(part) || !part.eTag.equals(completed.eTag())) {
+                throw S3Exception.builder().message("One or more of the specified parts could not be found.").statusCode(400).build();
+            }
+            content.write(part.content, 0, part.content.length);
+        }
+        uploads.remove(uploadKey(request.key(), request.uploadId()));
+        final String eTag = store(request.key(), new StoredObject(content.toByteArray(), null));
+        return CompleteMultipartUploadResponse.builder().bucket(request.bucket()).key(request.key()).eTag(eTag).build();
+    }
+
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+        latency.await(Latency.S3);
+        checkBucket(request.bucket());
+        if (isNull(uploads.remove(uploadKey(request.key(), request.uploadId())))) {
+            throw noSuchUpload();
+        }
+        return AbortMultipartUploadResponse.builder().build();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private String store(String key, StoredObject object) {
+        objects.put(key, object);
+        final ObjectCreatedListener objectCreatedListener = listener;
+        if (nonNull(objectCreatedListener)) {
+            objectCreatedListener.created(bucketName, key, object.content.length, object.eTag, String.format("%016X", sequencer.incrementAndGet()));
+        }
+        return object.eTag;
+    }
+
+    private ConcurrentSkipListMap<Integer, StoredObject> upload(String key, String uploadId) {
+        final ConcurrentSkipListMap<Integer, StoredObject> parts = uploads.get(uploadKey(key, uploadId));
+        if (isNull(parts)) {
+            throw noSuchUpload();
+        }
+        return parts;
+    }
+
+    private void checkBucket(String bucket) {
+        if (!bucketName.equals(bucket)) {
+            throw S3Exception.builder().message("Unknown bucket " + bucket).statusCode(404).build();
+        }
+    }
+
+    private static NoSuchUploadException noSuchUpload() {
+        return NoSuchUploadException.builder().message("The specified upload does not exist.").statusCode(404).build();
+    }
+
+    private static String uploadKey(String key, String uploadId) {
+        return key + "?" + uploadId;
+    }
+
+    static byte[] readAll(InputStream input) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    public interface ObjectCreatedListener {
+        void created(String bucketName, String key, long size, String eTag, String sequencer);
+    }
+
+    public static final class StoredObject {
+        private final byte[] content;
+        private final String contentType;
+        private final String eTag;
+        private final Instant lastModified = Instant.now();
+
+        private StoredObject(byte[] content, String contentType) {
+            this.content = content;
+            this.contentType = contentType;
+            this.eTag = "\"" + md5(content) + "\"";
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        private static String md5(byte[] content) {
+            try {
+                final StringBuilder hex = new StringBuilder(32);
+                for (byte b : MessageDigest.getInstance("MD5").digest(content)) {
+                    hex.append(String.format("%02x", b));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
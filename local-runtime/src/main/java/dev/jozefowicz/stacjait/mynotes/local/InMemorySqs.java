@@ -0,0 +1,81 @@
+package dev.jozefowicz.stacjait.mynotes.local;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * SQS stand-in handing every sent batch straight to the consumer, like an event source mapping with no batching window.
+ * The consumer is expected to return quickly and process messages on its own threads.
+ */
+public class InMemorySqs implements SqsClient {
+
+    private final Latency latency;
+    private volatile Consumer consumer;
+
+    public InMemorySqs(Latency latency) {
+        this.latency = latency;
+    }
+
+    public void onMessages(Consumer consumer) {
+        this.consumer = consumer;
+    }
+
+    @Override
+    public SendMessageResponse sendMessage(SendMessageRequest request) {
+        latency.await(Latency.SQS);
+        final String messageId = UUID.randomUUID().toString();
+        deliver(Collections.singletonMap(messageId, request.messageBody()));
+        return SendMessageResponse.builder().messageId(messageId).build();
+    }
+
+    @Override
+    public SendMessageBatchResponse sendMessageBatch(SendMessageBatchRequest request) {
+        latency.await(Latency.SQS);
+        final Map<String, String> messages = new LinkedHashMap<>();
+        final List<SendMessageBatchResultEntry> successful = new ArrayList<>(request.entries().size());
+        for (SendMessageBatchRequestEntry entry : request.entries()) {
+            final String messageId = UUID.randomUUID().toString();
+            messages.put(messageId, entry.messageBody());
+            successful.add(SendMessageBatchResultEntry.builder().id(entry.id()).messageId(messageId).build());
+        }
+        deliver(messages);
+        return SendMessageBatchResponse.builder().successful(successful).failed(Collections.emptyList()).build();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void deliver(Map<String, String> messages) {
+        final Consumer messageConsumer = consumer;
+        if (nonNull(messageConsumer)) {
+            messageConsumer.received(messages);
+        }
+    }
+
+    public interface Consumer {
+        /**
+         * @param messages bodies by message id, in send order
+         */
+        void received(Map<String, String> messages);
+    }
+}
@@ -0,0 +1,75 @@
+package dev.jozefowicz.stacjait.mynotes.local;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Simulated service latency - a fixed base plus uniformly distributed jitter, per service.
+ * <p>
+ * Parsed from <code>service=base[+jitter],...</code> in milliseconds, e.g. <code>dynamodb=4+2,s3=20+10,comprehend=80</code>.
+ * Services not listed respond immediately.
+ */
+public final class Latency {
+
+    public static final String DYNAMODB = "dynamodb";
+    public static final String S3 = "s3";
+    public static final String COMPREHEND = "comprehend";
+    public static final String REKOGNITION = "rekognition";
+    public static final String SQS = "sqs";
+
+    private final Map<String, long[]> delays;
+
+    private Latency(Map<String, long[]> delays) {
+        this.delays = delays;
+    }
+
+    public static Latency none() {
+        return new Latency(Collections.emptyMap());
+    }
+
+    public static Latency parse(String value) {
+        if (isNull(value) || value.trim().isEmpty()) {
+            return none();
+        }
+        final Map<String, long[]> delays = new HashMap<>();
+        for (String entry : value.split(",")) {
+            final String[] serviceDelay = entry.trim().split("=");
+            if (serviceDelay.length != 2) {
+                throw new IllegalArgumentException("Invalid latency " + entry + ", expected service=base[+jitter]");
+            }
+            final String[] baseJitter = serviceDelay[1].split("\\+");
+            final long base = Long.parseLong(baseJitter[0].trim());
+            final long jitter = baseJitter.length > 1 ? Long.parseLong(baseJitter[1].trim()) : 0;
+            delays.put(serviceDelay[0].trim().toLowerCase(), new long[]{base, jitter});
+        }
+        return new Latency(delays);
+    }
+
+    public long millis(String service) {
+        final long[] delay = delays.get(service);
+        if (isNull(delay)) {
+            return 0;
+        }
+        return delay[0] + (delay[1] > 0 ? ThreadLocalRandom.current().nextLong(delay[1] + 1) : 0);
+    }
+
+    /**
+     * Blocks the calling thread, like a synchronous SDK call waiting for the response.
+     */
+    public void await(String service) {
+        final long millis = millis(service);
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package dev.jozefowicz.stacjait.mynotes.local;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Drives the API functions in-process and reports throughput and latency percentiles per route.
+ * <p>
+ * <code>java -cp local-runtime.jar dev.jozefowicz.stacjait.mynotes.local.LoadGenerator [--requests traffic.jsonl]
+ * [--threads 8] [--warmup 10] [--duration 30] [--users 20] [--notes 50] [--latency dynamodb=5+3,s3=20+10]</code>
+ * <p>
+ * With <code>--requests</code>, <code>APIGatewayProxyRequestEvent</code> JSON documents (one per line, e.g. captured from
+ * CloudWatch logs) are replayed round-robin. Otherwise every user gets <code>--notes</code> notes and a read-heavy mix of
+ * listing, reading, creating, updating, searching and syncing is generated. Each thread is its own set of Lambda
+ * containers, so cold starts fall into the warmup. Only the handler invocation is timed - request building and
+ * HTTP are left out, which makes results comparable between runs rather than with production numbers.
+ */
+public final class LoadGenerator {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final String[] WORDS = {"Meeting", "notes", "about", "Project", "Apollo", "budget", "review", "with", "Anna", "and", "Tom",
+            "in", "Krakow", "next", "Monday", "shopping", "list", "milk", "bread", "ideas", "for", "Conference", "talk", "Java", "Lambda"};
+
+    private final Router router;
+    private final Traffic traffic;
+    private final int threads;
+
+    private LoadGenerator(Router router, Traffic traffic, int threads) {
+        this.router = router;
+        this.traffic = traffic;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final LocalRuntime.Arguments arguments = LocalRuntime.Arguments.parse(args);
+        final int threads = arguments.intValue("threads", 8);
+        final int warmupSeconds = arguments.intValue("warmup", 10);
+        final int durationSeconds = arguments.intValue("duration", 30);
+        final LocalServices services = LocalServices.start(Latency.parse(arguments.value("latency")), URI.create("http://localhost:8080/s3"), arguments.flag("verbose"));
+
+        final Traffic traffic = nonNull(arguments.value("requests"))
+                ? Replay.of(arguments.value("requests"))
+                : Mix.seed(services.getRouter(), arguments.intValue("users", 20), arguments.intValue("notes", 50));
+        final LoadGenerator generator = new LoadGenerator(services.getRouter(), traffic, threads);
+
+        System.out.println("Warming up for " + warmupSeconds + " s with " + threads + " threads");
+        generator.run(TimeUnit.SECONDS.toNanos(warmupSeconds));
+        System.out.println("Measuring for " + durationSeconds + " s");
+        final Map<String, Samples> results = generator.run(TimeUnit.SECONDS.toNanos(durationSeconds));
+        report(results, durationSeconds);
+
+        if (!services.drain(TimeUnit.SECONDS.toMillis(60))) {
+            System.out.println("Background functions still busy after 60 s");
+        }
+        System.out.println("Notes stored: " + services.getDynamoDb().itemCount(LocalServices.NOTES_TABLE)
+                + ", objects stored: " + services.getS3().objectCount()
+                + ", failed background batches: " + services.getFailedBackgroundBatches());
+        System.exit(0);
+    }
+
+    /**
+     * @return samples by route
+     */
+    private Map<String, Samples> run(long durationNanos) throws InterruptedException {
+        final Map<String, Samples> merged = new ConcurrentHashMap<>();
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long deadline = System.nanoTime() + durationNanos;
+        for (int i = 0; i < threads; i++) {
+            final Thread thread = new Thread(() -> {
+                final Map<String, Samples> samples = new TreeMap<>();
+                try {
+                    while (System.nanoTime() < deadline) {
+                        final APIGatewayProxyRequestEvent request = traffic.next();
+                        final String route = router.routeOf(request);
+                        final long start = System.nanoTime();
+                        final APIGatewayProxyResponseEvent response = router.handle(request);
+                        final long elapsed = System.nanoTime() - start;
+                        samples.computeIfAbsent(isNull(route) ? "unrouted" : route, name -> new Samples()).add(elapsed, response.getStatusCode());
+                        traffic.observe(request, response);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    samples.forEach((route, routeSamples) -> merged.merge(route, routeSamples, Samples::merge));
+                    done.countDown();
+                }
+            }, "load-" + i);
+            thread.start();
+        }
+        done.await();
+        return merged;
+    }
+
+    private static void report(Map<String, Samples> results, int durationSeconds) {
+        final Samples total = new Samples();
+        System.out.println(String.format("%-22s %9s %9s %9s %9s %9s %9s %9s %6s %6s", "route", "requests", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "4xx", "5xx"));
+        for (Map.Entry<String, Samples> route : new TreeMap<>(results).entrySet()) {
+            System.out.println(route.getValue().summary(route.getKey(), durationSeconds));
+            total.merge(route.getValue());
+        }
+        System.out.println(total.summary("total", durationSeconds));
+    }
+
+    /**
+     * Latencies and status counts of one route, kept in a growable array and sorted once for the report.
+     */
+    private static final class Samples {
+        private long[] nanos = new long[1024];
+        private int size;
+        private long clientErrors;
+        private long serverErrors;
+
+        void add(long elapsedNanos, Integer statusCode) {
+            if (size == nanos.length) {
+                nanos = Arrays.copyOf(nanos, size * 2);
+            }
+            nanos[size++] = elapsedNanos;
+            if (nonNull(statusCode) && statusCode >= 500) {
+                serverErrors++;
+            } else if (nonNull(statusCode) && statusCode >= 400) {
+                clientErrors++;
+            }
+        }
+
+        Samples merge(Samples other) {
+            if (size + other.size > nanos.length) {
+                nanos = Arrays.copyOf(nanos, size + other.size);
+            }
+            System.arraycopy(other.nanos, 0, nanos, size, other.size);
+            size += other.size;
+            clientErrors += other.clientErrors;
+            serverErrors += other.serverErrors;
+            return this;
+        }
+
+        String summary(String name, int durationSeconds) {
+            Arrays.sort(nanos, 0, size);
+            return String.format("%-22s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %6d %6d", name, size, (double) size / durationSeconds,
+                    percentile(0.5), percentile(0.9), percentile(0.99), percentile(0.999), size > 0 ? nanos[size - 1] / 1e6 : 0.0, clientErrors, serverErrors);
+        }
+
+        private double percentile(double percentile) {
+            if (size == 0) {
+                return 0;
+            }
+            final int index = (int) Math.ceil(percentile * size) - 1;
+            return nanos[Math.max(0, Math.min(size - 1, index))] / 1e6;
+        }
+    }
+
+    private interface Traffic {
+        APIGatewayProxyRequestEvent next() throws IOException;
+
+        default void observe(APIGatewayProxyRequestEvent request, APIGatewayProxyResponseEvent response) throws IOException {
+        }
+    }
+
+    /**
+     * Recorded events replayed in order, each one deserialized anew since handling fills in the request.
+     */
+    private static final class Replay implements Traffic {
+        private final List<String> events;
+        private final AtomicLong position = new AtomicLong();
+
+        private Replay(List<String> events) {
+            this.events = events;
+        }
+
+        static Replay of(String file) throws IOException {
+            final List<String> events = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)
+                    .stream()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty())
+                    .collect(Collectors.toList());
+            if (events.isEmpty()) {
+                throw new IllegalArgumentException("No requests in " + file);
+            }
+            return new Replay(events);
+        }
+
+        @Override
+        public APIGatewayProxyRequestEvent next() throws IOException {
+            final String event = events.get((int) (position.getAndIncrement() % events.size()));
+            return OBJECT_MAPPER.readValue(event, APIGatewayProxyRequestEvent.class);
+        }
+    }
+
+    /**
+     * Synthetic read-heavy traffic of a fixed user population.
+     */
+    private static final class Mix implements Traffic {
+        private final List<String> users;
+        private final Map<String, List<String>> noteIds;
+
+        private Mix(List<String> users, Map<String, List<String>> noteIds) {
+            this.users = users;
+            this.noteIds = noteIds;
+        }
+
+        static Mix seed(Router router, int users, int notesPerUser) throws IOException {
+            final List<String> userIds = new ArrayList<>(users);
+            final Map<String, List<String>> noteIds = new ConcurrentHashMap<>();
+            for (int user = 0; user < users; user++) {
+                final String userId = "user-" + user;
+                userIds.add(userId);
+                noteIds.put(userId, Collections.synchronizedList(new ArrayList<>()));
+                for (int created = 0; created < notesPerUser; created += 25) {
+                    final List<Map<String, String>> notes = new ArrayList<>();
+                    for (int i = created; i < Math.min(notesPerUser, created + 25); i++) {
+                        notes.add(note());
+                    }
+                    final APIGatewayProxyResponseEvent response = router.handle(request("POST", "/notes/batch", userId, OBJECT_MAPPER.writeValueAsString(notes)));
+                    if (response.getStatusCode() != 200) {
+                        throw new IllegalStateException("Seeding notes of " + userId + " failed with " + response.getStatusCode());
+                    }
+                    for (JsonNode result : OBJECT_MAPPER.readTree(response.getBody())) {
+                        if (result.path("status").asInt() == 200) {
+                            noteIds.get(userId).add(result.path("noteId").asText());
+                        }
+                    }
+                }
+            }
+            System.out.println("Seeded " + users + " users with " + notesPerUser + " notes each");
+            return new Mix(userIds, noteIds);
+        }
+
+        @Override
+        public APIGatewayProxyRequestEvent next() throws IOException {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final String userId = users.get(random.nextInt(users.size()));
+            final List<String> ids = noteIds.get(userId);
+            final String noteId = ids.isEmpty() ? "missing" : ids.get(random.nextInt(ids.size()));
+            final int pick = random.nextInt(100);
+            if (pick < 40) {
+                return request("GET", "/notes", userId, null, "limit", "20");
+            } else if (pick < 60) {
+                return request("GET", "/notes/" + noteId, userId, null);
+            } else if (pick < 70) {
+                return request("GET", "/search", userId, null, "q", WORDS[random.nextInt(WORDS.length)].toLowerCase());
+            } else if (pick < 75) {
+                return request("GET", "/notes/sync", userId, null, "since", Long.toString(System.currentTimeMillis() - 60_000));
+            } else if (pick < 90) {
+                return request("POST", "/notes/batch", userId, OBJECT_MAPPER.writeValueAsString(Collections.singletonList(note())));
+            } else {
+                return request("PATCH", "/notes/" + noteId, userId, OBJECT_MAPPER.writeValueAsString(Collections.singletonMap("title", sentence(3))));
+            }
+        }
+
+        @Override
+        public void observe(APIGatewayProxyRequestEvent request, APIGatewayProxyResponseEvent response) throws IOException {
+            // created notes join the pool, so reads and updates also hit fresh items
+            if ("/notes/batch".equals(request.getPath()) && nonNull(response.getStatusCode()) && response.getStatusCode() == 200) {
+                final String userId = ((Map<String, String>) request.getRequestContext().getAuthorizer().get("claims")).get("cognito:username");
+                for (JsonNode result : OBJECT_MAPPER.readTree(response.getBody())) {
+                    if (result.path("status").asInt() == 200) {
+                        noteIds.get(userId).add(result.path("noteId").asText());
+                    }
+                }
+            }
+        }
+
+        private static Map<String, String> note() {
+            final Map<String, String> note = new TreeMap<>();
+            note.put("title", sentence(4));
+            note.put("text", sentence(20 + ThreadLocalRandom.current().nextInt(200)));
+            return note;
+        }
+
+        private static String sentence(int words) {
+            final StringBuilder sentence = new StringBuilder();
+            for (int i = 0; i < words; i++) {
+                if (i > 0) {
+                    sentence.append(' ');
+                }
+                sentence.append(WORDS[ThreadLocalRandom.current().nextInt(WORDS.length)]);
+            }
+            return sentence.toString();
+        }
+
+        private static APIGatewayProxyRequestEvent request(String method, String path, String userId, String body, String... query) {
+            final APIGatewayProxyRequestEvent request = new APIGatewayProxyRequestEvent();
+            request.setHttpMethod(method);
+            request.setPath(path);
+            request.setHeaders(Collections.singletonMap(Router.USER_HEADER, userId));
+            request.setBody(body);
+            if (query.length > 0) {
+                final Map<String, String> parameters = new TreeMap<>();
+                for (int i = 0; i + 1 < query.length; i += 2) {
+                    parameters.put(query[i], query[i + 1]);
+                }
+                request.setQueryStringParameters(parameters);
+            }
+            return request;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package dev.jozefowicz.stacjait.mynotes.local;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Lambda context of a local invocation. Log lines go to stdout prefixed with the function name, or nowhere when
+ * <code>verbose</code> is off - under load, handler logging would otherwise be what gets measured.
+ */
+public class LocalContext implements Context {
+
+    private static final int TIMEOUT_MILLIS = 30_000;
+
+    private final String functionName;
+    private final String requestId = UUID.randomUUID().toString();
+    private final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    private final LambdaLogger logger;
+
+    public LocalContext(String functionName, boolean verbose) {
+        this.functionName = functionName;
+        this.logger = verbose ? new StdoutLogger(functionName) : SilentLogger.INSTANCE;
+    }
+
+    @Override
+    public String getAwsRequestId() {
+        return requestId;
+    }
+
+    @Override
+    public String getLogGroupName() {
+        return "/aws/lambda/" + functionName;
+    }
+
+    @Override
+    public String getLogStreamName() {
+        return "local";
+    }
+
+    @Override
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    @Override
+    public String getFunctionVersion() {
+        return "$LATEST";
+    }
+
+    @Override
+    public String getInvokedFunctionArn() {
+        return "arn:aws:lambda:local:000000000000:function:" + functionName;
+    }
+
+    @Override
+    public CognitoIdentity getIdentity() {
+        return null;
+    }
+
+    @Override
+    public ClientContext getClientContext() {
+        return null;
+    }
+
+    @Override
+    public int getRemainingTimeInMillis() {
+        return (int) Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    @Override
+    public int getMemoryLimitInMB() {
+        return (int) (Runtime.getRuntime().maxMemory() / (1024 * 1024));
+    }
+
+    @Override
+    public LambdaLogger getLogger() {
+        return logger;
+    }
+
+    private static final class StdoutLogger implements LambdaLogger {
+        private final String prefix;
+
+        private StdoutLogger(String functionName) {
+            this.prefix = "[" + functionName + "] ";
+        }
+
+        @Override
+        public void log(String message) {
+            System.out.println(prefix + message);
+        }
+
+        @Override
+        public void log(byte[] message) {
+            log(new String(message, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static final class SilentLogger implements LambdaLogger {
+        private static final SilentLogger INSTANCE = new SilentLogger();
+
+        @Override
+        public void log(String message) {
+        }
+
+        @Override
+        public void log(byte[] message) {
+        }
+    }
+}
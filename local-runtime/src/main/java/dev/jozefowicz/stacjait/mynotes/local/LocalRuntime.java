@@ -0,0 +1,200 @@
+package dev.jozefowicz.stacjait.mynotes.local;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Runs the API functions in-process behind an HTTP server, with AWS replaced by in-memory stand-ins.
+ * <p>
+ * <code>java -jar local-runtime.jar [--port 8080] [--threads 16] [--latency dynamodb=5+3,s3=20+10] [--verbose]</code>
+ * <p>
+ * Requests are served like API Gateway would (see {@link Router} for the routes), the caller is taken from the
+ * <code>X-User</code> header. Presigned URLs handed out by the functions point back at <code>/s3/</code> on this
+ * server, which accepts uploads (single and multipart parts) and downloads without checking signatures.
+ */
+public final class LocalRuntime {
+
+    private static final String S3_PATH = "/s3/";
+
+    private final LocalServices services;
+
+    private LocalRuntime(LocalServices services) {
+        this.services = services;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Arguments arguments = Arguments.parse(args);
+        final int port = arguments.intValue("port", 8080);
+        final int threads = arguments.intValue("threads", 16);
+        final Latency latency = Latency.parse(arguments.value("latency"));
+        final LocalServices services = LocalServices.start(latency, URI.create("http://localhost:" + port + "/s3"), arguments.flag("verbose"));
+
+        final LocalRuntime runtime = new LocalRuntime(services);
+        final HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", runtime::handle);
+        server.setExecutor(Executors.newFixedThreadPool(threads));
+        server.start();
+        System.out.println("Local runtime listening on http://localhost:" + port + " with " + threads + " threads");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (exchange.getRequestURI().getPath().startsWith(S3_PATH)) {
+                handleS3(exchange);
+            } else {
+                handleApi(exchange);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            send(exchange, 500, null, null);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleApi(HttpExchange exchange) throws IOException {
+        final APIGatewayProxyRequestEvent request = new APIGatewayProxyRequestEvent();
+        request.setHttpMethod(exchange.getRequestMethod());
+        request.setPath(exchange.getRequestURI().getPath());
+        request.setQueryStringParameters(query(exchange.getRequestURI().getRawQuery()));
+        final Map<String, String> headers = new HashMap<>();
+        exchange.getRequestHeaders().forEach((name, values) -> headers.put(name, values.get(0)));
+        request.setHeaders(headers);
+        final byte[] body = read(exchange.getRequestBody());
+        request.setBody(body.length > 0 ? new String(body, StandardCharsets.UTF_8) : null);
+
+        final APIGatewayProxyResponseEvent response = services.getRouter().handle(request);
+        send(exchange, response.getStatusCode(), response.getHeaders(), nonNull(response.getBody()) ? response.getBody().getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    /**
+     * Path style requests: <code>/s3/{bucket}/{key}</code>.
+     */
+    private void handleS3(HttpExchange exchange) throws IOException {
+        final String path = exchange.getRequestURI().getPath().substring(S3_PATH.length());
+        final int slash = path.indexOf('/');
+        if (slash <= 0) {
+            send(exchange, 400, null, null);
+            return;
+        }
+        final String bucket = path.substring(0, slash);
+        final String key = path.substring(slash + 1);
+        final Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+        final Map<String, String> headers = new HashMap<>();
+        switch (exchange.getRequestMethod().toUpperCase()) {
+            case "PUT": {
+                final byte[] content = read(exchange.getRequestBody());
+                final String eTag = nonNull(query) && query.containsKey("uploadId")
+                        ? services.getS3().uploadPart(bucket, key, query.get("uploadId"), Integer.parseInt(query.get("partNumber")), content)
+                        : services.getS3().put(bucket, key, exchange.getRequestHeaders().getFirst("Content-Type"), content);
+                headers.put("ETag", eTag);
+                send(exchange, 200, headers, null);
+                return;
+            }
+            case "GET": {
+                final InMemoryS3.StoredObject object = services.getS3().object(bucket, key);
+                if (isNull(object)) {
+                    send(exchange, 404, null, null);
+                    return;
+                }
+                headers.put("ETag", object.getETag());
+                if (nonNull(object.getContentType())) {
+                    headers.put("Content-Type", object.getContentType());
+                }
+                send(exchange, 200, headers, object.getContent());
+                return;
+            }
+            default:
+                send(exchange, 405, null, null);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int statusCode, Map<String, String> headers, byte[] body) throws IOException {
+        if (nonNull(headers)) {
+            headers.forEach((name, value) -> exchange.getResponseHeaders().set(name, value));
+        }
+        final boolean empty = isNull(body) || body.length == 0;
+        exchange.sendResponseHeaders(statusCode, empty ? -1 : body.length);
+        if (!empty) {
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+
+    private static Map<String, String> query(String rawQuery) throws UnsupportedEncodingException {
+        if (isNull(rawQuery) || rawQuery.isEmpty()) {
+            return null;
+        }
+        final Map<String, String> parameters = new HashMap<>();
+        for (String parameter : rawQuery.split("&")) {
+            final int equals = parameter.indexOf('=');
+            final String name = URLDecoder.decode(equals < 0 ? parameter : parameter.substring(0, equals), "UTF-8");
+            final String value = equals < 0 ? "" : URLDecoder.decode(parameter.substring(equals + 1), "UTF-8");
+            parameters.put(name, value);
+        }
+        return parameters;
+    }
+
+    private static byte[] read(InputStream input) throws IOException {
+        try (InputStream body = input) {
+            return InMemoryS3.readAll(body);
+        }
+    }
+
+    /**
+     * <code>--name value</code> options and <code>--flag</code> switches.
+     */
+    static final class Arguments {
+        private final Map<String, String> values;
+
+        private Arguments(Map<String, String> values) {
+            this.values = values;
+        }
+
+        static Arguments parse(String[] args) {
+            final Map<String, String> values = new HashMap<>();
+            for (int i = 0; i < args.length; i++) {
+                if (!args[i].startsWith("--")) {
+                    throw new IllegalArgumentException("Unexpected argument " + args[i]);
+                }
+                final String name = args[i].substring(2);
+                if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                    values.put(name, args[++i]);
+                } else {
+                    values.put(name, "true");
+                }
+            }
+            return new Arguments(values);
+        }
+
+        String value(String name) {
+            return values.get(name);
+        }
+
+        int intValue(String name, int defaultValue) {
+            return values.containsKey(name) ? Integer.parseInt(values.get(name)) : defaultValue;
+        }
+
+        boolean flag(String name) {
+            return "true".equalsIgnoreCase(values.get(name));
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package dev.jozefowicz.stacjait.mynotes.local;
+
+import com.amazonaws.services.lambda.runtime.events.DynamodbEvent;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import dev.jozefowicz.stacjait.mynotes.common.Clients;
+import dev.jozefowicz.stacjait.mynotes.common.Environment;
+import dev.jozefowicz.stacjait.mynotes.createnote.CreateNoteHandler;
+import dev.jozefowicz.stacjait.mynotes.createnote.EnrichNoteHandler;
+import dev.jozefowicz.stacjait.mynotes.deletenote.DeleteNoteHandler;
+import dev.jozefowicz.stacjait.mynotes.fileupload.FileUploadHandler;
+import dev.jozefowicz.stacjait.mynotes.labelindex.LabelIndexHandler;
+import dev.jozefowicz.stacjait.mynotes.listnotes.ListNotesHandler;
+import dev.jozefowicz.stacjait.mynotes.listnotes.SyncNotesHandler;
+import dev.jozefowicz.stacjait.mynotes.processfile.ProcessFileHandler;
+import dev.jozefowicz.stacjait.mynotes.searchnotes.SearchNotesHandler;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.comprehend.ComprehendAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.rekognition.RekognitionClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.sqs.SqsClient;
+
+import java.net.URI;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Wires the handlers to the in-memory stand-ins.
+ * <p>
+ * Configuration and clients are overridden before any handler class is loaded. Table and bucket names always point at
+ * the stand-ins; every other setting (<code>ENRICHMENT_MODE</code>, cache sizes, thresholds, ...) is read from the
+ * process environment as in Lambda. Writes to the notes table feed the label index function, objects created in
+ * the bucket feed process-file and sent enrichment requests feed enrich-note, each on its own background thread.
+ */
+public final class LocalServices {
+
+    public static final String REGION = "eu-west-1";
+    public static final String BUCKET_NAME = "my-notes-local";
+    public static final String NOTES_TABLE = "notes";
+    public static final String TIMESTAMP_INDEX = "timestamp-index";
+    public static final String SEARCH_INDEX_TABLE = "search-index";
+    public static final String LABEL_INDEX_TABLE = "label-index";
+    public static final String TOMBSTONE_TABLE = "tombstones";
+    public static final String LABELS_CACHE_TABLE = "labels-cache";
+    public static final String DEDUP_TABLE = "processed-events";
+    public static final String USER_STATE_TABLE = "user-state";
+    public static final String LIST_CACHE_TABLE = "list-cache";
+    private static final String ENRICHMENT_QUEUE_URL = "https://sqs." + REGION + ".amazonaws.com/000000000000/enrichment";
+
+    private final InMemoryDynamoDb dynamoDb;
+    private final InMemoryS3 s3;
+    private final Router router;
+    private final EventSource<DynamodbEvent.DynamodbStreamRecord> notesStream;
+    private final EventSource<S3EventNotification.S3EventNotificationRecord> bucketNotifications;
+    private final EventSource<Map.Entry<String, String>> enrichmentQueue;
+
+    private LocalServices(Latency latency, URI s3Endpoint, boolean verbose) {
+        configure();
+
+        dynamoDb = new InMemoryDynamoDb(latency)
+                .table(NOTES_TABLE, "userId", "noteId", Collections.singletonMap(TIMESTAMP_INDEX, "timestamp"))
+                .table(SEARCH_INDEX_TABLE, "userId", "noteId")
+                .table(LABEL_INDEX_TABLE, "userLabel", "sortKey")
+                .table(TOMBSTONE_TABLE, "userId", "sortKey")
+                .table(LABELS_CACHE_TABLE, "textHash", null)
+                .table(DEDUP_TABLE, "id", null)
+                .table(USER_STATE_TABLE, "userId", null)
+                .table(LIST_CACHE_TABLE, "cacheKey", null);
+        s3 = new InMemoryS3(BUCKET_NAME, latency);
+        final InMemorySqs sqs = new InMemorySqs(latency);
+        Clients.override(DynamoDbClient.class, dynamoDb);
+        Clients.override(S3Client.class, s3);
+        Clients.override(SqsClient.class, sqs);
+        Clients.override(ComprehendAsyncClient.class, new FakeComprehend(latency));
+        Clients.override(RekognitionClient.class, new FakeRekognition(latency));
+        // the real presigner, signing with dummy credentials for the local endpoint
+        Clients.override(S3Presigner.class, S3Presigner
+                .builder()
+                .region(Region.of(REGION))
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("local", "local")))
+                .endpointOverride(s3Endpoint)
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+                .build());
+
+        final LabelIndexHandler labelIndexHandler = new LabelIndexHandler();
+        notesStream = new EventSource<>("label-index", 100,
+                records -> labelIndexHandler.handleRequest(Events.dynamodbEvent(records), new LocalContext("label-index", verbose)));
+        dynamoDb.onChange(NOTES_TABLE, (oldImage, newImage) -> notesStream.add(Events.streamRecord(oldImage, newImage)));
+
+        final ProcessFileHandler processFileHandler = new ProcessFileHandler();
+        bucketNotifications = new EventSource<>("process-file", 10,
+                records -> processFileHandler.handleRequest(Events.s3Event(records), new LocalContext("process-file", verbose)));
+        s3.onObjectCreated((bucketName, key, size, eTag, sequencer) -> bucketNotifications.add(Events.objectCreated(REGION, bucketName, key, size, eTag, sequencer)));
+
+        final EnrichNoteHandler enrichNoteHandler = new EnrichNoteHandler();
+        enrichmentQueue = new EventSource<>("enrich-note", 10,
+                messages -> {
+                    final int failures = enrichNoteHandler.handleRequest(Events.sqsEvent(messages), new LocalContext("enrich-note", verbose)).getBatchItemFailures().size();
+                    if (failures > 0) {
+                        throw new IllegalStateException(failures + " of " + messages.size() + " enrichment requests failed");
+                    }
+                });
+        sqs.onMessages(messages -> messages.forEach((id, body) -> enrichmentQueue.add(new AbstractMap.SimpleImmutableEntry<>(id, body))));
+
+        router = new Router(verbose)
+                .route("GET", "/notes/sync", "sync-notes", SyncNotesHandler::new)
+                .route("GET", "/notes", "list-notes", ListNotesHandler::new)
+                .route("GET", "/notes/{id}", "list-notes", ListNotesHandler::new)
+                .route("POST", "/notes/batch", "create-note", CreateNoteHandler::new)
+                .route("POST", "/notes", "create-note", CreateNoteHandler::new)
+                .route("PUT", "/notes/{id}", "create-note", CreateNoteHandler::new)
+                .route("PATCH", "/notes/{id}", "create-note", CreateNoteHandler::new)
+                .route("DELETE", "/notes/batch", "delete-note", DeleteNoteHandler::new)
+                .route("DELETE", "/notes/{id}", "delete-note", DeleteNoteHandler::new)
+                .route("GET", "/search", "search-notes", SearchNotesHandler::new)
+                .route("POST", "/files/multipart", "file-upload", FileUploadHandler::new)
+                .route("POST", "/files", "file-upload", FileUploadHandler::new)
+                .route("GET", "/files/{id}", "file-upload", FileUploadHandler::new);
+    }
+
+    /**
+     * @param s3Endpoint where presigned URLs point to
+     */
+    public static LocalServices start(Latency latency, URI s3Endpoint, boolean verbose) {
+        return new LocalServices(latency, s3Endpoint, verbose);
+    }
+
+    private static void configure() {
+        Environment.override("AWS_REGION", REGION);
+        Environment.override("WARM_UP", "false");
+        Environment.override("BUCKET_NAME", BUCKET_NAME);
+        Environment.override("TABLE_NAME", NOTES_TABLE);
+        Environment.override("TIMESTAMP_INDEX_NAME", TIMESTAMP_INDEX);
+        Environment.override("SEARCH_INDEX_TABLE", SEARCH_INDEX_TABLE);
+        Environment.override("LABEL_INDEX_TABLE", LABEL_INDEX_TABLE);
+        Environment.override("TOMBSTONE_TABLE", TOMBSTONE_TABLE);
+        Environment.override("LABELS_CACHE_TABLE", LABELS_CACHE_TABLE);
+        Environment.override("DEDUP_TABLE", DEDUP_TABLE);
+        Environment.override("USER_STATE_TABLE", USER_STATE_TABLE);
+        Environment.override("LIST_CACHE_TABLE", LIST_CACHE_TABLE);
+        Environment.override("ENRICHMENT_QUEUE_URL", ENRICHMENT_QUEUE_URL);
+        // the fakes bypass the SDK pipeline, so only handler level metrics would be written - one stdout line per request
+        if (isNull(Environment.get("METRICS"))) {
+            Environment.override("METRICS", "false");
+        }
+        if (isNull(Environment.get("CURSOR_SECRET"))) {
+            Environment.override("CURSOR_SECRET", "local-cursor-secret");
+        }
+    }
+
+    public Router getRouter() {
+        return router;
+    }
+
+    public InMemoryS3 getS3() {
+        return s3;
+    }
+
+    public InMemoryDynamoDb getDynamoDb() {
+        return dynamoDb;
+    }
+
+    /**
+     * Waits for background functions to catch up with everything triggered so far. Functions trigger each other
+     * (an upload writes a note, which feeds the label index), so sources are drained until all of them are idle.
+     *
+     * @return <code>false</code> when <code>timeoutMillis</code> passed first
+     */
+    public boolean drain(long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        do {
+            final long remaining = Math.max(0, deadline - System.currentTimeMillis());
+            if (!bucketNotifications.drain(remaining) || !enrichmentQueue.drain(remaining) || !notesStream.drain(remaining)) {
+                return false;
+            }
+        } while (bucketNotifications.pending() + enrichmentQueue.pending() + notesStream.pending() > 0);
+        return true;
+    }
+
+    public int getFailedBackgroundBatches() {
+        return notesStream.getFailedBatches() + bucketNotifications.getFailedBatches() + enrichmentQueue.getFailedBatches();
+    }
+}
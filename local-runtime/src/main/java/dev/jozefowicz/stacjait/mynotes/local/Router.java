@@ -0,0 +1,146 @@
+package dev.jozefowicz.stacjait.mynotes.local;
+
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static dev.jozefowicz.stacjait.mynotes.common.APIGatewayProxyResponseEventBuilder.response;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * API Gateway stand-in - matches a request to a route, fills in what the proxy integration and the Cognito authorizer
+ * would (resource, path parameters, claims) and invokes the function.
+ * <p>
+ * Each calling thread gets its own handler instance per function, created on first use, the way every concurrent request
+ * is served by a separate Lambda container. Routes registered with the same function name share the instances. Routes are matched in registration order, so literal paths
+ * (<code>/notes/batch</code>) have to be added before templates (<code>/notes/{id}</code>).
+ */
+public class Router {
+
+    public static final String USER_HEADER = "X-User";
+    public static final String DEFAULT_USER = "local-user";
+
+    private final List<Route> routes = new ArrayList<>();
+    private final Map<String, ThreadLocal<RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent>>> functions = new HashMap<>();
+    private final boolean verbose;
+
+    public Router(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    public Router route(String method, String resource, String functionName, Supplier<? extends RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent>> handler) {
+        final ThreadLocal<RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent>> containers =
+                functions.computeIfAbsent(functionName, name -> ThreadLocal.withInitial(handler));
+        routes.add(new Route(method.toUpperCase(), resource, functionName, containers));
+        return this;
+    }
+
+    /**
+     * @return route the request was matched to as <code>METHOD /resource</code>, <code>null</code> when there is none
+     */
+    public String routeOf(APIGatewayProxyRequestEvent request) {
+        final Route route = match(request);
+        return nonNull(route) ? route.method + " " + route.resource : null;
+    }
+
+    public APIGatewayProxyResponseEvent handle(APIGatewayProxyRequestEvent request) {
+        final Route route = match(request);
+        if (isNull(route)) {
+            return response(404, null);
+        }
+        request.setResource(route.resource);
+        final Map<String, String> pathParameters = route.pathParameters(path(request));
+        // API Gateway sends null rather than an empty map for resources without parameters
+        request.setPathParameters(pathParameters.isEmpty() ? null : pathParameters);
+        authorize(request);
+        return route.containers.get().handleRequest(request, new LocalContext(route.functionName, verbose));
+    }
+
+    private Route match(APIGatewayProxyRequestEvent request) {
+        final String method = isNull(request.getHttpMethod()) ? "" : request.getHttpMethod().toUpperCase();
+        final String path = path(request);
+        for (Route route : routes) {
+            if (route.method.equals(method) && nonNull(route.pathParameters(path))) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    private static String path(APIGatewayProxyRequestEvent request) {
+        return nonNull(request.getPath()) ? request.getPath() : request.getResource();
+    }
+
+    /**
+     * Adds Cognito claims unless the recorded event already carries them, with the user taken from {@link #USER_HEADER}.
+     */
+    private static void authorize(APIGatewayProxyRequestEvent request) {
+        if (isNull(request.getRequestContext())) {
+            request.setRequestContext(new APIGatewayProxyRequestEvent.ProxyRequestContext());
+        }
+        final Map<String, Object> authorizer = request.getRequestContext().getAuthorizer();
+        if (nonNull(authorizer) && authorizer.containsKey("claims")) {
+            return;
+        }
+        String userId = DEFAULT_USER;
+        if (nonNull(request.getHeaders())) {
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                if (header.getKey().equalsIgnoreCase(USER_HEADER) && nonNull(header.getValue()) && !header.getValue().isEmpty()) {
+                    userId = header.getValue();
+                }
+            }
+        }
+        final Map<String, Object> claims = new HashMap<>();
+        claims.put("claims", Collections.singletonMap("cognito:username", userId));
+        request.getRequestContext().setAuthorizer(claims);
+    }
+
+    private static final class Route {
+        private final String method;
+        private final String resource;
+        private final String[] segments;
+        private final String functionName;
+        private final ThreadLocal<RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent>> containers;
+
+        private Route(String method, String resource, String functionName, ThreadLocal<RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent>> containers) {
+            this.method = method;
+            this.resource = resource;
+            this.segments = resource.split("/");
+            this.functionName = functionName;
+            this.containers = containers;
+        }
+
+        /**
+         * @return path parameters, <code>null</code> when the path doesn't match
+         */
+        private Map<String, String> pathParameters(String path) {
+            if (isNull(path)) {
+                return null;
+            }
+            final String[] pathSegments = path.split("/");
+            if (pathSegments.length != segments.length) {
+                return null;
+            }
+            Map<String, String> parameters = null;
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i].startsWith("{") && segments[i].endsWith("}") && !pathSegments[i].isEmpty()) {
+                    if (isNull(parameters)) {
+                        parameters = new HashMap<>();
+                    }
+                    parameters.put(segments[i].substring(1, segments[i].length() - 1), pathSegments[i]);
+                } else if (!segments[i].equals(pathSegments[i])) {
+                    return null;
+                }
+            }
+            return isNull(parameters) ? Collections.emptyMap() : parameters;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package dev.jozefowicz.stacjait.mynotes.processfile;
+
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import dev.jozefowicz.stacjait.mynotes.common.BatchWriter;
+import dev.jozefowicz.stacjait.mynotes.common.PersistedNote;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Turns a batch of S3 event records into notes concurrently and persists them with as few DynamoDB round trips as possible.
+ * <p>
+ * A failing record never stops the batch - every record ends up either written or reported in {@link BatchResult#getFailures()}.
+ */
+public class BatchProcessor {
+
+    private final ExecutorService executor;
+    private final BatchWriter batchWriter;
+
+    public BatchProcessor(ExecutorService executor, BatchWriter batchWriter) {
+        this.executor = executor;
+        this.batchWriter = batchWriter;
+    }
+
+    public BatchResult process(List<S3EventNotification.S3EventNotificationRecord> records,
+                               Function<S3EventNotification.S3EventNotificationRecord, PersistedNote> toNote,
+                               Function<PersistedNote, Map<String, AttributeValue>> toItem) throws InterruptedException {
+        final List<Future<PersistedNote>> analyses = new ArrayList<>(records.size());
+        for (S3EventNotification.S3EventNotificationRecord record : records) {
+            analyses.add(executor.submit(() -> toNote.apply(record)));
+        }
+
+        final Map<String, String> failures = new LinkedHashMap<>();
+        // keyed by note so a notification delivered twice within one batch does not fail BatchWriteItem with duplicate keys
+        final Map<String, WriteRequest> writes = new LinkedHashMap<>();
+        final Map<String, PersistedNote> notes = new LinkedHashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            final String objectKey = records.get(i).getS3().getObject().getUrlDecodedKey();
+            try {
+                final PersistedNote note = analyses.get(i).get();
+                if (isNull(note)) {
+                    continue;
+                }
+                notes.put(note.getUserId() + "/" + note.getNoteId(), note);
+                writes.put(note.getUserId() + "/" + note.getNoteId(), WriteRequest
+                        .builder()
+                        .putRequest(PutRequest.builder().item(toItem.apply(note)).build())
+                        .build());
+            } catch (ExecutionException e) {
+                failures.put(objectKey, String.valueOf(e.getCause()));
+            }
+        }
+
+        for (WriteRequest failed : batchWriter.write(new ArrayList<>(writes.values()))) {
+            final Map<String, AttributeValue> item = failed.putRequest().item();
+            notes.remove(item.get("userId").s() + "/" + item.get("noteId").s());
+            failures.put(item.get("s3Location").s(), "DynamoDB write failed");
+        }
+        return new BatchResult(records.size(), failures, new ArrayList<>(notes.values()));
+    }
+}
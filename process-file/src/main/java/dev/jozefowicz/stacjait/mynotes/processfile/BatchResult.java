@@ -0,0 +1,41 @@
+package dev.jozefowicz.stacjait.mynotes.processfile;
+
+import dev.jozefowicz.stacjait.mynotes.common.PersistedNote;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class BatchResult {
+    private final int records;
+    private final Map<String, String> failures;
+    private final List<PersistedNote> written;
+
+    public BatchResult(int records, Map<String, String> failures, List<PersistedNote> written) {
+        this.records = records;
+        this.failures = Collections.unmodifiableMap(failures);
+        this.written = Collections.unmodifiableList(written);
+    }
+
+    public int getRecords() {
+        return records;
+    }
+
+    /**
+     * @return failure reason by S3 object key
+     */
+    public Map<String, String> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return notes persisted in the table
+     */
+    public List<PersistedNote> getWritten() {
+        return written;
+    }
+
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+}
@@ -0,0 +1,113 @@
+package dev.jozefowicz.stacjait.mynotes.processfile;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Drops redelivered S3 notifications before the paid analysis runs.
+ * <p>
+ * An object version is identified by its key and ETag (the sequencer for events without one). Processing starts with a
+ * conditional put of a claim, which fails when the version was already processed or another invocation holds a live lease.
+ * The claim is marked done once the note is written, or deleted when processing failed so the retry starts from scratch.
+ * Leases expire after <code>leaseSeconds</code> in case an invocation dies mid-way. Records are removed through the
+ * <code>expiresAt</code> TTL attribute after <code>retentionHours</code>, well past the redelivery window of S3 events.
+ * <p>
+ * The table is mandatory - a batch with a failed record is retried as a whole, and only the claims keep the records which
+ * succeeded from being analysed and written again.
+ */
+public class EventDeduplicator {
+
+    public static final String ID = "id";
+    public static final String STATUS = "status";
+    public static final String LEASE_UNTIL = "leaseUntil";
+    public static final String EXPIRES_AT = "expiresAt";
+    private static final String IN_PROGRESS = "IN_PROGRESS";
+    private static final String DONE = "DONE";
+
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final long leaseMillis;
+    private final long retentionMillis;
+
+    /**
+     * @throws IllegalStateException when <code>tableName</code> is missing, so a misconfigured function fails on its first invocation
+     */
+    public EventDeduplicator(DynamoDbClient dynamoDbClient, String tableName, int leaseSeconds, int retentionHours) {
+        if (isNull(tableName) || tableName.isEmpty()) {
+            throw new IllegalStateException("DEDUP_TABLE is not configured, retried batches would reprocess their records");
+        }
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.leaseMillis = TimeUnit.SECONDS.toMillis(leaseSeconds);
+        this.retentionMillis = TimeUnit.HOURS.toMillis(retentionHours);
+    }
+
+    public static String id(String bucketName, String key, String eTag, String sequencer) {
+        return bucketName + "/" + key + "#" + (nonNull(eTag) ? eTag : sequencer);
+    }
+
+    /**
+     * @return <code>true</code> when the caller should process the event, <code>false</code> for a duplicate
+     */
+    public boolean claim(String id, long now) {
+        final Map<String, AttributeValue> item = new HashMap<>();
+        item.put(ID, AttributeValue.builder().s(id).build());
+        item.put(STATUS, AttributeValue.builder().s(IN_PROGRESS).build());
+        item.put(LEASE_UNTIL, AttributeValue.builder().n(Long.toString(now + leaseMillis)).build());
+        item.put(EXPIRES_AT, AttributeValue.builder().n(Long.toString(TimeUnit.MILLISECONDS.toSeconds(now + retentionMillis))).build());
+        final Map<String, String> attributeNames = new HashMap<>();
+        attributeNames.put("#id", ID);
+        attributeNames.put("#status", STATUS);
+        attributeNames.put("#leaseUntil", LEASE_UNTIL);
+        final Map<String, AttributeValue> attributeValues = new HashMap<>();
+        attributeValues.put(":inProgress", AttributeValue.builder().s(IN_PROGRESS).build());
+        attributeValues.put(":now", AttributeValue.builder().n(Long.toString(now)).build());
+        try {
+            dynamoDbClient.putItem(PutItemRequest
+                    .builder()
+                    .tableName(tableName)
+                    .item(item)
+                    .conditionExpression("attribute_not_exists(#id) OR (#status = :inProgress AND #leaseUntil < :now)")
+                    .expressionAttributeNames(attributeNames)
+                    .expressionAttributeValues(attributeValues)
+                    .build());
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    public void complete(String id) {
+        final Map<String, String> attributeNames = new HashMap<>();
+        attributeNames.put("#status", STATUS);
+        attributeNames.put("#leaseUntil", LEASE_UNTIL);
+        dynamoDbClient.updateItem(UpdateItemRequest
+                .builder()
+                .tableName(tableName)
+                .key(key(id))
+                .updateExpression("SET #status = :done REMOVE #leaseUntil")
+                .expressionAttributeNames(attributeNames)
+                .expressionAttributeValues(Collections.singletonMap(":done", AttributeValue.builder().s(DONE).build()))
+                .build());
+    }
+
+    public void release(String id) {
+        dynamoDbClient.deleteItem(DeleteItemRequest.builder().tableName(tableName).key(key(id)).build());
+    }
+
+    private static Map<String, AttributeValue> key(String id) {
+        return Collections.singletonMap(ID, AttributeValue.builder().s(id).build());
+    }
+}
@@ -0,0 +1,194 @@
+package dev.jozefowicz.stacjait.mynotes.processfile;
+
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import dev.jozefowicz.stacjait.mynotes.common.Metrics;
+import dev.jozefowicz.stacjait.mynotes.common.NoteType;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Decides what an uploaded file is from its content rather than its name.
+ * <p>
+ * The format is sniffed from the magic bytes in the first {@value #SNIFF_BYTES} bytes of the object, read with a ranged GET,
+ * so a document renamed to <code>.jpg</code> never costs a Rekognition call and a WebP or TIFF is still an image.
+ * The extension (a plain lookup, no regex) is only the fallback when the object can't be read.
+ */
+public class FileTypeClassifier {
+
+    public static final int SNIFF_BYTES = 256;
+
+    private static final Map<String, Format> EXTENSIONS = new HashMap<>();
+
+    static {
+        EXTENSIONS.put("jpg", Format.JPEG);
+        EXTENSIONS.put("jpeg", Format.JPEG);
+        EXTENSIONS.put("jpe", Format.JPEG);
+        EXTENSIONS.put("png", Format.PNG);
+        EXTENSIONS.put("gif", Format.GIF);
+        EXTENSIONS.put("bmp", Format.BMP);
+        EXTENSIONS.put("webp", Format.WEBP);
+        EXTENSIONS.put("tif", Format.TIFF);
+        EXTENSIONS.put("tiff", Format.TIFF);
+        EXTENSIONS.put("heic", Format.HEIC);
+        EXTENSIONS.put("heif", Format.HEIC);
+        EXTENSIONS.put("avif", Format.AVIF);
+    }
+
+    public enum Format {
+        JPEG(true, true),
+        PNG(true, true),
+        GIF(false, true),
+        BMP(false, true),
+        WEBP(false, false),
+        TIFF(false, false),
+        HEIC(false, false),
+        AVIF(false, false),
+        /**
+         * Anything that isn't a known image format.
+         */
+        OTHER(false, false);
+
+        private final boolean analyzable;
+        private final boolean decodable;
+
+        Format(boolean analyzable, boolean decodable) {
+            this.analyzable = analyzable;
+            this.decodable = decodable;
+        }
+
+        public NoteType noteType() {
+            return this == OTHER ? NoteType.FILE : NoteType.IMAGE;
+        }
+
+        /**
+         * Rekognition only detects labels in JPEG and PNG images.
+         */
+        public boolean isAnalyzable() {
+            return analyzable;
+        }
+
+        /**
+         * Formats every Java runtime's ImageIO can read, so thumbnails can be generated.
+         */
+        public boolean isDecodable() {
+            return decodable;
+        }
+    }
+
+    private final S3Client s3Client;
+
+    public FileTypeClassifier(S3Client s3Client) {
+        this.s3Client = s3Client;
+    }
+
+    /**
+     * @param size object size from the event, empty objects are never read
+     */
+    public Format classify(String bucketName, String key, String fileName, Long size, LambdaLogger logger) {
+        if (nonNull(size) && size == 0) {
+            return Format.OTHER;
+        }
+        final Format byName = byName(fileName);
+        final Format byContent;
+        try {
+            byContent = sniff(s3Client.getObjectAsBytes(GetObjectRequest
+                    .builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .range("bytes=0-" + (SNIFF_BYTES - 1))
+                    .build()).asByteArray());
+        } catch (SdkException e) {
+            logger.log("Unable to read the header of " + key + ", classifying by name: " + e.getMessage());
+            return byName;
+        }
+        if (byContent != byName) {
+            Metrics.current().count("FileType.Mismatches", 1);
+        }
+        return byContent;
+    }
+
+    public static Format byName(String fileName) {
+        final int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot == fileName.length() - 1) {
+            return Format.OTHER;
+        }
+        final Format format = EXTENSIONS.get(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return isNull(format) ? Format.OTHER : format;
+    }
+
+    public static Format sniff(byte[] header) {
+        if (startsWith(header, 0, 0xFF, 0xD8, 0xFF)) {
+            return Format.JPEG;
+        } else if (startsWith(header, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return Format.PNG;
+        } else if (startsWith(header, 0, 'G', 'I', 'F', '8') && header.length >= 6 && (header[4] == '7' || header[4] == '9') && header[5] == 'a') {
+            return Format.GIF;
+        } else if (startsWith(header, 0, 'B', 'M') && isDibHeaderSize(header)) {
+            return Format.BMP;
+        } else if (startsWith(header, 0, 'R', 'I', 'F', 'F') && startsWith(header, 8, 'W', 'E', 'B', 'P')) {
+            return Format.WEBP;
+        } else if (startsWith(header, 0, 'I', 'I', '*', 0) || startsWith(header, 0, 'M', 'M', 0, '*')) {
+            return Format.TIFF;
+        } else if (startsWith(header, 4, 'f', 't', 'y', 'p') && header.length >= 12) {
+            // ISO base media file - the major brand tells HEIF images from videos
+            final String brand = new String(header, 8, 4, StandardCharsets.US_ASCII);
+            switch (brand) {
+                case "heic":
+                case "heix":
+                case "hevc":
+                case "hevx":
+                case "mif1":
+                case "msf1":
+                    return Format.HEIC;
+                case "avif":
+                case "avis":
+                    return Format.AVIF;
+                default:
+                    return Format.OTHER;
+            }
+        }
+        return Format.OTHER;
+    }
+
+    /**
+     * "BM" alone is a common start of text files, a bitmap also has a known DIB header size at offset 14.
+     */
+    private static boolean isDibHeaderSize(byte[] header) {
+        if (header.length < 18) {
+            return false;
+        }
+        final int size = (header[14] & 0xFF) | (header[15] & 0xFF) << 8 | (header[16] & 0xFF) << 16 | (header[17] & 0xFF) << 24;
+        switch (size) {
+            case 12:
+            case 40:
+            case 52:
+            case 56:
+            case 108:
+            case 124:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean startsWith(byte[] header, int offset, int... magic) {
+        if (header.length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((header[offset + i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
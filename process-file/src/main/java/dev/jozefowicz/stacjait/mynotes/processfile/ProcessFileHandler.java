@@ -1,13 +1,19 @@
 package dev.jozefowicz.stacjait.mynotes.processfile;
 
 import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
-import com.amazonaws.services.s3.event.S3EventNotification;
-import dev.jozefowicz.stacjait.mynotes.common.NoteType;
+import com.amazonaws.services.lambda.runtime.events.S3Event;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import dev.jozefowicz.stacjait.mynotes.common.BatchWriter;
+import dev.jozefowicz.stacjait.mynotes.common.Clients;
+import dev.jozefowicz.stacjait.mynotes.common.Environment;
+import dev.jozefowicz.stacjait.mynotes.common.ListVersions;
+import dev.jozefowicz.stacjait.mynotes.common.Metrics;
+import dev.jozefowicz.stacjait.mynotes.common.NoteItemCodec;
 import dev.jozefowicz.stacjait.mynotes.common.PersistedNote;
+import dev.jozefowicz.stacjait.mynotes.common.SearchIndex;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
-import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
-import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
 import software.amazon.awssdk.services.rekognition.RekognitionClient;
 import software.amazon.awssdk.services.rekognition.model.DetectLabelsRequest;
 import software.amazon.awssdk.services.rekognition.model.DetectLabelsResponse;
@@ -15,45 +21,167 @@ import software.amazon.awssdk.services.rekognition.model.Image;
 import software.amazon.awssdk.services.rekognition.model.Label;
 import software.amazon.awssdk.services.rekognition.model.S3Object;
 
+import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
-public class ProcessFileHandler implements RequestHandler<S3EventNotification, Void> {
+import static java.util.Objects.isNull;
 
-    private final static String TABLE_NAME = System.getenv("TABLE_NAME");
+public class ProcessFileHandler implements RequestHandler<S3Event, Void> {
 
-    private final RekognitionClient rekognitionClient = RekognitionClient.create();
-    private final DynamoDbClient dynamoDbClient = DynamoDbClient.create();
+    private final static String TABLE_NAME = Environment.get("TABLE_NAME");
+    private final static int ANALYSIS_CONCURRENCY = Environment.intValue("ANALYSIS_CONCURRENCY", 8);
+    private final static int WRITE_MAX_ATTEMPTS = Environment.intValue("WRITE_MAX_ATTEMPTS", 8);
+    private final static int WRITE_BACKOFF_MS = Environment.intValue("WRITE_BACKOFF_MS", 50);
+    private final static String SEARCH_INDEX_TABLE = Environment.get("SEARCH_INDEX_TABLE");
+    private final static String THUMBNAIL_SIZES = Environment.get("THUMBNAIL_SIZES");
+    private final static int THUMBNAIL_MAX_MEGAPIXELS = Environment.intValue("THUMBNAIL_MAX_MEGAPIXELS", 100);
+    private final static int THUMBNAIL_QUALITY = Environment.intValue("THUMBNAIL_QUALITY", 80);
+    private final static String DEDUP_TABLE = Environment.get("DEDUP_TABLE");
+    private final static int DEDUP_LEASE_SECONDS = Environment.intValue("DEDUP_LEASE_SECONDS", 900);
+    private final static int DEDUP_RETENTION_HOURS = Environment.intValue("DEDUP_RETENTION_HOURS", 72);
+    private final static String USER_STATE_TABLE = Environment.get("USER_STATE_TABLE");
+
+    static {
+        // thumbnails are drawn with AWT, which must not look for a display
+        System.setProperty("java.awt.headless", "true");
+    }
+
+    private final RekognitionClient rekognitionClient = Clients.rekognition();
+    private final DynamoDbClient dynamoDbClient = Clients.dynamoDb();
+    private final ExecutorService executor = Executors.newFixedThreadPool(ANALYSIS_CONCURRENCY, runnable -> {
+        Thread thread = new Thread(runnable, "process-file-analysis");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final BatchProcessor batchProcessor = new BatchProcessor(executor, new BatchWriter(dynamoDbClient, TABLE_NAME, WRITE_MAX_ATTEMPTS, WRITE_BACKOFF_MS));
+    private final SearchIndex searchIndex = new SearchIndex(dynamoDbClient, SEARCH_INDEX_TABLE);
+    private final ThumbnailGenerator thumbnailGenerator = new ThumbnailGenerator(Clients.s3(), thumbnailSizes(THUMBNAIL_SIZES),
+            THUMBNAIL_MAX_MEGAPIXELS * 1_000_000L, THUMBNAIL_QUALITY / 100f);
+    private final FileTypeClassifier fileTypeClassifier = new FileTypeClassifier(Clients.s3());
+    private final EventDeduplicator eventDeduplicator = new EventDeduplicator(dynamoDbClient, DEDUP_TABLE, DEDUP_LEASE_SECONDS, DEDUP_RETENTION_HOURS);
+    private final ListVersions listVersions = new ListVersions(dynamoDbClient, USER_STATE_TABLE);
+
+    public ProcessFileHandler() {
+        Clients.warmUp(dynamoDbClient);
+    }
 
     @Override
-    public Void handleRequest(S3EventNotification event, Context context) {
+    public Void handleRequest(S3Event event, Context context) {
+        final Metrics metrics = Metrics.start(context);
+        metrics.count("Records", event.getRecords().size());
         try {
-            for (S3EventNotification.S3EventNotificationRecord record : event.getRecords()) {
-                final String key = URLDecoder.decode(record.getS3().getObject().getKey(), "UTF-8");
-                final String[] idFileName = key.split("/");
-                final NoteType type = idFileName[2].matches("(.*/)*.+\\.(png|jpg|gif|bmp|jpeg|PNG|JPG|GIF|BMP)$") ? NoteType.IMAGE : NoteType.FILE;
-                final List<String> labels = type == NoteType.IMAGE ? analyze(key, record.getS3().getBucket().getName()) : Collections.emptyList();
-                final PersistedNote note = PersistedNote.file(idFileName[0], idFileName[1], idFileName[2], key, record.getS3().getObject().getSize(), type, labels);
-                persist(note);
+            // derivatives written by the service itself (offloaded note texts, thumbnails) are dropped before any claim
+            // is taken for them, see README.md for scoping the bucket notification so they don't invoke the function at all
+            final List<S3EventNotification.S3EventNotificationRecord> records = event.getRecords().stream()
+                    .filter(record -> !record.getS3().getObject().getUrlDecodedKey().startsWith("_"))
+                    .collect(Collectors.toList());
+            metrics.count("Records.Reserved", event.getRecords().size() - records.size());
+            if (records.isEmpty()) {
+                return null;
+            }
+            // dedup claims taken in this invocation by object key
+            final Map<String, String> claims = new ConcurrentHashMap<>();
+            final BatchResult result;
+            try {
+                result = batchProcessor.process(records, record -> toNote(record, claims, context.getLogger()), NoteItemCodec::toItem);
+            } catch (Exception e) {
+                context.getLogger().log("Exception while processing S3 event");
+                e.printStackTrace();
+                claims.values().forEach(id -> settle(id, false, context));
+                throw new IllegalStateException("Unable to process S3 event", e);
+            }
+            claims.forEach((key, id) -> settle(id, !result.getFailures().containsKey(key), context));
+            context.getLogger().log("Processed " + result.getRecords() + " records, " + result.getFailures().size() + " failed");
+            result.getFailures().forEach((key, reason) -> context.getLogger().log("Failed to process " + key + ": " + reason));
+            index(result.getWritten(), context);
+            result.getWritten().stream().map(PersistedNote::getUserId).distinct().forEach(userId -> listVersions.bumpQuietly(userId, context.getLogger()));
+            if (!result.isSuccessful()) {
+                // fail the invocation so the event is retried or sent to the DLQ instead of being silently dropped,
+                // the retry skips records which succeeded through their completed dedup claims
+                throw new IllegalStateException(result.getFailures().size() + " of " + result.getRecords() + " records failed");
             }
             return null;
+        } finally {
+            metrics.emit();
+        }
+    }
+
+    private void index(List<PersistedNote> notes, Context context) {
+        try {
+            for (PersistedNote note : searchIndex.indexAll(notes)) {
+                context.getLogger().log("Unable to index note " + note.getNoteId() + " for search");
+            }
+        } catch (Exception e) {
+            context.getLogger().log("Exception while indexing notes for search");
+            e.printStackTrace();
+        }
+    }
+
+    private void settle(String id, boolean processed, Context context) {
+        try {
+            if (processed) {
+                eventDeduplicator.complete(id);
+            } else {
+                eventDeduplicator.release(id);
+            }
         } catch (Exception e) {
-            context.getLogger().log("Exception while processing S3 event");
+            // an unsettled claim only delays the retry until its lease expires
+            context.getLogger().log("Unable to settle dedup claim " + id);
             e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return <code>null</code> for duplicate events which must not produce a note again
+     */
+    private PersistedNote toNote(S3EventNotification.S3EventNotificationRecord record, Map<String, String> claims, LambdaLogger logger) {
+        final String key;
+        try {
+            key = URLDecoder.decode(record.getS3().getObject().getKey(), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        final S3EventNotification.S3ObjectEntity object = record.getS3().getObject();
+        final String id = EventDeduplicator.id(record.getS3().getBucket().getName(), key, object.geteTag(), object.getSequencer());
+        if (!eventDeduplicator.claim(id, System.currentTimeMillis())) {
+            logger.log("Skipping duplicate event for " + key);
+            Metrics.current().count("Dedup.Skipped", 1);
             return null;
         }
+        claims.put(key, id);
+        final String[] idFileName = key.split("/");
+        final FileTypeClassifier.Format format = fileTypeClassifier.classify(record.getS3().getBucket().getName(), key, idFileName[2], object.getSizeAsLong(), logger);
+        final List<String> labels = format.isAnalyzable() ? analyze(key, record.getS3().getBucket().getName()) : Collections.emptyList();
+        final Map<String, String> thumbnails = format.isDecodable() ? thumbnails(record.getS3().getBucket().getName(), key, idFileName[0], idFileName[1], logger) : null;
+        return PersistedNote.file(idFileName[0], idFileName[1], idFileName[2], key, object.getSizeAsLong(), format.noteType(), labels, thumbnails);
     }
 
-    private void persist(PersistedNote note) {
-        dynamoDbClient.putItem(PutItemRequest
-                .builder()
-                .tableName(TABLE_NAME)
-                .item(mapToItem(note))
-                .build());
+    /**
+     * Thumbnails are best effort - a note without them is still listed, clients fall back to the original.
+     */
+    private Map<String, String> thumbnails(String bucketName, String key, String userId, String noteId, LambdaLogger logger) {
+        try {
+            return thumbnailGenerator.generate(bucketName, key, userId, noteId);
+        } catch (Exception e) {
+            logger.log("Unable to generate thumbnails of " + key);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static int[] thumbnailSizes(String value) {
+        if (isNull(value) || value.isEmpty()) {
+            return new int[]{128, 512};
+        }
+        return Arrays.stream(value.split(",")).map(String::trim).filter(size -> !size.isEmpty()).mapToInt(Integer::parseInt).toArray();
     }
 
     private List<String> analyze(String s3Location, String bucketName) {
@@ -72,19 +200,4 @@ public class ProcessFileHandler implements RequestHandler<S3EventNotification, V
                 .collect(Collectors.toList());
     }
 
-    private Map<String, AttributeValue> mapToItem(PersistedNote note) {
-        Map<String, AttributeValue> item = new HashMap<>();
-        item.put("userId", AttributeValue.builder().s(note.getUserId()).build());
-        item.put("noteId", AttributeValue.builder().s(note.getNoteId()).build());
-        item.put("title", AttributeValue.builder().s(note.getTitle()).build());
-        item.put("type", AttributeValue.builder().s(note.getType().name()).build());
-        item.put("size", AttributeValue.builder().n(Long.toString(note.getSize())).build());
-        item.put("s3Location", AttributeValue.builder().s(note.getS3Location()).build());
-        if (!note.getLabels().isEmpty()) {
-            item.put("labels", AttributeValue.builder().ss(note.getLabels()).build());
-        }
-        item.put("timestamp", AttributeValue.builder().n(Long.toString(note.getTimestamp())).build());
-        return item;
-    }
-
 }
@@ -0,0 +1,147 @@
+package dev.jozefowicz.stacjait.mynotes.processfile;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Derivative stage for image notes - writes downscaled JPEG thumbnails under {@link #PREFIX}.
+ * <p>
+ * The original is decoded straight from the <code>GetObject</code> stream with source subsampling, so only a raster
+ * about the size of the largest thumbnail is ever held on heap, not the full resolution image. Images with more than
+ * <code>maxPixels</code> pixels (as declared in their header) are skipped without decoding.
+ * <p>
+ * AWT must run headless, which is up to the application - {@link ProcessFileHandler} sets it on class initialization.
+ */
+public class ThumbnailGenerator {
+
+    /**
+     * Reserved prefix, ignored by {@link ProcessFileHandler}.
+     */
+    public static final String PREFIX = "_thumbnails/";
+
+    private final S3Client s3Client;
+    private final int[] sizes;
+    private final long maxPixels;
+    private final float quality;
+
+    /**
+     * @param sizes longest edge of each thumbnail in pixels
+     */
+    public ThumbnailGenerator(S3Client s3Client, int[] sizes, long maxPixels, float quality) {
+        this.s3Client = s3Client;
+        this.sizes = sizes.clone();
+        Arrays.sort(this.sizes);
+        this.maxPixels = maxPixels;
+        this.quality = quality;
+    }
+
+    /**
+     * @return locations of written thumbnails keyed by size, empty when the image can't be decoded or is too large
+     */
+    public Map<String, String> generate(String bucketName, String key, String userId, String noteId) throws IOException {
+        if (sizes.length == 0) {
+            return Collections.emptyMap();
+        }
+        final BufferedImage source = read(bucketName, key);
+        if (isNull(source)) {
+            return Collections.emptyMap();
+        }
+        final Map<String, String> thumbnails = new LinkedHashMap<>();
+        for (int size : sizes) {
+            final String location = PREFIX + userId + "/" + noteId + "/" + size + ".jpg";
+            s3Client.putObject(PutObjectRequest
+                    .builder()
+                    .bucket(bucketName)
+                    .key(location)
+                    .contentType("image/jpeg")
+                    .cacheControl("private, max-age=31536000, immutable")
+                    .build(), RequestBody.fromBytes(encode(scale(source, size))));
+            thumbnails.put(Integer.toString(size), location);
+        }
+        return thumbnails;
+    }
+
+    private BufferedImage read(String bucketName, String key) throws IOException {
+        try (ResponseInputStream<GetObjectResponse> object = s3Client.getObject(GetObjectRequest.builder().bucket(bucketName).key(key).build());
+             ImageInputStream input = ImageIO.createImageInputStream(object)) {
+            final Iterator<ImageReader> readers = isNull(input) ? Collections.emptyIterator() : ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                final int width = reader.getWidth(0);
+                final int height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    return null;
+                }
+                // decode every n-th pixel, keeping at least twice the largest thumbnail for a smooth final downscale
+                final int subsampling = Math.max(1, Math.max(width, height) / (2 * sizes[sizes.length - 1]));
+                final ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage source, int size) {
+        final double ratio = Math.min(1.0, (double) size / Math.max(source.getWidth(), source.getHeight()));
+        final int width = Math.max(1, (int) Math.round(source.getWidth() * ratio));
+        final int height = Math.max(1, (int) Math.round(source.getHeight() * ratio));
+        // JPEG has no alpha channel, transparent areas end up white
+        final BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = thumbnail.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, width, height, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return thumbnail;
+    }
+
+    private byte[] encode(BufferedImage image) throws IOException {
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(image.getWidth() * image.getHeight() / 4 + 1024);
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            final ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,63 @@
+package dev.jozefowicz.stacjait.mynotes.processfile;
+
+import dev.jozefowicz.stacjait.mynotes.processfile.FileTypeClassifier.Format;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FileTypeClassifierTest {
+
+    @Test
+    void sniffsImageFormats() {
+        assertEquals(Format.JPEG, FileTypeClassifier.sniff(bytes(0xFF, 0xD8, 0xFF, 0xE0)));
+        assertEquals(Format.PNG, FileTypeClassifier.sniff(bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0)));
+        assertEquals(Format.GIF, FileTypeClassifier.sniff(ascii("GIF89a")));
+        assertEquals(Format.WEBP, FileTypeClassifier.sniff(ascii("RIFF\0\0\0\0WEBPVP8 ")));
+        assertEquals(Format.TIFF, FileTypeClassifier.sniff(bytes('I', 'I', '*', 0, 8, 0)));
+        assertEquals(Format.TIFF, FileTypeClassifier.sniff(bytes('M', 'M', 0, '*', 0, 8)));
+        assertEquals(Format.HEIC, FileTypeClassifier.sniff(ascii("\0\0\0\u0018ftypheic")));
+        assertEquals(Format.AVIF, FileTypeClassifier.sniff(ascii("\0\0\0\u0018ftypavif")));
+    }
+
+    @Test
+    void sniffsBitmapOnlyWithKnownDibHeader() {
+        final byte[] bitmap = new byte[54];
+        bitmap[0] = 'B';
+        bitmap[1] = 'M';
+        bitmap[14] = 40;
+        assertEquals(Format.BMP, FileTypeClassifier.sniff(bitmap));
+        assertEquals(Format.OTHER, FileTypeClassifier.sniff(ascii("BMW,Model,Year\nX5,SUV,2020\n")));
+        assertEquals(Format.OTHER, FileTypeClassifier.sniff(ascii("BM")));
+    }
+
+    @Test
+    void treatsOtherContentAsOther() {
+        assertEquals(Format.OTHER, FileTypeClassifier.sniff(new byte[0]));
+        assertEquals(Format.OTHER, FileTypeClassifier.sniff(ascii("%PDF-1.7")));
+        assertEquals(Format.OTHER, FileTypeClassifier.sniff(ascii("\0\0\0\u0018ftypmp42")));
+        assertEquals(Format.OTHER, FileTypeClassifier.sniff(ascii("GIF8")));
+    }
+
+    @Test
+    void classifiesByExtension() {
+        assertEquals(Format.JPEG, FileTypeClassifier.byName("photo.JPG"));
+        assertEquals(Format.TIFF, FileTypeClassifier.byName("scan.tiff"));
+        assertEquals(Format.OTHER, FileTypeClassifier.byName("document.pdf"));
+        assertEquals(Format.OTHER, FileTypeClassifier.byName("jpg"));
+        assertEquals(Format.OTHER, FileTypeClassifier.byName("photo."));
+    }
+
+    private static byte[] bytes(int... values) {
+        final byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
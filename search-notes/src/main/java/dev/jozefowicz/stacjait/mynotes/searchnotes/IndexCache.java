@@ -0,0 +1,43 @@
+package dev.jozefowicz.stacjait.mynotes.searchnotes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Per container LRU cache of loaded user indexes.
+ * <p>
+ * Writers never notify the search function, so an entry is reloaded once it is older than <code>ttlMillis</code>
+ * - that is the bound on how stale search results can be.
+ */
+public class IndexCache {
+
+    private final long ttlMillis;
+    private final Map<String, UserIndex> indexes;
+
+    public IndexCache(int maxEntries, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.indexes = new LinkedHashMap<String, UserIndex>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UserIndex> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public UserIndex get(String userId, long now, Function<String, UserIndex> loader) {
+        UserIndex index;
+        synchronized (indexes) {
+            index = indexes.get(userId);
+        }
+        if (isNull(index) || now - index.getLoadedAt() > ttlMillis) {
+            index = loader.apply(userId);
+            synchronized (indexes) {
+                indexes.put(userId, index);
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,178 @@
+package dev.jozefowicz.stacjait.mynotes.searchnotes;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.jozefowicz.stacjait.mynotes.common.BatchReader;
+import dev.jozefowicz.stacjait.mynotes.common.Clients;
+import dev.jozefowicz.stacjait.mynotes.common.Environment;
+import dev.jozefowicz.stacjait.mynotes.common.Metrics;
+import dev.jozefowicz.stacjait.mynotes.common.NoteItemCodec;
+import dev.jozefowicz.stacjait.mynotes.common.ResponseNote;
+import dev.jozefowicz.stacjait.mynotes.common.SearchIndex;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.QueryResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static dev.jozefowicz.stacjait.mynotes.common.APIGatewayProxyResponseEventBuilder.response;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Full-text search over a user's notes.
+ * <p>
+ * The user's index documents are loaded with a single paginated query and inverted in memory (see {@link UserIndex}),
+ * kept warm between invocations by {@link IndexCache}. Only the matching page of notes is then read from the notes table.
+ * <p>
+ * Matches are paged with <code>offset</code> and <code>limit</code> over the newest-first order, <code>total</code> counts all
+ * matches so clients know when to stop.
+ */
+public class SearchNotesHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+
+    private static final String TABLE_NAME = Environment.get("TABLE_NAME");
+    private static final String SEARCH_INDEX_TABLE = Environment.get("SEARCH_INDEX_TABLE");
+    private static final int SEARCH_CACHE_TTL_SECONDS = Environment.intValue("SEARCH_CACHE_TTL_SECONDS", 30);
+    private static final int SEARCH_CACHE_MAX_USERS = Environment.intValue("SEARCH_CACHE_MAX_USERS", 100);
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 100;
+    private static final int READ_MAX_ATTEMPTS = Environment.intValue("READ_MAX_ATTEMPTS", 5);
+    private static final int READ_BACKOFF_MS = Environment.intValue("READ_BACKOFF_MS", 25);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DynamoDbClient dynamoDbClient = Clients.dynamoDb();
+    private final BatchReader batchReader = new BatchReader(dynamoDbClient, TABLE_NAME, READ_MAX_ATTEMPTS, READ_BACKOFF_MS);
+    private final IndexCache indexCache = new IndexCache(SEARCH_CACHE_MAX_USERS, SEARCH_CACHE_TTL_SECONDS * 1000L);
+
+    public SearchNotesHandler() {
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        Clients.warmUp(dynamoDbClient);
+    }
+
+    @Override
+    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent request, Context context) {
+        final Metrics metrics = Metrics.start(context);
+        metrics.size("RequestBytes", request.getBody());
+        try {
+            if (!request.getHttpMethod().equalsIgnoreCase("get")) {
+                return response(405, null);
+            } else if (isNull(request.getRequestContext().getAuthorizer()) || request.getRequestContext().getAuthorizer().isEmpty()) {
+                context.getLogger().log("Authorizer not configured");
+                return response(401, null);
+            }
+
+            Map<String, String> claims = (Map<String, String>) request.getRequestContext().getAuthorizer().get("claims");
+            final String userId = claims.get("cognito:username");
+
+            final Map<String, String> queryParameters = nonNull(request.getQueryStringParameters()) ? request.getQueryStringParameters() : Collections.emptyMap();
+            final Set<String> terms = SearchIndex.terms(queryParameters.get("q"));
+            final Integer limit = limit(queryParameters.get("limit"));
+            final Integer offset = offset(queryParameters.get("offset"));
+            if (terms.isEmpty() || isNull(limit) || isNull(offset)) {
+                return response(400, null);
+            }
+
+            final List<String> noteIds = indexCache.get(userId, System.currentTimeMillis(), this::load).search(terms);
+            final int from = Math.min(offset, noteIds.size());
+            final List<ResponseNote> notes = fetch(userId, noteIds.subList(from, Math.min(from + limit, noteIds.size())));
+            return response(200, objectMapper.writeValueAsString(new SearchResult(notes, offset, noteIds.size())));
+        } catch (Exception e) {
+            context.getLogger().log("Exception while processing request");
+            e.printStackTrace();
+            return response(500, null);
+        } finally {
+            metrics.emit();
+        }
+    }
+
+    private UserIndex load(String userId) {
+        final long loadedAt = System.currentTimeMillis();
+        final Map<String, String> attributeNames = new HashMap<>();
+        attributeNames.put("#userId", NoteItemCodec.USER_ID);
+        attributeNames.put("#noteId", NoteItemCodec.NOTE_ID);
+        attributeNames.put("#timestamp", NoteItemCodec.TIMESTAMP);
+        attributeNames.put("#terms", SearchIndex.TERMS);
+
+        final List<Map<String, AttributeValue>> documents = new ArrayList<>();
+        Map<String, AttributeValue> exclusiveStartKey = null;
+        do {
+            QueryResponse queryResponse = dynamoDbClient.query(QueryRequest
+                    .builder()
+                    .tableName(SEARCH_INDEX_TABLE)
+                    .keyConditionExpression("#userId = :userId")
+                    .projectionExpression("#noteId, #timestamp, #terms")
+                    .expressionAttributeNames(attributeNames)
+                    .expressionAttributeValues(Collections.singletonMap(":userId", AttributeValue.builder().s(userId).build()))
+                    .exclusiveStartKey(exclusiveStartKey)
+                    .build());
+            documents.addAll(queryResponse.items());
+            exclusiveStartKey = queryResponse.hasLastEvaluatedKey() && !queryResponse.lastEvaluatedKey().isEmpty() ? queryResponse.lastEvaluatedKey() : null;
+        } while (nonNull(exclusiveStartKey));
+        return UserIndex.of(documents, loadedAt);
+    }
+
+    /**
+     * Reads the notes with <code>BatchGetItem</code> and returns them in the order of <code>noteIds</code>.
+     * Notes deleted since the index was loaded are skipped.
+     */
+    private List<ResponseNote> fetch(String userId, List<String> noteIds) throws InterruptedException {
+        if (noteIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<Map<String, AttributeValue>> keys = new ArrayList<>(noteIds.size());
+        for (String noteId : noteIds) {
+            keys.add(NoteItemCodec.key(userId, noteId));
+        }
+
+        final Map<String, ResponseNote> byNoteId = new HashMap<>();
+        for (Map<String, AttributeValue> item : batchReader.read(keys)) {
+            final ResponseNote note = NoteItemCodec.toResponseNote(item);
+            byNoteId.put(note.getNoteId(), note);
+        }
+
+        final List<ResponseNote> notes = new ArrayList<>(noteIds.size());
+        for (String noteId : noteIds) {
+            final ResponseNote note = byNoteId.get(noteId);
+            if (nonNull(note)) {
+                notes.add(note);
+            }
+        }
+        return notes;
+    }
+
+    private Integer limit(String value) {
+        if (isNull(value)) {
+            return DEFAULT_LIMIT;
+        }
+        try {
+            final int limit = Integer.parseInt(value);
+            return limit > 0 ? Math.min(limit, MAX_LIMIT) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Integer offset(String value) {
+        if (isNull(value)) {
+            return 0;
+        }
+        try {
+            final int offset = Integer.parseInt(value);
+            return offset >= 0 ? offset : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+}
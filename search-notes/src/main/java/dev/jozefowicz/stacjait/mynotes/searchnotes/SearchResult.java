@@ -0,0 +1,29 @@
+package dev.jozefowicz.stacjait.mynotes.searchnotes;
+
+import dev.jozefowicz.stacjait.mynotes.common.ResponseNote;
+
+import java.util.List;
+
+public class SearchResult {
+    private final List<ResponseNote> elements;
+    private final int offset;
+    private final int total;
+
+    public SearchResult(List<ResponseNote> elements, int offset, int total) {
+        this.elements = elements;
+        this.offset = offset;
+        this.total = total;
+    }
+
+    public List<ResponseNote> getElements() {
+        return elements;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+}
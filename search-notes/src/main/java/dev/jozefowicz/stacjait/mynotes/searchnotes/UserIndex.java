@@ -0,0 +1,118 @@
+package dev.jozefowicz.stacjait.mynotes.searchnotes;
+
+import dev.jozefowicz.stacjait.mynotes.common.NoteItemCodec;
+import dev.jozefowicz.stacjait.mynotes.common.SearchIndex;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Objects.isNull;
+
+/**
+ * In-memory inverted index of a single user's notes built from their search index documents.
+ * <p>
+ * Documents are numbered newest first, so every posting list is sorted by recency and the intersection of the lists
+ * is already in response order.
+ */
+public class UserIndex {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final String[] noteIds;
+    private final Map<String, int[]> postings;
+    private final long loadedAt;
+
+    private UserIndex(String[] noteIds, Map<String, int[]> postings, long loadedAt) {
+        this.noteIds = noteIds;
+        this.postings = postings;
+        this.loadedAt = loadedAt;
+    }
+
+    public static UserIndex of(List<Map<String, AttributeValue>> documents, long loadedAt) {
+        final List<Map<String, AttributeValue>> sorted = new ArrayList<>(documents);
+        sorted.sort(Comparator.comparingLong((Map<String, AttributeValue> document) -> Long.parseLong(document.get(NoteItemCodec.TIMESTAMP).n())).reversed());
+
+        final String[] noteIds = new String[sorted.size()];
+        final Map<String, int[]> postings = new HashMap<>();
+        final Map<String, Integer> sizes = new HashMap<>();
+        for (int document = 0; document < sorted.size(); document++) {
+            noteIds[document] = sorted.get(document).get(NoteItemCodec.NOTE_ID).s();
+            final AttributeValue terms = sorted.get(document).get(SearchIndex.TERMS);
+            if (isNull(terms) || terms.s().isEmpty()) {
+                continue;
+            }
+            for (String term : terms.s().split(" ")) {
+                int[] posting = postings.getOrDefault(term, EMPTY);
+                final int size = sizes.getOrDefault(term, 0);
+                if (size == posting.length) {
+                    posting = Arrays.copyOf(posting, Math.max(4, size * 2));
+                    postings.put(term, posting);
+                }
+                posting[size] = document;
+                sizes.put(term, size + 1);
+            }
+        }
+        sizes.forEach((term, size) -> postings.put(term, Arrays.copyOf(postings.get(term), size)));
+        return new UserIndex(noteIds, postings, loadedAt);
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    public int size() {
+        return noteIds.length;
+    }
+
+    /**
+     * @return ids of notes containing all the terms, newest first
+     */
+    public List<String> search(Set<String> terms) {
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<int[]> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            final int[] posting = postings.get(term);
+            if (isNull(posting)) {
+                return Collections.emptyList();
+            }
+            lists.add(posting);
+        }
+        // intersecting from the shortest list keeps every step bounded by the rarest term
+        lists.sort(Comparator.comparingInt(posting -> posting.length));
+
+        final int[] matches = lists.get(0).clone();
+        int count = matches.length;
+        for (int i = 1; i < lists.size() && count > 0; i++) {
+            count = intersect(matches, count, lists.get(i));
+        }
+
+        final List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(noteIds[matches[i]]);
+        }
+        return result;
+    }
+
+    private static int intersect(int[] matches, int count, int[] posting) {
+        int kept = 0;
+        int position = 0;
+        for (int i = 0; i < count && position < posting.length; i++) {
+            position = Arrays.binarySearch(posting, position, posting.length, matches[i]);
+            if (position >= 0) {
+                matches[kept++] = matches[i];
+            } else {
+                position = -position - 1;
+            }
+        }
+        return kept;
+    }
+}